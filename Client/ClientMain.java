@@ -176,10 +176,18 @@ public class ClientMain {
     }
 
     private static void handleCityHotelsSearch(Scanner scanner) {
-        String cityHotel = getInput(scanner, "Inserisci una città");
+        String input = getInput(scanner, "Inserisci una città (più città separate da virgola)");
+
+        // Le città indicate vengono cercate con un'unica serie di richieste
+        List<String> cities = new ArrayList<>();
+        for (String city : input.split(",")) {
+            if (!city.trim().isEmpty()) {
+                cities.add(city.trim());
+            }
+        }
 
         try {
-            hotelierClient.searchAllHotels(cityHotel);
+            hotelierClient.searchAllHotels(cities);
         } catch (IOException e) {
             handleGenericException(e);
         }
@@ -383,7 +391,9 @@ public class ClientMain {
                     Integer.parseInt(prop.getProperty("G_generator")),
                     null, null, null, null,
                     null, null, null,
-                    null, null
+                    null, null,
+                    prop.getProperty("protocol", "json"),
+                    Boolean.parseBoolean(prop.getProperty("compression", "false"))
             );
             return true;
         } catch (IOException e) {
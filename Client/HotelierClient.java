@@ -2,7 +2,6 @@ package Client;
 
 import Shared.*;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 
 import java.io.IOException;
 import java.math.BigInteger;
@@ -70,6 +69,12 @@ public class HotelierClient {
     //Gestore del multicast per ricevere aggiornamenti relativi agli hotel.
     private MulticastManager multicastManager;
 
+    //Protocollo usato per le richieste al server: "json" oppure "binary".
+    private String protocol;
+
+    //Indica se chiedere al server di comprimere le risposte più grandi.
+    private boolean compression;
+
     /**
      * Costruttore della classe HotelierClient.
      *
@@ -89,6 +94,8 @@ public class HotelierClient {
      * @param notificationServer    Oggetto remoto del servizio di notifica.
      * @param registrationServer    Oggetto remoto del servizio di registrazione.
      * @param multicastManager      Gestore del multicast per ricevere aggiornamenti relativi agli hotel.
+     * @param protocol              Protocollo usato per le richieste al server: "json" oppure "binary".
+     * @param compression           Indica se chiedere al server di comprimere le risposte più grandi.
      */
     public HotelierClient(String multicastAddress, int port_multicast, int registryPort, int callbackObjPort,
                           int server_port_tcp, int P_number, int g,
@@ -96,7 +103,7 @@ public class HotelierClient {
                           NotifyEventInterface clientNotificationStub,
                           NotifyEventImpl notifyEventImpl,
                           NotificationService notificationServer, RegistrationService registrationServer,
-                          MulticastManager multicastManager) {
+                          MulticastManager multicastManager, String protocol, boolean compression) {
         this.multicastAddress = multicastAddress;
         this.port_multicast = port_multicast;
         this.registryPort = registryPort;
@@ -113,6 +120,8 @@ public class HotelierClient {
         this.notificationServer = notificationServer;
         this.registrationServer = registrationServer;
         this.multicastManager = multicastManager;
+        this.protocol = protocol;
+        this.compression = compression;
     }
 
     public NotifyEventImpl getNotifyEventImpl(){
@@ -212,7 +221,7 @@ public class HotelierClient {
      */
     public void registerUser(String username, String password) throws RemoteException {
         // Crea un'istanza di Gson per la manipolazione dei dati JSON
-        Gson gson = new Gson();
+        Gson gson = JsonCodec.GSON;
 
         // Cifra la password dell'utente utilizzando la chiave di sicurezza
         byte[] encryptedPassword = SecurityClass.encrypt(password, securityKey);
@@ -255,18 +264,8 @@ public class HotelierClient {
         request.addParam("password", SecurityClass.encrypt(password, securityKey));
         request.addParam("uuidClient", uuidclient);
 
-        // Converti la richiesta in formato JSON
-        Gson gson = new Gson();
-        String jsonRequest = gson.toJson(request);
-
-        // Invia la richiesta JSON al server
-        socketClient.sendRequest(jsonRequest);
-
-        // Legge la risposta JSON dal server
-        String jsonResponse = socketClient.readResponse();
-
-        // Trasforma la risposta JSON in un oggetto Response
-        Response response = gson.fromJson(jsonResponse, Response.class);
+        // Invia la richiesta al server e legge la risposta
+        Response response = exchange(request);
 
         // Controlla lo stato della risposta
         if (response.getStatusCode() == 200) {
@@ -304,7 +303,7 @@ public class HotelierClient {
         String jsonResponse = notificationServer.registerForCallback(city.toLowerCase(), clientNotificationStub);
 
         // Trasforma la risposta JSON in un oggetto Response
-        Gson gson = new Gson();
+        Gson gson = JsonCodec.GSON;
         Response response = gson.fromJson(jsonResponse, Response.class);
 
         // Controlla lo stato della risposta
@@ -332,7 +331,7 @@ public class HotelierClient {
      * @throws RemoteException Se si verifica un errore durante la comunicazione con il server RMI.
      */
     public void deregisterCity(String city) throws RemoteException {
-        Gson gson = new Gson();
+        Gson gson = JsonCodec.GSON;
         // Invoca il metodo del server per deregistrare l'utente dal servizio di notifica della città specificata
         String jsonResponse = notificationServer.unregisterForCallback(city, clientNotificationStub);
 
@@ -369,18 +368,8 @@ public class HotelierClient {
         request.addParam("username", username);
 
 
-        Gson gson = new Gson();
-
-        // Invia la richiesta JSON al server
-        String jsonRequest = gson.toJson(request);
-        socketClient.sendRequest(jsonRequest);
-
-        // Legge la risposta JSON dal server
-        String jsonResponse;
-        jsonResponse = socketClient.readResponse();
-
-        // Trasforma la risposta JSON in un oggetto Response
-        Response response = gson.fromJson(jsonResponse, Response.class);
+        // Invia la richiesta al server e legge la risposta
+        Response response = exchange(request);
 
         // Controlla lo stato della risposta
         if (response.getStatusCode() == 200) {
@@ -426,18 +415,9 @@ public class HotelierClient {
         request.addParam("name_hotel", nameHotel.toLowerCase());
         request.addParam("city_hotel", cityHotel.toLowerCase());
 
-        // Converti la richiesta in formato JSON
-        Gson gson = new Gson();
-        String jsonRequest = gson.toJson(request);
-
-        // Invia la richiesta al server
-        socketClient.sendRequest(jsonRequest);
-
-        // Leggi la risposta dal server
-        String jsonResponse = socketClient.readResponse();
-
-        // Trasforma la risposta JSON in un oggetto Response
-        Response response = gson.fromJson(jsonResponse, Response.class);
+        // Invia la richiesta al server e legge la risposta
+        Response response = exchange(request);
+        Gson gson = JsonCodec.GSON;
 
         // Controlla lo stato della risposta
         if (response.getStatusCode() == 200) {
@@ -448,7 +428,8 @@ public class HotelierClient {
             Object result = response.getMessage().getResult();
 
             // Converti il risultato in un oggetto Hotel
-            Hotel hotel = gson.fromJson(gson.toJson(result), Hotel.class);
+            // Con il protocollo binario il risultato è già un Hotel
+            Hotel hotel = result instanceof Hotel ? (Hotel) result : gson.fromJson(gson.toJson(result), Hotel.class);
 
             // Stampa le informazioni dell'hotel
             printInfoHotel(hotel);
@@ -503,23 +484,71 @@ public class HotelierClient {
      * @throws IOException Se si verifica un errore durante la comunicazione con il server.
      */
     public void searchAllHotels(String cityHotel) throws IOException {
-        // Crea una nuova richiesta con l'operazione "SearchAllHotels"
+        searchAllHotels(Collections.singletonList(cityHotel));
+    }
+
+    /**
+     * Metodo per cercare tutti gli hotel di più città ordinati per ranking.
+     * Con più città le ricerche vengono inviate al server in un'unica richiesta Batch,
+     * la cui risposta contiene le risposte alle singole ricerche nello stesso ordine delle città.
+     *
+     * @param cities Le città per cui cercare gli hotel.
+     * @throws IOException Se si verifica un errore durante la comunicazione con il server.
+     */
+    public void searchAllHotels(List<String> cities) throws IOException {
+        Gson gson = JsonCodec.PRETTY_GSON;
+
+        if (cities.size() == 1) {
+            // Crea una nuova richiesta con l'operazione "SearchAllHotels"
+            Request request = new Request();
+            request.setOperation("SearchAllHotels");
+            request.addParam("city_hotel", cities.get(0).toLowerCase());
+
+            // Invia la richiesta al server e stampa la risposta
+            printHotelsResponse(exchange(request), gson);
+            return;
+        }
+
+        // Crea una richiesta "Batch" con una ricerca per ogni città
+        List<Map<String, Object>> searches = new ArrayList<>();
+        for (String cityHotel : cities) {
+            Map<String, Object> param = new HashMap<>();
+            param.put("city_hotel", cityHotel.toLowerCase());
+
+            Map<String, Object> search = new HashMap<>();
+            search.put("operation", "SearchAllHotels");
+            search.put("param", param);
+            searches.add(search);
+        }
         Request request = new Request();
-        request.setOperation("SearchAllHotels");
-        request.addParam("city_hotel", cityHotel.toLowerCase());
+        request.setOperation("Batch");
+        request.addParam("requests", searches);
+        request.setId(socketClient.nextRequestId());
 
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        String jsonRequest = gson.toJson(request);
+        Response response = exchange(request);
+        if (response.getId() != null && !response.getId().equals(request.getId())) {
+            throw new IOException("Risposta inattesa dal server: richiesta " + request.getId() + ", ricevuta " + response.getId());
+        }
+        if (response.getStatusCode() != 200) {
+            System.out.println("Errore: " + response.getMessage().getBody());
+            return;
+        }
 
-        // Invia la richiesta JSON al server tramite il socket client
-        socketClient.sendRequest(jsonRequest);
+        // Stampa le risposte alle singole ricerche, nello stesso ordine delle città
+        List<?> responses = (List<?>) response.getMessage().getResult();
+        for (int i = 0; i < responses.size(); i++) {
+            Object item = responses.get(i);
 
-        // Legge la risposta JSON dal server
-        String jsonResponse = socketClient.readResponse();
+            // Con il protocollo binario gli elementi sono già delle Response
+            Response cityResponse = item instanceof Response ? (Response) item : gson.fromJson(gson.toJson(item), Response.class);
 
-        // Trasforma la risposta JSON in un oggetto Response
-        Response response = gson.fromJson(jsonResponse, Response.class);
+            System.out.println("Città: " + cities.get(i));
+            printHotelsResponse(cityResponse, gson);
+        }
+    }
 
+    // Stampa l'esito di una ricerca degli hotel di una città
+    private void printHotelsResponse(Response response, Gson gson) {
         // Controlla lo stato della risposta
         if (response.getStatusCode() == 200) {
             // Successo, stampa il messaggio di successo
@@ -532,8 +561,8 @@ public class HotelierClient {
             List<Hotel> hotelList = new ArrayList<>();
             for (Object item : (ArrayList<?>) result) {
 
-                String itemJson = gson.toJson(item);
-                Hotel hotel = gson.fromJson(itemJson, Hotel.class);
+                // Con il protocollo binario gli elementi sono già degli Hotel
+                Hotel hotel = item instanceof Hotel ? (Hotel) item : gson.fromJson(gson.toJson(item), Hotel.class);
                 hotelList.add(hotel);
             }
 
@@ -581,18 +610,8 @@ public class HotelierClient {
         request.setOperation("ShowMyBadges");
         request.addParam("username", username);
 
-        // Converti la richiesta in formato JSON
-        Gson gson = new Gson();
-        String jsonRequest = gson.toJson(request);
-
-        // Invia la richiesta al server
-        socketClient.sendRequest(jsonRequest);
-
-        // Leggi la risposta dal server
-        String jsonResponse = socketClient.readResponse();
-
-        // Trasforma la risposta JSON in un oggetto Response
-        Response response = gson.fromJson(jsonResponse, Response.class);
+        // Invia la richiesta al server e legge la risposta
+        Response response = exchange(request);
 
         // Controlla lo stato della risposta
         if (response.getStatusCode() == 200) {
@@ -630,17 +649,8 @@ public class HotelierClient {
         request.addParam("singles_scores", singlesScores);
 
 
-        Gson gson = new Gson();
-        String jsonRequest = gson.toJson(request);
-
-        // Invio della richiesta JSON al server
-        socketClient.sendRequest(jsonRequest);
-
-        // Lettura della risposta JSON inviata dal server
-        String jsonResponse = socketClient.readResponse();
-
-        // Trasformazione della risposta JSON in un oggetto Response
-        Response response = gson.fromJson(jsonResponse, Response.class);
+        // Invio della richiesta al server e lettura della risposta
+        Response response = exchange(request);
 
         // Controllo dello stato della risposta e gestione dell'esito
         if (response.getStatusCode() == 200) {
@@ -688,19 +698,13 @@ public class HotelierClient {
         Request request = new Request();
         request.setOperation("SendKey");
         request.addParam("public_key", C.toString());
-        Gson gson = new Gson();
+        Gson gson = JsonCodec.GSON;
 
-        // Invio della richiesta al server
+        // Invio della richiesta al server e lettura della risposta
         if(ClientMain.DEBUG) System.out.println("Invio della chiave pubblica al server...");
-        socketClient.sendRequest(gson.toJson(request));
-
-        // Lettura della risposta del server
-        String jsonResponse = socketClient.readResponse();
+        Response response = exchange(request);
         if(ClientMain.DEBUG) System.out.println("Risposta ricevuta dal server.");
 
-        // Trasformazione della risposta JSON in un oggetto Response
-        Response response = gson.fromJson(jsonResponse, Response.class);
-
         // Verifica dello stato della risposta
         if (response.getStatusCode() == 200) {
             // Elaborazione della risposta in caso di successo
@@ -738,6 +742,72 @@ public class HotelierClient {
     }
 
 
+    /**
+     * Chiede al server di usare il protocollo binario per le richieste successive.
+     * La richiesta di negoziazione e la sua risposta viaggiano ancora in JSON;
+     * se il server non accetta, il client continua a usare il JSON.
+     *
+     * @throws IOException Se si verifica un errore durante la comunicazione con il server.
+     */
+    private void negotiateBinaryProtocol() throws IOException {
+        Request request = new Request();
+        request.setOperation("SetProtocol");
+        request.addParam("protocol", BinaryProtocol.BINARY);
+
+        Gson gson = JsonCodec.GSON;
+        socketClient.sendRequest(gson.toJson(request));
+        Response response = gson.fromJson(socketClient.readResponse(), Response.class);
+
+        if (response.getStatusCode() != 200) {
+            System.out.println("Protocollo binario non disponibile, uso il JSON: " + response.getMessage().getBody());
+            protocol = BinaryProtocol.JSON;
+        } else if (ClientMain.DEBUG) {
+            System.out.println("Protocollo binario attivo");
+        }
+    }
+
+    /**
+     * Chiede al server di comprimere le risposte più grandi della soglia configurata sul server.
+     * La decompressione avviene nel SocketClient, per cui il resto del client non cambia.
+     *
+     * @throws IOException Se si verifica un errore durante la comunicazione con il server.
+     */
+    private void enableCompression() throws IOException {
+        Request request = new Request();
+        request.setOperation("SetCompression");
+        request.addParam("enabled", true);
+
+        Response response = exchange(request);
+        if (response.getStatusCode() != 200) {
+            System.out.println("Compressione non disponibile: " + response.getMessage().getBody());
+        } else if (ClientMain.DEBUG) {
+            System.out.println("Compressione delle risposte attiva");
+        }
+    }
+
+    // Invia una richiesta al server e ne legge la risposta
+    private Response exchange(Request request) throws IOException {
+        send(request);
+        return receive();
+    }
+
+    // Invia una richiesta al server, codificata con il protocollo in uso
+    private void send(Request request) throws IOException {
+        if (BinaryProtocol.BINARY.equals(protocol)) {
+            socketClient.sendFrame(BinaryProtocol.encodeRequest(request.getOperation(), request.getParams(), request.getId()));
+        } else {
+            socketClient.sendRequest(JsonCodec.GSON.toJson(request));
+        }
+    }
+
+    // Legge la prossima risposta del server, decodificata con il protocollo in uso
+    private Response receive() throws IOException {
+        if (BinaryProtocol.BINARY.equals(protocol)) {
+            return BinaryProtocol.decodeResponse(socketClient.readFrame());
+        }
+        return JsonCodec.GSON.fromJson(socketClient.readResponse(), Response.class);
+    }
+
     /**
      * Inizializza e avvia il client Hotelier.
      *
@@ -752,6 +822,16 @@ public class HotelierClient {
         socketClient = new SocketClient(server_port_tcp);
         System.out.println("Client socket inizializzato con successo.");
 
+        // Negozia il protocollo binario se richiesto nella configurazione
+        if (BinaryProtocol.BINARY.equals(protocol)) {
+            negotiateBinaryProtocol();
+        }
+
+        // Chiede la compressione delle risposte se richiesta nella configurazione
+        if (compression) {
+            enableCompression();
+        }
+
         // Gestisce la generazione e la ricezione dei dati di sicurezza
         if (ClientMain.DEBUG) System.out.println("Gestione dei dati di sicurezza...");
         sendAndReceiveSecurityData();
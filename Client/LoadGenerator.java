@@ -0,0 +1,179 @@
+package Client;
+
+import Shared.BinaryProtocol;
+import Shared.FrameCompressor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * La classe LoadGenerator genera un carico di richieste verso il server per misurarne il throughput,
+ * ad esempio per confrontare le modalità di esecuzione dei task (task_executor=fixed oppure virtual)
+ * lanciando lo stesso carico contro il server configurato nei due modi, oppure il protocollo JSON e quello binario
+ * e le risposte con e senza compressione.
+ *
+ * Apre più connessioni, ognuna gestita da un proprio thread, e su ogni connessione invia le richieste
+ * mantenendone in volo al massimo il numero indicato, sfruttando il pipelining del server.
+ * Al termine stampa il numero di richieste servite al secondo e le latenze misurate.
+ *
+ * Utilizzo: LoadGenerator [host] [porta] [connessioni] [richieste per connessione] [richieste in volo] [città] [json|binary] [compress]
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "127.0.0.1";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8000;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        int requestsPerConnection = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+        int pipelineDepth = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+        String city = args.length > 5 ? args[5] : "roma";
+        boolean binary = args.length > 6 && BinaryProtocol.BINARY.equals(args[6]);
+        boolean compress = args.length > 7 && "compress".equals(args[7]);
+
+        // Le richieste alternano la ricerca della classifica di una città e la ricerca di un hotel
+        byte[][] requests;
+        if (binary) {
+            Map<String, Object> allHotels = new HashMap<>();
+            allHotels.put("city_hotel", city);
+            Map<String, Object> hotel = new HashMap<>();
+            hotel.put("name_hotel", "hotel " + city + " 1");
+            hotel.put("city_hotel", city);
+            requests = new byte[][]{
+                    BinaryProtocol.encodeRequest("SearchAllHotels", allHotels, null).array(),
+                    BinaryProtocol.encodeRequest("SearchHotel", hotel, null).array()
+            };
+        } else {
+            requests = new byte[][]{
+                    frame("{\"operation\":\"SearchAllHotels\",\"param\":{\"city_hotel\":\"" + city + "\"}}"),
+                    frame("{\"operation\":\"SearchHotel\",\"param\":{\"name_hotel\":\"hotel " + city + " 1\",\"city_hotel\":\"" + city + "\"}}")
+            };
+        }
+        // Richieste di negoziazione inviate in JSON su ogni connessione prima di misurare
+        List<byte[]> handshake = new ArrayList<>();
+        if (compress) {
+            handshake.add(frame("{\"operation\":\"SetCompression\",\"param\":{\"enabled\":true}}"));
+        }
+        if (binary) {
+            handshake.add(frame("{\"operation\":\"SetProtocol\",\"param\":{\"protocol\":\"binary\"}}"));
+        }
+
+        long[][] latencies = new long[connections][];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            int index = c;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    latencies[index] = runConnection(host, port, handshake, requests, requestsPerConnection, pipelineDepth);
+                } catch (Exception e) {
+                    System.err.println("Errore sulla connessione " + index + ": " + e.getMessage());
+                    latencies[index] = new long[0];
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        // Unisce le latenze di tutte le connessioni per calcolare i percentili
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        double seconds = elapsed / 1e9;
+
+        System.out.println("protocollo=" + (binary ? BinaryProtocol.BINARY : BinaryProtocol.JSON)
+                + " compressione=" + compress
+                + " connessioni=" + connections
+                + " richieste in volo=" + pipelineDepth
+                + " richieste completate=" + all.length);
+        System.out.printf("tempo=%.2f s throughput=%.0f richieste/s%n", seconds, all.length / seconds);
+        if (all.length > 0) {
+            System.out.printf("latenza p50=%.2f ms p99=%.2f ms max=%.2f ms%n",
+                    percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6, all[all.length - 1] / 1e6);
+        }
+    }
+
+    // Invia le richieste su una connessione, dopo l'eventuale negoziazione del protocollo, mantenendone in volo al massimo pipelineDepth;
+    // restituisce le latenze in nanosecondi
+    private static long[] runConnection(String host, int port, List<byte[]> handshake, byte[][] requests, int count, int pipelineDepth) throws IOException {
+        long[] latencies = new long[count];
+        long[] sentAt = new long[count];
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        ByteBuffer body = ByteBuffer.allocate(64 * 1024);
+
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+            // Negozia il protocollo e la compressione prima di misurare
+            for (byte[] negotiation : handshake) {
+                ByteBuffer request = ByteBuffer.wrap(negotiation);
+                while (request.hasRemaining()) {
+                    channel.write(request);
+                }
+                header.clear();
+                readFully(channel, header);
+                ByteBuffer response = ByteBuffer.allocate(header.flip().getInt());
+                readFully(channel, response);
+            }
+
+            int sent = 0;
+            int received = 0;
+            while (received < count) {
+                // Invia nuove richieste finché il numero di richieste in volo lo consente
+                while (sent < count && sent - received < pipelineDepth) {
+                    sentAt[sent] = System.nanoTime();
+                    ByteBuffer request = ByteBuffer.wrap(requests[sent % requests.length]);
+                    while (request.hasRemaining()) {
+                        channel.write(request);
+                    }
+                    sent++;
+                }
+
+                // Legge la risposta successiva: le risposte arrivano nello stesso ordine delle richieste
+                header.clear();
+                readFully(channel, header);
+                int length = header.flip().getInt() & ~FrameCompressor.COMPRESSED_FLAG;
+                if (length > body.capacity()) {
+                    body = ByteBuffer.allocate(length);
+                }
+                body.clear().limit(length);
+                readFully(channel, body);
+
+                latencies[received] = System.nanoTime() - sentAt[received];
+                received++;
+            }
+        }
+        return latencies;
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                throw new EOFException("Il server ha chiuso la connessione");
+            }
+        }
+    }
+
+    // Codifica una richiesta JSON con l'intestazione contenente la lunghezza
+    private static byte[] frame(String json) {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(Integer.BYTES + body.length).putInt(body.length).put(body).array();
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
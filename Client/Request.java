@@ -17,6 +17,9 @@ public class Request {
     // Mappa che contiene i parametri della richiesta, con chiavi come nomi dei parametri e valori associati
     private Map<String, Object> param;
 
+    // Identificativo della richiesta, riportato dal server nella risposta; null se non impostato
+    private Long id;
+
 
     public Request() {
         param = new HashMap<>();
@@ -40,6 +43,20 @@ public class Request {
         return operation;
     }
 
+    /**
+     * Imposta l'identificativo della richiesta, che il server riporta nella risposta.
+     * Permette di associare le risposte alle richieste quando più richieste vengono inviate senza attendere le risposte.
+     *
+     * @param id L'identificativo della richiesta.
+     */
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
     /**
      * Aggiunge un parametro alla richiesta.
      * Ogni parametro viene memorizzato come una coppia chiave-valore all'interno della mappa.
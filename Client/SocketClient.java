@@ -1,5 +1,6 @@
 package Client;
 
+import Shared.FrameCompressor;
 
 import java.io.EOFException;
 import java.io.IOException;
@@ -15,6 +16,9 @@ public class SocketClient {
     private SocketChannel client;
     SocketAddress socketAddress;
 
+    // Identificativo da assegnare alla prossima richiesta inviata
+    private long nextRequestId = 0;
+
 
     public SocketClient(int port) throws IOException {
         socketAddress = new InetSocketAddress("127.0.0.1", port);
@@ -29,6 +33,11 @@ public class SocketClient {
 
 
 
+    //metodo che restituisce un nuovo identificativo per una richiesta
+    public long nextRequestId() {
+        return nextRequestId++;
+    }
+
     public void closeSocket() throws IOException {
         if(client != null) {
             client.close();
@@ -70,8 +79,38 @@ public class SocketClient {
     }
 
 
+    //metodo per inviare un messaggio già codificato, comprensivo dell'intestazione con la lunghezza
+    public void sendFrame(ByteBuffer frame) throws IOException {
+        if (client != null) {
+            if (ClientMain.DEBUG) System.out.println("LUNGHEZZA DEL MSG BINARIO CHE IL CLIENT MANDA: " + (frame.remaining() - Integer.BYTES));
+            while (frame.hasRemaining()) {
+                client.write(frame);
+            }
+        }
+    }
+
+
     //metodo per ricevere la risposta dal server
     public String readResponse() throws IOException {
+        ByteBuffer messageBuffer = readFrame();
+        if (messageBuffer != null) {
+
+            // Decodifica il messaggio utilizzando UTF-8
+            String receivedMessage = StandardCharsets.UTF_8.decode(messageBuffer).toString().trim();
+
+            // Stampa di debug se abilitata
+            if (ClientMain.DEBUG) {
+                System.out.println("Messaggio ricevuto dal server: " + receivedMessage);
+            }
+
+            return receivedMessage;
+        }
+        return null;
+    }
+
+
+    //metodo per ricevere il corpo di un messaggio dal server, senza decodificarlo
+    public ByteBuffer readFrame() throws IOException {
         if (client != null ) {
 
             // Buffer per leggere la lunghezza del messaggio (4 byte)
@@ -89,7 +128,11 @@ public class SocketClient {
                 bytesRead += read;
             }
             lengthBuffer.flip();
-            int messageLength = lengthBuffer.getInt();
+            int header = lengthBuffer.getInt();
+
+            // Il bit più significativo dell'intestazione indica un messaggio compresso
+            boolean compressed = (header & FrameCompressor.COMPRESSED_FLAG) != 0;
+            int messageLength = header & ~FrameCompressor.COMPRESSED_FLAG;
 
             // Buffer per leggere il messaggio di lunghezza specificata
             ByteBuffer messageBuffer = ByteBuffer.allocate(messageLength);
@@ -106,15 +149,11 @@ public class SocketClient {
             }
             messageBuffer.flip();
 
-            // Decodifica il messaggio utilizzando UTF-8
-            String receivedMessage = StandardCharsets.UTF_8.decode(messageBuffer).toString().trim();
-
-            // Stampa di debug se abilitata
-            if (ClientMain.DEBUG) {
-                System.out.println("Messaggio ricevuto dal server: " + receivedMessage);
+            if (compressed) {
+                if (ClientMain.DEBUG) System.out.println("MSG COMPRESSO RICEVUTO, LUNGHEZZA: " + messageLength);
+                return FrameCompressor.decompress(messageBuffer);
             }
-
-            return receivedMessage;
+            return messageBuffer;
         }
         return null;
     }
@@ -0,0 +1,356 @@
+package Server;
+
+import Shared.Categories;
+import Shared.Hotel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * La classe BinarySnapshot scrive e legge una copia binaria dei file JSON degli utenti e degli hotel,
+ * salvata accanto al file JSON con l'estensione ".snap", che all'avvio viene caricata al posto del JSON evitandone il parsing.
+ *
+ * Il file è composto da:
+ * - un'intestazione di dimensione fissa, con numero magico, versione del formato, tipo di contenuto, dimensione e data di modifica
+ *   del file JSON da cui è stato scritto, dimensioni delle sezioni e CRC32 del contenuto;
+ * - la tabella delle stringhe, in cui ogni stringa distinta (città, servizi, badge ripetuti) compare una sola volta,
+ *   come lunghezza e byte UTF-8;
+ * - i record di dimensione fissa degli utenti o degli hotel, che si riferiscono alle stringhe con il loro indice nella tabella (-1 per null);
+ * - per gli hotel, la tabella degli indici delle stringhe dei servizi, a cui ogni record si riferisce con posizione e numero.
+ *
+ * Il file JSON resta il formato di riferimento: lo snapshot viene usato solo se il file JSON ha ancora la dimensione e la data di modifica
+ * registrate nell'intestazione, per cui un JSON modificato a mano o uno snapshot non aggiornato dopo un errore vengono riconosciuti
+ * e il chiamante torna a caricare il JSON.
+ */
+public final class BinarySnapshot {
+
+    // Numero magico all'inizio del file ("HTSN")
+    private static final int MAGIC = 0x4854534E;
+
+    // Versione del formato, da incrementare a ogni modifica della struttura del file
+    private static final short FORMAT_VERSION = 1;
+
+    // Tipo di contenuto del file
+    private static final byte KIND_USERS = 1;
+    private static final byte KIND_HOTELS = 2;
+
+    // Dimensione in byte dell'intestazione
+    private static final int HEADER_SIZE = 48;
+
+    // Dimensione in byte di un record utente: username, password, numero di recensioni, badge
+    private static final int USER_RECORD_SIZE = 4 * Integer.BYTES;
+
+    // Dimensione in byte di un record hotel: id, nome, descrizione, città, telefono, primo servizio, numero di servizi,
+    // voto e voti per categoria
+    private static final int HOTEL_RECORD_SIZE = 7 * Integer.BYTES + 5 * Double.BYTES;
+
+    // Estensione aggiunta al percorso del file JSON
+    private static final String SUFFIX = ".snap";
+
+    private BinarySnapshot() {
+    }
+
+    /**
+     * Tabella delle stringhe in costruzione: ogni stringa distinta riceve un indice progressivo.
+     */
+    private static class StringTable {
+
+        private final HashMap<String, Integer> indexes = new HashMap<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        private int indexOf(String value) throws IOException {
+            if (value == null) {
+                return -1;
+            }
+            Integer index = indexes.get(value);
+            if (index == null) {
+                byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(encoded.length);
+                out.write(encoded);
+                index = indexes.size();
+                indexes.put(value, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Restituisce il percorso dello snapshot associato a un file JSON.
+     *
+     * @param jsonPath Percorso del file JSON.
+     * @return Percorso dello snapshot.
+     */
+    public static Path snapshotPath(String jsonPath) {
+        return Paths.get(jsonPath + SUFFIX);
+    }
+
+    /**
+     * Scrive lo snapshot degli utenti registrati. Va chiamato dopo aver scritto il file JSON con gli stessi utenti.
+     *
+     * @param jsonPath Percorso del file JSON degli utenti, già scritto.
+     * @param users    Utenti registrati.
+     * @throws IOException Se si verifica un errore durante la scrittura.
+     */
+    public static void writeUsers(String jsonPath, Collection<User> users) throws IOException {
+        StringTable strings = new StringTable();
+        ByteArrayOutputStream records = new ByteArrayOutputStream(users.size() * USER_RECORD_SIZE);
+        DataOutputStream out = new DataOutputStream(records);
+        int count = 0;
+        for (User user : users) {
+            out.writeInt(strings.indexOf(user.getUsername()));
+            out.writeInt(strings.indexOf(user.getPassword()));
+            out.writeInt(user.getNumReview());
+            out.writeInt(strings.indexOf(user.getBadges()));
+            count++;
+        }
+        write(jsonPath, KIND_USERS, strings, count, records, 0, null);
+    }
+
+    /**
+     * Scrive lo snapshot degli hotel. Va chiamato dopo aver scritto il file JSON con gli stessi hotel.
+     *
+     * @param jsonPath Percorso del file JSON degli hotel, già scritto.
+     * @param hotels   Hotel, raggruppati per città.
+     * @throws IOException Se si verifica un errore durante la scrittura.
+     */
+    public static void writeHotels(String jsonPath, Collection<HashMap<String, Hotel>> hotels) throws IOException {
+        StringTable strings = new StringTable();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        ByteArrayOutputStream services = new ByteArrayOutputStream();
+        DataOutputStream servicesOut = new DataOutputStream(services);
+        int count = 0;
+        int servicesCount = 0;
+        for (HashMap<String, Hotel> hotelsInCity : hotels) {
+            for (Hotel hotel : hotelsInCity.values()) {
+                out.writeInt(hotel.getId());
+                out.writeInt(strings.indexOf(hotel.getName()));
+                out.writeInt(strings.indexOf(hotel.getDescription()));
+                out.writeInt(strings.indexOf(hotel.getCity()));
+                out.writeInt(strings.indexOf(hotel.getPhone()));
+                List<String> hotelServices = hotel.getServices();
+                out.writeInt(servicesCount);
+                out.writeInt(hotelServices == null ? -1 : hotelServices.size());
+                if (hotelServices != null) {
+                    for (String service : hotelServices) {
+                        servicesOut.writeInt(strings.indexOf(service));
+                        servicesCount++;
+                    }
+                }
+                Categories ratings = hotel.getRatings();
+                out.writeDouble(hotel.getRate());
+                out.writeDouble(ratings.getCleaning());
+                out.writeDouble(ratings.getPosition());
+                out.writeDouble(ratings.getServices());
+                out.writeDouble(ratings.getQuality());
+                count++;
+            }
+        }
+        write(jsonPath, KIND_HOTELS, strings, count, records, servicesCount, services);
+    }
+
+    /**
+     * Legge lo snapshot degli utenti registrati.
+     *
+     * @param jsonPath Percorso del file JSON degli utenti.
+     * @return Gli utenti registrati, oppure null se lo snapshot non esiste o non corrisponde al file JSON.
+     * @throws IOException Se lo snapshot non può essere letto o è danneggiato.
+     */
+    public static List<User> readUsers(String jsonPath) throws IOException {
+        ByteBuffer buffer = read(jsonPath, KIND_USERS);
+        if (buffer == null) {
+            return null;
+        }
+        String[] strings = readStrings(buffer);
+        int count = buffer.getInt(32);
+        checkRemaining(buffer, (long) count * USER_RECORD_SIZE);
+
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String username = string(strings, buffer.getInt());
+            String password = string(strings, buffer.getInt());
+            int numReviews = buffer.getInt();
+            String badges = string(strings, buffer.getInt());
+            users.add(new User(username, password, numReviews, badges));
+        }
+        return users;
+    }
+
+    /**
+     * Legge lo snapshot degli hotel.
+     *
+     * @param jsonPath Percorso del file JSON degli hotel.
+     * @return Gli hotel, oppure null se lo snapshot non esiste o non corrisponde al file JSON.
+     * @throws IOException Se lo snapshot non può essere letto o è danneggiato.
+     */
+    public static List<Hotel> readHotels(String jsonPath) throws IOException {
+        ByteBuffer buffer = read(jsonPath, KIND_HOTELS);
+        if (buffer == null) {
+            return null;
+        }
+        String[] strings = readStrings(buffer);
+        int count = buffer.getInt(32);
+        int servicesCount = buffer.getInt(36);
+        checkRemaining(buffer, (long) count * HOTEL_RECORD_SIZE + (long) servicesCount * Integer.BYTES);
+
+        // La tabella dei servizi segue i record degli hotel
+        int servicesStart = buffer.position() + count * HOTEL_RECORD_SIZE;
+        List<Hotel> hotels = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int id = buffer.getInt();
+            String name = string(strings, buffer.getInt());
+            String description = string(strings, buffer.getInt());
+            String city = string(strings, buffer.getInt());
+            String phone = string(strings, buffer.getInt());
+            int firstService = buffer.getInt();
+            int numServices = buffer.getInt();
+            List<String> services = null;
+            if (numServices >= 0) {
+                if (firstService < 0 || (long) firstService + numServices > servicesCount) {
+                    throw new IOException("Servizi dell'hotel " + id + " fuori dalla tabella dei servizi");
+                }
+                services = new ArrayList<>(numServices);
+                for (int s = 0; s < numServices; s++) {
+                    services.add(string(strings, buffer.getInt(servicesStart + (firstService + s) * Integer.BYTES)));
+                }
+            }
+            double rate = buffer.getDouble();
+            Categories ratings = new Categories(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+            hotels.add(new Hotel(id, name, description, city, phone, services, rate, ratings));
+        }
+        return hotels;
+    }
+
+    // Scrive lo snapshot in un file temporaneo e lo sostituisce al precedente con una rinomina atomica,
+    // così una scrittura interrotta non lascia mai uno snapshot incompleto
+    private static void write(String jsonPath, byte kind, StringTable strings, int count, ByteArrayOutputStream records,
+                              int listCount, ByteArrayOutputStream lists) throws IOException {
+        File json = new File(jsonPath);
+        long sourceLength = json.length();
+        long sourceModified = json.lastModified();
+
+        CRC32 crc = new CRC32();
+        crc.update(strings.bytes.toByteArray());
+        crc.update(records.toByteArray());
+        if (lists != null) {
+            crc.update(lists.toByteArray());
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putShort(FORMAT_VERSION);
+        header.put(kind);
+        header.put((byte) 0);
+        header.putLong(sourceLength);
+        header.putLong(sourceModified);
+        header.putInt(strings.indexes.size());
+        header.putInt(strings.bytes.size());
+        header.putInt(count);
+        header.putInt(listCount);
+        header.putInt((int) crc.getValue());
+        header.rewind();
+
+        Path target = snapshotPath(jsonPath);
+        Path temp = Paths.get(target + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] sections = {
+                    header,
+                    ByteBuffer.wrap(strings.bytes.toByteArray()),
+                    ByteBuffer.wrap(records.toByteArray()),
+                    ByteBuffer.wrap(lists == null ? new byte[0] : lists.toByteArray())
+            };
+            long remaining = 0;
+            for (ByteBuffer section : sections) {
+                remaining += section.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= channel.write(sections);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Legge l'intero snapshot e ne verifica l'intestazione e il CRC; restituisce null se lo snapshot non esiste,
+    // ha un formato diverso o non corrisponde al file JSON, con il buffer posizionato all'inizio della tabella delle stringhe
+    private static ByteBuffer read(String jsonPath, byte kind) throws IOException {
+        File json = new File(jsonPath);
+        Path path = snapshotPath(jsonPath);
+        if (!json.exists() || !Files.exists(path)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Il file " + path + " non è uno snapshot");
+        }
+        if (buffer.getShort(4) != FORMAT_VERSION || buffer.get(6) != kind) {
+            Log.info("Snapshot {} con formato {} diverso da quello attuale, ignorato", path, buffer.getShort(4));
+            return null;
+        }
+        if (buffer.getLong(8) != json.length() || buffer.getLong(16) != json.lastModified()) {
+            Log.info("Snapshot {} non aggiornato rispetto al file JSON, ignorato", path);
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, buffer.limit() - HEADER_SIZE);
+        if ((int) crc.getValue() != buffer.getInt(40)) {
+            throw new IOException("CRC dello snapshot " + path + " non valido");
+        }
+        buffer.position(HEADER_SIZE);
+        return buffer;
+    }
+
+    // Decodifica la tabella delle stringhe e posiziona il buffer all'inizio dei record
+    private static String[] readStrings(ByteBuffer buffer) throws IOException {
+        int count = buffer.getInt(24);
+        int size = buffer.getInt(28);
+        checkRemaining(buffer, size);
+        int end = buffer.position() + size;
+
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            checkRemaining(buffer, Integer.BYTES);
+            int length = buffer.getInt();
+            if (length < 0 || buffer.position() + length > end) {
+                throw new IOException("Tabella delle stringhe dello snapshot danneggiata");
+            }
+            strings[i] = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        }
+        if (buffer.position() != end) {
+            throw new IOException("Tabella delle stringhe dello snapshot danneggiata");
+        }
+        return strings;
+    }
+
+    private static String string(String[] strings, int index) throws IOException {
+        if (index == -1) {
+            return null;
+        }
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("Indice di stringa " + index + " fuori dalla tabella delle stringhe");
+        }
+        return strings[index];
+    }
+
+    private static void checkRemaining(ByteBuffer buffer, long bytes) throws IOException {
+        if (bytes < 0 || buffer.remaining() < bytes) {
+            throw new IOException("Snapshot troncato");
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package Server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * La classe BufferPool gestisce dei ByteBuffer diretti riutilizzati per leggere i messaggi dei client,
+ * senza allocare un nuovo buffer per ogni messaggio.
+ * I buffer sono organizzati in classi di dimensione potenza di due, dalla dimensione minima alla massima:
+ * una richiesta viene servita dalla classe più piccola che la contiene, così i messaggi grandi non causano
+ * un'allocazione ad ogni lettura. I buffer della classe più piccola vengono ricavati da un'unica area di memoria
+ * diretta (slab) allocata alla creazione del pool; quelli delle classi più grandi vengono allocati al primo utilizzo.
+ * Se una classe è vuota viene allocato un nuovo buffer diretto, che al rilascio entra nel pool solo se c'è posto.
+ * Il totale dei byte in prestito è limitato: oltre il limite lease non presta né alloca altri buffer,
+ * così i client che dichiarano messaggi grandi senza inviarne il corpo non possono esaurire la memoria diretta.
+ * Il pool può essere usato da più thread contemporaneamente.
+ */
+public class BufferPool {
+
+    /**
+     * Insieme dei buffer di una stessa dimensione, con le relative statistiche.
+     */
+    private static class SizeClass {
+
+        // Dimensione in byte di ogni buffer della classe
+        private final int bufferSize;
+
+        // Numero massimo di buffer conservati nella classe
+        private final int capacity;
+
+        // Buffer liberi, pronti per essere prestati
+        private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers;
+
+        // Numero di buffer presenti nella coda dei buffer liberi
+        private final AtomicInteger freeCount;
+
+        // Statistiche della classe
+        private final AtomicLong hits;
+        private final AtomicLong misses;
+        private final AtomicInteger outstanding;
+
+        private SizeClass(int bufferSize, int capacity) {
+            this.bufferSize = bufferSize;
+            this.capacity = capacity;
+            this.freeBuffers = new ConcurrentLinkedQueue<>();
+            this.freeCount = new AtomicInteger();
+            this.hits = new AtomicLong();
+            this.misses = new AtomicLong();
+            this.outstanding = new AtomicInteger();
+        }
+    }
+
+    // Dimensione in byte dei buffer della classe più piccola
+    private final int minBufferSize;
+
+    // Classi di dimensione, dalla più piccola alla più grande
+    private final SizeClass[] sizeClasses;
+
+    // Byte massimi dei buffer in prestito
+    private final long maxOutstandingBytes;
+
+    // Byte dei buffer attualmente in prestito
+    private final AtomicLong outstandingBytes;
+
+    // Numero di richieste rifiutate perché il limite dei byte in prestito era raggiunto
+    private final AtomicLong rejected;
+
+    /**
+     * Costruttore della classe BufferPool.
+     *
+     * @param minBufferSize Dimensione in byte dei buffer della classe più piccola, arrotondata alla potenza di due successiva.
+     * @param maxBufferSize Dimensione in byte della richiesta più grande che il pool deve servire.
+     * @param capacity      Numero di buffer della classe più piccola allocati alla creazione del pool;
+     *                      ogni classe successiva conserva al massimo la metà dei buffer della precedente.
+     * @param maxOutstandingBytes Byte massimi dei buffer in prestito contemporaneamente.
+     * @throws IllegalArgumentException Se il limite dei byte in prestito non basta per il buffer della classe più grande.
+     */
+    public BufferPool(int minBufferSize, int maxBufferSize, int capacity, long maxOutstandingBytes) {
+        this.minBufferSize = roundUpToPowerOfTwo(Math.max(minBufferSize, 1));
+        this.maxOutstandingBytes = maxOutstandingBytes;
+        this.outstandingBytes = new AtomicLong();
+        this.rejected = new AtomicLong();
+
+        int classes = 1;
+        while ((long) this.minBufferSize << (classes - 1) < maxBufferSize) {
+            classes++;
+        }
+
+        this.sizeClasses = new SizeClass[classes];
+        for (int i = 0; i < classes; i++) {
+            sizeClasses[i] = new SizeClass(this.minBufferSize << i, Math.max(1, capacity >> i));
+        }
+
+        if (maxOutstandingBytes < sizeClasses[classes - 1].bufferSize) {
+            throw new IllegalArgumentException("Limite dei byte in prestito troppo basso per il pool: " + maxOutstandingBytes
+                    + ", il buffer più grande è di " + sizeClasses[classes - 1].bufferSize + " byte");
+        }
+
+        // Alloca un'unica area di memoria diretta e la suddivide nei buffer della classe più piccola
+        if (capacity > 0) {
+            SizeClass smallest = sizeClasses[0];
+            ByteBuffer slab = ByteBuffer.allocateDirect(smallest.bufferSize * capacity);
+            for (int i = 0; i < capacity; i++) {
+                slab.limit((i + 1) * smallest.bufferSize).position(i * smallest.bufferSize);
+                smallest.freeBuffers.add(slab.slice());
+            }
+            smallest.freeCount.set(capacity);
+        }
+    }
+
+    /**
+     * Presta un buffer del pool, vuoto e pronto per la scrittura, con capacità almeno pari alla dimensione richiesta.
+     * Il limite del buffer è impostato alla dimensione richiesta.
+     * Il buffer deve essere restituito con release quando non serve più.
+     *
+     * @param size Numero di byte richiesti.
+     * @return Un buffer diretto con capacità pari alla classe di dimensione che contiene la richiesta,
+     *         oppure null se prestarlo supererebbe il limite dei byte in prestito.
+     * @throws IllegalArgumentException Se la dimensione richiesta supera quella della classe più grande.
+     */
+    public ByteBuffer lease(int size) {
+        SizeClass sizeClass = sizeClasses[classIndex(size)];
+
+        // Il buffer viene contato prima di essere preso o allocato, così più thread non possono superare insieme il limite
+        if (outstandingBytes.addAndGet(sizeClass.bufferSize) > maxOutstandingBytes) {
+            outstandingBytes.addAndGet(-sizeClass.bufferSize);
+            rejected.incrementAndGet();
+            return null;
+        }
+        sizeClass.outstanding.incrementAndGet();
+
+        ByteBuffer buffer = sizeClass.freeBuffers.poll();
+        if (buffer != null) {
+            sizeClass.freeCount.decrementAndGet();
+            sizeClass.hits.incrementAndGet();
+        } else {
+            // Classe vuota: alloca un nuovo buffer, che al rilascio potrà entrare nel pool
+            sizeClass.misses.incrementAndGet();
+            buffer = ByteBuffer.allocateDirect(sizeClass.bufferSize);
+        }
+
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Restituisce al pool un buffer ottenuto con lease. Dopo la chiamata il buffer non deve più essere usato.
+     *
+     * @param buffer Il buffer da restituire.
+     */
+    public void release(ByteBuffer buffer) {
+        SizeClass sizeClass = sizeClasses[classIndex(buffer.capacity())];
+        sizeClass.outstanding.decrementAndGet();
+        outstandingBytes.addAndGet(-sizeClass.bufferSize);
+
+        buffer.clear();
+        if (sizeClass.freeCount.incrementAndGet() <= sizeClass.capacity) {
+            sizeClass.freeBuffers.add(buffer);
+        } else {
+            // Classe già piena: il buffer viene lasciato al garbage collector
+            sizeClass.freeCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Restituisce una descrizione delle statistiche del pool, per le sole classi già utilizzate.
+     *
+     * @return Stringa con i byte in prestito, le richieste rifiutate per il limite dei byte in prestito e, per ogni classe,
+     *         i buffer prestati trovati nel pool, allocati perché la classe era vuota e non ancora restituiti.
+     */
+    public String getStats() {
+        StringBuilder stats = new StringBuilder("pool")
+                .append(" in prestito=").append(outstandingBytes.get()).append("/").append(maxOutstandingBytes).append("B")
+                .append(" rifiutati=").append(rejected.get());
+        for (SizeClass sizeClass : sizeClasses) {
+            long hits = sizeClass.hits.get();
+            long misses = sizeClass.misses.get();
+            if (sizeClass != sizeClasses[0] && hits == 0 && misses == 0) {
+                continue;
+            }
+            stats.append(" [").append(sizeClass.bufferSize).append("B")
+                    .append(" hit=").append(hits)
+                    .append(" miss=").append(misses)
+                    .append(" in prestito=").append(sizeClass.outstanding.get())
+                    .append(" liberi=").append(sizeClass.freeCount.get())
+                    .append("]");
+        }
+        return stats.toString();
+    }
+
+    // Restituisce l'indice della classe più piccola che contiene la dimensione richiesta
+    private int classIndex(int size) {
+        int index = 0;
+        while (index < sizeClasses.length && sizeClasses[index].bufferSize < size) {
+            index++;
+        }
+        if (index == sizeClasses.length) {
+            throw new IllegalArgumentException("Dimensione richiesta troppo grande per il pool: " + size);
+        }
+        return index;
+    }
+
+    // Arrotonda un intero positivo alla potenza di due successiva
+    private static int roundUpToPowerOfTwo(int value) {
+        int highest = Integer.highestOneBit(value);
+        return highest == value ? value : highest << 1;
+    }
+}
@@ -0,0 +1,518 @@
+package Server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * La classe ClientConnection rappresenta lo stato di una connessione TCP con un client.
+ * Implementa una macchina a stati per la decodifica dei messaggi in arrivo: prima vengono letti
+ * i 4 byte dell'intestazione che contengono la lunghezza del messaggio, poi il corpo del messaggio.
+ * Se il canale non ha byte disponibili la lettura si interrompe e riprende dal punto in cui era rimasta
+ * al successivo evento OP_READ, senza mai bloccare il thread del selettore.
+ * Il buffer per il corpo del messaggio viene preso in prestito dal pool del reactor quando la lunghezza è nota
+ * e restituito dopo che il messaggio è stato processato oppure alla chiusura della connessione.
+ * I messaggi più grandi della dimensione massima configurata vengono scartati senza essere memorizzati,
+ * così la connessione resta utilizzabile per i messaggi successivi.
+ *
+ * Le risposte non vengono scritte dai thread del pool: vengono accodate nella coda in uscita della connessione
+ * e il thread del selettore le scrive sul canale man mano che il buffer di invio del socket si svuota.
+ * Ogni richiesta riceve un numero di sequenza: anche se i task vengono eseguiti in parallelo, le risposte entrano
+ * nella coda in uscita nello stesso ordine delle richieste, così il client può inviare più richieste senza attendere le risposte.
+ * Quando i byte in coda superano la soglia massima, la lettura dal client viene sospesa finché la coda non si riduce.
+ * La lettura viene sospesa anche quando il client ha troppe richieste ancora senza risposta, finché i task non le completano:
+ * così un client che invia richieste più velocemente di quanto il server le esegua non riempie la coda dei task.
+ */
+public class ClientConnection {
+
+    /**
+     * Eccezione lanciata quando un client dichiara un messaggio più grande della dimensione massima consentita.
+     * Il corpo del messaggio viene scartato e la connessione resta utilizzabile.
+     */
+    public static class FrameTooLargeException extends ProtocolException {
+
+        private static final long serialVersionUID = 1L;
+
+        // Lunghezza dichiarata dal client
+        private final int length;
+
+        public FrameTooLargeException(int length, int maxFrameSize) {
+            super("Messaggio di " + length + " byte, la dimensione massima è " + maxFrameSize + " byte");
+            this.length = length;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    // Stati della decodifica di un messaggio
+    private enum ReadState {
+        // In attesa dei 4 byte che contengono la lunghezza del messaggio
+        HEADER,
+        // In attesa dei byte che compongono il corpo del messaggio
+        BODY,
+        // In attesa dei byte di un messaggio troppo grande, che vengono scartati
+        DISCARD
+    }
+
+    // Dimensione dei blocchi con cui vengono letti e scartati i messaggi troppo grandi
+    private static final int DISCARD_CHUNK = 2048;
+
+    // Chiave di selezione associata al canale del client
+    private final SelectionKey key;
+
+    // Canale di comunicazione con il client
+    private final SocketChannel channel;
+
+    // Buffer per la lunghezza del messaggio (4 byte per un int), riutilizzato per tutti i messaggi
+    private final ByteBuffer header;
+
+    // Buffer per il corpo del messaggio corrente, preso in prestito dal pool quando la lunghezza è nota
+    private ByteBuffer body;
+
+    // Pool di buffer diretti da cui vengono presi i buffer per il corpo dei messaggi
+    private final BufferPool bufferPool;
+
+    // Dimensione massima del corpo di un messaggio accettata dal server (in byte)
+    private final int maxFrameSize;
+
+    // Byte del messaggio troppo grande corrente ancora da scartare
+    private long bytesToDiscard;
+
+    // Stato corrente della decodifica
+    private ReadState state;
+
+    // Coda dei messaggi codificati in attesa di essere scritti sul canale
+    private final Queue<ByteBuffer> outbound;
+
+    // Numero di byte accodati e non ancora scritti sul canale
+    private final AtomicLong pendingBytes;
+
+    // Indica se la connessione è già stata segnalata al selettore per una scrittura
+    private final AtomicBoolean writeScheduled;
+
+    // Coda delle connessioni con risposte da scrivere, svuotata dal thread del selettore
+    private final Queue<ClientConnection> writeRequests;
+
+    // Soglia in byte oltre la quale la lettura dal client viene sospesa
+    private final long highWaterMark;
+
+    // Indica se la lettura dal client è sospesa perché la coda in uscita è piena
+    private boolean readPaused;
+
+    // Numero massimo di richieste del client senza risposta oltre il quale la lettura viene sospesa
+    private final int maxPendingRequests;
+
+    // Numero di sequenza da assegnare alla prossima richiesta letta dal client
+    private long nextSequence;
+
+    // Indica se il client ha negoziato il protocollo binario; letto e modificato solo dal thread del selettore
+    private boolean binaryProtocol;
+
+    // Indica se il client ha richiesto la compressione delle risposte; letto e modificato solo dal thread del selettore
+    private boolean compression;
+
+    // Numero di sequenza della prossima risposta da accodare; modificato solo con completionLock
+    private volatile long nextToSend;
+
+    // Risposte completate prima di quelle delle richieste precedenti, in attesa del loro turno
+    private final Map<Long, ByteBuffer> completedOutOfOrder;
+
+    // Lock che protegge l'ordine delle risposte; a differenza di synchronized non blocca il carrier dei thread virtuali
+    private final ReentrantLock completionLock;
+
+    // Istante in millisecondi dell'ultima lettura o scrittura sul canale; aggiornato solo dal thread del selettore
+    private long lastActivity;
+
+    // UUID associato alla chiave di cifratura scambiata dal client su questa connessione, null se non ancora scambiata
+    private volatile String clientId;
+
+    // Limiti di frequenza della connessione per ogni operazione, creati alla prima richiesta limitata;
+    // letti e modificati solo dal thread del selettore
+    private TokenBucket[] tokenBuckets;
+
+    /**
+     * Costruttore della classe ClientConnection.
+     *
+     * @param key           Chiave di selezione associata al canale del client, configurato in modalità non bloccante.
+     * @param writeRequests Coda delle connessioni con risposte da scrivere, svuotata dal thread del selettore.
+     * @param highWaterMark Soglia in byte della coda in uscita oltre la quale la lettura dal client viene sospesa.
+     * @param bufferPool    Pool di buffer diretti da cui vengono presi i buffer per il corpo dei messaggi.
+     * @param maxFrameSize  Dimensione massima del corpo di un messaggio accettata dal server (in byte).
+     * @param maxPendingRequests Numero massimo di richieste del client senza risposta oltre il quale la lettura viene sospesa.
+     */
+    public ClientConnection(SelectionKey key, Queue<ClientConnection> writeRequests, long highWaterMark, BufferPool bufferPool, int maxFrameSize, int maxPendingRequests) {
+        this.key = key;
+        this.channel = (SocketChannel) key.channel();
+        this.header = ByteBuffer.allocate(Integer.BYTES);
+        this.body = null;
+        this.bufferPool = bufferPool;
+        this.maxFrameSize = maxFrameSize;
+        this.bytesToDiscard = 0;
+        this.state = ReadState.HEADER;
+        this.outbound = new ConcurrentLinkedQueue<>();
+        this.pendingBytes = new AtomicLong();
+        this.writeScheduled = new AtomicBoolean(false);
+        this.writeRequests = writeRequests;
+        this.highWaterMark = highWaterMark;
+        this.readPaused = false;
+        this.maxPendingRequests = maxPendingRequests;
+        this.nextSequence = 0;
+        this.binaryProtocol = false;
+        this.compression = false;
+        this.nextToSend = 0;
+        this.completedOutOfOrder = new HashMap<>();
+        this.completionLock = new ReentrantLock();
+        this.lastActivity = 0;
+        this.clientId = null;
+    }
+
+    public SelectionKey getKey() {
+        return key;
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Legge dal canale i byte disponibili e avanza la macchina a stati.
+     * Non attende mai dati che non sono ancora arrivati: se il messaggio è incompleto restituisce null
+     * e la lettura riprenderà al successivo evento OP_READ.
+     *
+     * @return Il corpo di un messaggio completo, pronto per la lettura, oppure null se il messaggio non è ancora completo.
+     *         Il buffer appartiene al pool e va restituito con releaseFrame dopo aver processato il messaggio.
+     * @throws EOFException            Se il client ha chiuso la connessione.
+     * @throws FrameTooLargeException  Se il messaggio supera la dimensione massima: il corpo verrà scartato dalle letture successive.
+     * @throws ProtocolException       Se la lunghezza dichiarata nell'intestazione non è valida
+     *                                 o il pool ha raggiunto il limite dei byte in prestito.
+     * @throws IOException             Se si verifica un errore durante la lettura dal canale.
+     */
+    public ByteBuffer readFrame() throws IOException {
+        if (state == ReadState.DISCARD) {
+            // Messaggio troppo grande non ancora scartato del tutto, si riprende al prossimo evento di lettura
+            if (!discard()) {
+                return null;
+            }
+            state = ReadState.HEADER;
+        }
+
+        if (state == ReadState.HEADER) {
+            if (channel.read(header) == -1) {
+                throw new EOFException("Il client ha chiuso la connessione");
+            }
+
+            // Intestazione ancora incompleta, si riprende al prossimo evento di lettura
+            if (header.hasRemaining()) {
+                return null;
+            }
+
+            header.flip();
+            int messageLength = header.getInt();
+            header.clear();
+
+            if (messageLength < 0) {
+                throw new ProtocolException("Lunghezza del messaggio non valida: " + messageLength);
+            }
+
+            if (messageLength > maxFrameSize) {
+                // Il corpo del messaggio verrà letto e scartato senza essere memorizzato
+                bytesToDiscard = messageLength;
+                state = ReadState.DISCARD;
+                throw new FrameTooLargeException(messageLength, maxFrameSize);
+            }
+
+            // Il buffer viene preso dalla classe di dimensione che contiene il messaggio e il suo limite è la lunghezza del messaggio,
+            // così non vengono consumati i byte del messaggio successivo
+            body = leaseBuffer(messageLength);
+            state = ReadState.BODY;
+        }
+
+        if (channel.read(body) == -1) {
+            throw new EOFException("Il client ha chiuso la connessione");
+        }
+
+        // Corpo ancora incompleto, si riprende al prossimo evento di lettura
+        if (body.hasRemaining()) {
+            return null;
+        }
+
+        // Messaggio completo: torna in attesa dell'intestazione del messaggio successivo
+        ByteBuffer frame = body;
+        frame.flip();
+        body = null;
+        state = ReadState.HEADER;
+        return frame;
+    }
+
+    /**
+     * Legge e scarta i byte del messaggio troppo grande corrente.
+     *
+     * @return true se il messaggio è stato scartato del tutto, false se restano byte non ancora arrivati.
+     * @throws IOException Se si verifica un errore durante la lettura dal canale o il client ha chiuso la connessione.
+     */
+    private boolean discard() throws IOException {
+        ByteBuffer scratch = leaseBuffer(DISCARD_CHUNK);
+        try {
+            while (bytesToDiscard > 0) {
+                scratch.clear();
+                scratch.limit((int) Math.min(bytesToDiscard, scratch.capacity()));
+
+                int read = channel.read(scratch);
+                if (read == -1) {
+                    throw new EOFException("Il client ha chiuso la connessione");
+                }
+                if (read == 0) {
+                    return false;
+                }
+                bytesToDiscard -= read;
+            }
+            return true;
+        } finally {
+            bufferPool.release(scratch);
+        }
+    }
+
+    /**
+     * Prende un buffer dal pool.
+     *
+     * @param size Numero di byte richiesti.
+     * @return Il buffer prestato dal pool.
+     * @throws ProtocolException Se il pool ha raggiunto il limite dei byte in prestito: la connessione va chiusa
+     *                           invece di allocare altra memoria diretta.
+     */
+    private ByteBuffer leaseBuffer(int size) throws ProtocolException {
+        ByteBuffer buffer = bufferPool.lease(size);
+        if (buffer == null) {
+            throw new ProtocolException("Memoria per i messaggi in lettura esaurita, messaggio di " + size + " byte rifiutato");
+        }
+        return buffer;
+    }
+
+    /**
+     * Restituisce al pool il buffer di un messaggio ottenuto con readFrame, dopo che il messaggio è stato processato.
+     *
+     * @param frame Il buffer del messaggio.
+     */
+    public void releaseFrame(ByteBuffer frame) {
+        bufferPool.release(frame);
+    }
+
+    /**
+     * Libera le risorse della connessione dopo la chiusura del canale,
+     * restituendo al pool il buffer del messaggio eventualmente in lettura e scartando le risposte in coda.
+     * Deve essere invocato solo dal thread del selettore.
+     */
+    public void close() {
+        if (body != null) {
+            bufferPool.release(body);
+            body = null;
+        }
+        outbound.clear();
+        pendingBytes.set(0);
+        completionLock.lock();
+        try {
+            completedOutOfOrder.clear();
+        } finally {
+            completionLock.unlock();
+        }
+    }
+
+    public boolean isBinaryProtocol() {
+        return binaryProtocol;
+    }
+
+    public void setBinaryProtocol(boolean binaryProtocol) {
+        this.binaryProtocol = binaryProtocol;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Registra un'attività sul canale. Deve essere invocato solo dal thread del selettore.
+     *
+     * @param now Istante corrente in millisecondi.
+     */
+    public void touch(long now) {
+        lastActivity = now;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
+    public TokenBucket[] getTokenBuckets() {
+        return tokenBuckets;
+    }
+
+    public void setTokenBuckets(TokenBucket[] tokenBuckets) {
+        this.tokenBuckets = tokenBuckets;
+    }
+
+    /**
+     * Indica se ci sono richieste del client ancora senza risposta o risposte non ancora scritte sul canale.
+     * Deve essere invocato solo dal thread del selettore.
+     *
+     * @return true se la connessione ha richieste o risposte in corso.
+     */
+    public boolean hasPendingWork() {
+        return pendingBytes.get() > 0 || nextToSend != nextSequence;
+    }
+
+    /**
+     * Indica se il client ha raggiunto il numero massimo di richieste senza risposta,
+     * per cui non devono essere lette altre richieste finché i task non ne completano qualcuna.
+     * Deve essere invocato solo dal thread del selettore.
+     *
+     * @return true se la lettura dal client deve essere sospesa.
+     */
+    public boolean hasTooManyPendingRequests() {
+        return nextSequence - nextToSend >= maxPendingRequests;
+    }
+
+    /**
+     * Assegna il numero di sequenza alla prossima richiesta letta dal client.
+     * Deve essere invocato solo dal thread del selettore, nell'ordine in cui le richieste vengono lette.
+     *
+     * @return Il numero di sequenza della richiesta.
+     */
+    public long nextSequence() {
+        return nextSequence++;
+    }
+
+    /**
+     * Consegna la risposta alla richiesta con il numero di sequenza indicato.
+     * La risposta viene accodata subito se tutte le richieste precedenti hanno già ricevuto risposta,
+     * altrimenti resta in attesa e viene accodata insieme alla risposta che la precede.
+     * Può essere invocato da qualsiasi thread; ogni richiesta deve ricevere almeno una risposta,
+     * e le risposte successive alla prima per lo stesso numero di sequenza vengono scartate.
+     *
+     * @param sequence Numero di sequenza della richiesta.
+     * @param frame    La risposta codificata, pronta per la lettura.
+     */
+    public void complete(long sequence, ByteBuffer frame) {
+        completionLock.lock();
+        try {
+            if (sequence < nextToSend) {
+                return;
+            }
+            if (sequence != nextToSend) {
+                completedOutOfOrder.putIfAbsent(sequence, frame);
+                return;
+            }
+
+            enqueue(frame);
+            nextToSend++;
+
+            // Accoda le risposte successive già completate
+            ByteBuffer next;
+            while ((next = completedOutOfOrder.remove(nextToSend)) != null) {
+                enqueue(next);
+                nextToSend++;
+            }
+        } finally {
+            completionLock.unlock();
+        }
+    }
+
+    /**
+     * Accoda un messaggio codificato (intestazione con la lunghezza e corpo) da inviare al client.
+     * Può essere invocato da qualsiasi thread: la scrittura effettiva avviene sul thread del selettore,
+     * che viene risvegliato se la connessione non era già in attesa di scrittura.
+     *
+     * @param frame Il messaggio codificato, pronto per la lettura.
+     */
+    private void enqueue(ByteBuffer frame) {
+        pendingBytes.addAndGet(frame.remaining());
+        outbound.add(frame);
+
+        if (writeScheduled.compareAndSet(false, true)) {
+            writeRequests.add(this);
+            key.selector().wakeup();
+        }
+    }
+
+    /**
+     * Segnala che la richiesta di scrittura della connessione è stata presa in carico dal selettore,
+     * così che i messaggi accodati da questo momento in poi generino una nuova richiesta.
+     */
+    public void clearWriteScheduled() {
+        writeScheduled.set(false);
+    }
+
+    /**
+     * Scrive sul canale i messaggi in coda finché il buffer di invio del socket li accetta.
+     * Deve essere invocato solo dal thread del selettore.
+     *
+     * @throws IOException Se si verifica un errore durante la scrittura sul canale.
+     */
+    public void flush() throws IOException {
+        ByteBuffer frame;
+        while ((frame = outbound.peek()) != null) {
+            channel.write(frame);
+
+            // Buffer di invio del socket pieno, si riprende al prossimo evento OP_WRITE
+            if (frame.hasRemaining()) {
+                break;
+            }
+
+            outbound.poll();
+            pendingBytes.addAndGet(-frame.limit());
+        }
+        updateInterestOps();
+    }
+
+    /**
+     * Aggiorna gli eventi monitorati dal selettore in base allo stato della coda in uscita:
+     * OP_WRITE finché ci sono messaggi da scrivere, OP_READ sospeso quando i byte in coda superano la soglia
+     * e ripristinato quando scendono sotto la metà della soglia, oppure quando il client ha troppe richieste senza risposta.
+     * Le risposte completate risvegliano il selettore, per cui la lettura riprende appena i task si liberano.
+     * Deve essere invocato solo dal thread del selettore.
+     */
+    public void updateInterestOps() {
+        if (!key.isValid()) {
+            return;
+        }
+
+        long pending = pendingBytes.get();
+        if (!readPaused && pending > highWaterMark) {
+            readPaused = true;
+        } else if (readPaused && pending <= highWaterMark / 2) {
+            readPaused = false;
+        }
+
+        int ops = 0;
+        if (!readPaused && !hasTooManyPendingRequests()) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (!outbound.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+}
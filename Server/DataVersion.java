@@ -0,0 +1,55 @@
+package Server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * La classe DataVersion è il numero di versione di una struttura dati del server (utenti, hotel) che viene salvata
+ * periodicamente su file. Ogni modifica della struttura incrementa la versione, mentre il thread che scrive il file
+ * ricorda l'ultima versione salvata con successo: se le due coincidono il file è già aggiornato e la scrittura viene saltata.
+ *
+ * La versione va incrementata dopo la modifica e letta dal thread di scrittura prima di serializzare la struttura,
+ * così una modifica concorrente alla scrittura non viene mai considerata salvata e viene scritta al giro successivo.
+ */
+public class DataVersion {
+
+    // Numero di modifiche effettuate dall'avvio del server
+    private final AtomicLong version = new AtomicLong();
+
+    // Ultima versione scritta con successo su file; i dati caricati all'avvio coincidono con il file
+    private volatile long savedVersion;
+
+    /**
+     * Registra una modifica della struttura dati.
+     */
+    public void markModified() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Restituisce la versione corrente, da leggere prima di serializzare la struttura dati.
+     *
+     * @return La versione corrente.
+     */
+    public long get() {
+        return version.get();
+    }
+
+    /**
+     * Indica se la versione indicata è già stata salvata su file.
+     *
+     * @param current La versione letta prima della serializzazione.
+     * @return true se il file contiene già questa versione e la scrittura può essere saltata.
+     */
+    public boolean isSaved(long current) {
+        return current == savedVersion;
+    }
+
+    /**
+     * Registra che la versione indicata è stata scritta con successo su file.
+     *
+     * @param saved La versione letta prima della serializzazione.
+     */
+    public void markSaved(long saved) {
+        savedVersion = saved;
+    }
+}
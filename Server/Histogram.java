@@ -0,0 +1,82 @@
+package Server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * La classe Histogram raccoglie la distribuzione di una misura (ad esempio una latenza in microsecondi)
+ * con un costo costante per ogni valore e senza conservare i singoli valori.
+ *
+ * I valori sono divisi in intervalli a potenze di due: l'intervallo i contiene i valori da 2^(i-1) a 2^i - 1,
+ * per cui i percentili sono approssimati per eccesso al limite superiore dell'intervallo, con un errore al più del doppio.
+ * Il massimo e la media sono invece esatti. L'istogramma può essere aggiornato e letto da più thread contemporaneamente.
+ */
+public class Histogram {
+
+    // Numero di valori per ogni intervallo: l'intervallo 0 contiene lo zero, l'intervallo i i valori minori di 2^i
+    private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE + 1);
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Registra un valore; i valori negativi vengono registrati come zero.
+     *
+     * @param value Il valore da registrare.
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Restituisce un'approssimazione per eccesso del percentile indicato.
+     *
+     * @param p Il percentile, tra 0 e 1.
+     * @return Il limite superiore dell'intervallo che contiene il percentile, non oltre il massimo registrato; 0 se non ci sono valori.
+     */
+    public long percentile(double p) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p * n));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                long upper = i == 0 ? 0 : (i >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+                return Math.min(upper, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Restituisce una descrizione della distribuzione.
+     *
+     * @return Stringa con numero di valori, media, percentili 50, 99 e 99.9 e massimo.
+     */
+    @Override
+    public String toString() {
+        return String.format("n=%d media=%.1f p50=%d p99=%d p999=%d max=%d",
+                getCount(), getMean(), percentile(0.50), percentile(0.99), percentile(0.999), getMax());
+    }
+}
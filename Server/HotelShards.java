@@ -0,0 +1,156 @@
+package Server;
+
+import Shared.Hotel;
+import Shared.JsonCodec;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * La classe HotelShards gestisce il salvataggio degli hotel in un file per ogni città (shard), in una cartella dedicata,
+ * al posto dell'unico file con tutti gli hotel: quando il calcolo del ranking cambia i voti degli hotel di una città
+ * viene riscritto solo il file di quella città, e all'avvio i file delle città possono essere caricati in parallelo.
+ *
+ * Ogni shard è un array JSON degli hotel della città, nello stesso formato del file unico, con accanto lo snapshot binario
+ * di BinarySnapshot. Il nome del file è il nome della città (in minuscolo, come chiave di hotelDB) codificato per l'URL,
+ * così qualunque nome di città è un nome di file valido.
+ *
+ * Ogni città ha la propria versione: il calcolo del ranking la incrementa quando cambia i voti di un hotel della città,
+ * e il thread di scrittura riscrive solo gli shard la cui versione non è ancora stata salvata.
+ *
+ * La cartella viene creata dalla migrazione dal file unico, che scrive tutti gli shard in una cartella temporanea
+ * e la rinomina in modo atomico: una migrazione interrotta viene ripetuta al successivo avvio, a partire dal file unico che non viene modificato.
+ */
+public class HotelShards {
+
+    // Estensione dei file degli shard
+    private static final String SUFFIX = ".json";
+
+    // Cartella che contiene gli shard
+    private final Path directory;
+
+    // Versione degli hotel di ogni città
+    private final ConcurrentHashMap<String, DataVersion> versions = new ConcurrentHashMap<>();
+
+    /**
+     * Costruttore della classe HotelShards.
+     *
+     * @param directory Cartella che contiene un file per ogni città.
+     */
+    public HotelShards(String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    /**
+     * Indica se gli hotel sono già salvati negli shard, cioè se la migrazione dal file unico è già avvenuta.
+     *
+     * @return true se la cartella degli shard esiste.
+     */
+    public boolean exists() {
+        return Files.isDirectory(directory);
+    }
+
+    /**
+     * Restituisce i file JSON degli shard presenti nella cartella.
+     *
+     * @return I percorsi dei file JSON degli shard, ordinati per dimensione decrescente, così i più lunghi da caricare iniziano per primi.
+     * @throws IOException Se la cartella non può essere letta.
+     */
+    public List<Path> list() throws IOException {
+        List<Path> shards = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                shards.add(file);
+            }
+        }
+        shards.sort(Comparator.comparingLong((Path file) -> file.toFile().length()).reversed());
+        return shards;
+    }
+
+    /**
+     * Registra una modifica degli hotel di una città.
+     *
+     * @param city Città, come chiave di hotelDB.
+     */
+    public void markModified(String city) {
+        version(city).markModified();
+    }
+
+    /**
+     * Restituisce la versione degli hotel di una città.
+     *
+     * @param city Città, come chiave di hotelDB.
+     * @return La versione degli hotel della città.
+     */
+    public DataVersion version(String city) {
+        return versions.computeIfAbsent(city, k -> new DataVersion());
+    }
+
+    /**
+     * Scrive lo shard di una città, sostituendo quello precedente con una rinomina atomica, e il suo snapshot binario.
+     *
+     * @param city   Città, come chiave di hotelDB.
+     * @param hotels Hotel della città, per nome.
+     * @throws IOException Se il file JSON dello shard non può essere scritto.
+     */
+    public void write(String city, HashMap<String, Hotel> hotels) throws IOException {
+        writeShard(directory, city, hotels);
+    }
+
+    /**
+     * Migra gli hotel caricati dal file unico negli shard: scrive uno shard per ogni città in una cartella temporanea,
+     * poi la rinomina nella cartella degli shard.
+     *
+     * @param hotelDB Hotel caricati dal file unico, organizzati per città e nome dell'hotel.
+     * @throws IOException Se gli shard non possono essere scritti.
+     */
+    public void migrate(HashMap<String, HashMap<String, Hotel>> hotelDB) throws IOException {
+        Path temp = Paths.get(directory + ".tmp");
+        deleteDirectory(temp);
+        Files.createDirectories(temp);
+        for (Map.Entry<String, HashMap<String, Hotel>> city : hotelDB.entrySet()) {
+            writeShard(temp, city.getKey(), city.getValue());
+        }
+        Files.move(temp, directory, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Scrive il file JSON dello shard in un file temporaneo rinominato al posto del precedente, poi lo snapshot binario
+    private static void writeShard(Path directory, String city, HashMap<String, Hotel> hotels) throws IOException {
+        Path path = directory.resolve(URLEncoder.encode(city, StandardCharsets.UTF_8) + SUFFIX);
+        Path temp = Paths.get(path + ".tmp");
+        JsonCodec.writeFile(temp.toString(), writer -> {
+            writer.beginArray();
+            for (Hotel hotel : hotels.values()) {
+                JsonCodec.PRETTY_GSON.toJson(hotel, Hotel.class, writer);
+            }
+            writer.endArray();
+        });
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        HotelierServer.saveSnapshot(path.toString(), jsonPath -> BinarySnapshot.writeHotels(jsonPath, List.of(hotels)));
+    }
+
+    // Cancella una cartella temporanea rimasta da una migrazione interrotta
+    private static void deleteDirectory(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
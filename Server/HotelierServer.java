@@ -3,17 +3,22 @@ package Server;
 import Shared.*;
 import com.google.gson.*;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Type;
 import java.math.BigInteger;
 import java.net.*;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
@@ -24,9 +29,11 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 
-public class HotelierServer {
+public class HotelierServer implements Reactor.MessageHandler {
 
     // Thread pool per gestire le richieste in parallelo
     private ExecutorService executor;
@@ -79,8 +86,8 @@ public class HotelierServer {
     // Database degli hotel, organizzato per città e nome dell'hotel
     private HashMap<String, HashMap<String, Hotel>> hotelDB;
 
-    // HashMap contenente le recensioni associate agli ID degli hotel
-    private HashMap<Integer, List<Review>> reviewsHotel;
+    // Archivio delle recensioni degli hotel, in segmenti mappati in memoria indicizzati per ID dell'hotel
+    private ReviewStore reviewStore;
 
     // Mappa contenente i client registrati per il servizio di callback per i ranking locali
     private HashMap<String, List<NotifyEventInterface>> hotelCallbacks;
@@ -88,6 +95,9 @@ public class HotelierServer {
     // Classifica degli hotel, organizzata per città, basata sul punteggio (rate) calcolato
     private HashMap<String, List<Hotel>> rankingList;
 
+    // Risposte con la classifica di ogni città, codificate dal calcolo del ranking; la mappa è immutabile e viene sostituita ad ogni calcolo
+    private volatile Map<String, PreparedResponse> rankingResponses = Collections.emptyMap();
+
     // Mappa contenente le chiavi di decrittazione utilizzate per la comunicazione sicura
     private ConcurrentHashMap<String, String> decryptionKeys;
 
@@ -100,7 +110,7 @@ public class HotelierServer {
     // Percorso del file dove vengono salvati gli utenti registrati
     private String filePathUser;
 
-    // Percorso del file dove vengono salvati gli hotel
+    // Percorso del file unico degli hotel, da cui vengono migrati gli hotel negli shard per città
     private String filePathHotel;
 
     // Percorso del file dove vengono salvate le recensioni
@@ -124,7 +134,7 @@ public class HotelierServer {
     // Lock per gestire l'accesso concorrente alla mappa degli hotel
     private ReadWriteLock lockHotel;
 
-    // Lock per gestire l'accesso concorrente alla mappa delle recensioni degli hotel
+    // Lock per gestire l'accesso concorrente all'archivio delle recensioni degli hotel
     private ReadWriteLock lockReviews;
 
     // Lock per gestire l'accesso concorrente alla mappa delle callbacks degli hotel
@@ -145,8 +155,71 @@ public class HotelierServer {
     //Thread responsabile del calcolo del ranking
     private Thread calculateRankingThread;
 
-    //Chiave dell'ultimo canale pronto per un evento I/0
-    private SelectionKey keyCurrentChannel = null;
+    // Dimensione dei buffer più piccoli del pool di lettura (in byte), sufficiente per la maggior parte delle richieste
+    private static final int MIN_READ_BUFFER_SIZE = 2048;
+
+    // Dimensione massima del corpo di un messaggio accettata dal server (in byte)
+    private int maxFrameSize;
+
+    // Numero massimo di richieste contenute in un batch
+    private static final int MAX_BATCH_SIZE = 256;
+
+    // Compressore delle risposte per le connessioni che hanno richiesto la compressione
+    private FrameCompressor frameCompressor;
+
+    // Tempo in millisecondi dopo cui una connessione senza attività viene chiusa, 0 per non chiuderle mai
+    private long idleTimeout;
+
+    // Numero massimo di richieste in attesa o in esecuzione nell'executor; oltre questo limite le richieste vengono rifiutate
+    private int maxQueuedRequests;
+
+    // Numero massimo di richieste di un client senza risposta oltre il quale la lettura dal client viene sospesa
+    private int maxRequestsPerConnection;
+
+    // Numero di richieste dei client in attesa o in esecuzione nell'executor
+    private final AtomicInteger queuedRequests = new AtomicInteger();
+
+    // Numero massimo di richieste in attesa raggiunto dall'avvio del server
+    private final AtomicInteger peakQueuedRequests = new AtomicInteger();
+
+    // Numero di richieste rifiutate perché il server era sovraccarico
+    private final AtomicLong rejectedRequests = new AtomicLong();
+
+    // Limiti di frequenza delle operazioni per connessione e per utente loggato
+    private RateLimiter rateLimiter;
+
+    // Log in sola aggiunta delle recensioni inserite, con i checkpoint periodici di tutte le recensioni
+    private ReviewLog reviewLog;
+
+    // Versione degli utenti registrati, per scrivere il file solo quando gli utenti sono cambiati
+    private DataVersion userVersion;
+
+    // File degli hotel divisi per città, con la versione degli hotel di ogni città
+    private HotelShards hotelShards;
+
+    // Soglia in byte della coda in uscita di una connessione oltre la quale la lettura dal client viene sospesa
+    private long outboundHighWaterMark;
+
+    // Numero di reactor che gestiscono l'I/O delle connessioni dei client
+    private int ioReactors;
+
+    // Politica di assegnazione delle nuove connessioni ai reactor: "round_robin" oppure "least_loaded"
+    private String reactorBalancing;
+
+    // Intervallo in millisecondi tra le stampe delle statistiche dei reactor
+    private long reactorStatsInterval;
+
+    // Numero di buffer diretti allocati per il pool di lettura di ogni reactor
+    private int readBufferPoolSize;
+
+    // Byte massimi dei buffer in prestito dal pool di lettura di ogni reactor
+    private long readBufferPoolMaxBytes;
+
+    // Reactor che gestiscono l'I/O delle connessioni dei client, ognuno con il proprio Selector e il proprio thread
+    private Reactor[] reactors;
+
+    // Indice del prossimo reactor a cui assegnare una connessione con la politica round robin
+    private int nextReactor;
     /**
      * Costruttore della classe HotelierServer.
      *
@@ -167,14 +240,14 @@ public class HotelierServer {
      * @param notificationService    Oggetto per la gestione delle callback tramite RMI.
      * @param registryRMI            Registry RMI utilizzato per esportare gli oggetti RMI.
      * @param hotelDB                Database degli hotel, organizzato per città e nome dell'hotel.
-     * @param reviewsHotel           HashMap contenente le recensioni associate agli ID degli hotel.
+     * @param reviewStore            Archivio delle recensioni degli hotel, indicizzato per ID dell'hotel.
      * @param hotelCallbacks         Mappa contenente i client registrati per il servizio di callback per i ranking locali
      * @param rankingList            Classifica degli hotel, organizzata per città.
      * @param decryptionKeys         Mappa contenente le chiavi di decrittazione.
      * @param registredUserDB        Mappa contenente gli utenti registrati nel sistema.
      * @param socketUserMap          Mappa che associa i canali (SocketChannel) ai client loggati.
      * @param filePathUser           Percorso del file dove vengono salvati gli utenti registrati.
-     * @param filePathHotel          Percorso del file dove vengono salvati gli hotel.
+     * @param filePathHotel          Percorso del file unico degli hotel, migrato negli shard per città al primo avvio.
      * @param filePathReviews        Percorso del file dove vengono salvate le recensioni.
      * @param timeoutUser            Timeout per la scrittura degli utenti su file (in millisecondi).
      * @param timeoutHotel           Timeout per la scrittura degli hotel su file (in millisecondi).
@@ -182,13 +255,28 @@ public class HotelierServer {
      * @param timeoutRanking         Timeout per la scrittura della classifica degli hotel (in millisecondi).
      * @param lockUser               Lock per gestire l'accesso concorrente alla mappa degli utenti registrati.
      * @param lockHotel              Lock per gestire l'accesso concorrente alla mappa degli hotel.
-     * @param lockReviews            Lock per gestire l'accesso concorrente alla mappa delle recensioni degli hotel.
+     * @param lockReviews            Lock per gestire l'accesso concorrente all'archivio delle recensioni degli hotel.
      * @param lockHotelCallback      Lock per gestire l'accesso concorrente alla mappa delle callbacks degli hotel.
      * @param lockRanking            Lock per gestire l'accesso concorrente alla classifica degli hotel
      * @param userFileWriterThread   Thread responsabile della scrittura degli utenti registrati su file.
      * @param reviewFileWriterThread Thread responsabile della scrittura delle recensioni su file.
      * @param hotelFileWriterThread  Thread responsabile della scrittura degli hotel su file.
      * @param calculateRankingThread Thread responsabile del calcolo del ranking locale.
+     * @param outboundHighWaterMark  Soglia in byte della coda in uscita di una connessione oltre la quale la lettura dal client viene sospesa.
+     * @param ioReactors             Numero di reactor che gestiscono l'I/O delle connessioni dei client.
+     * @param reactorBalancing       Politica di assegnazione delle nuove connessioni ai reactor: "round_robin" oppure "least_loaded".
+     * @param reactorStatsInterval   Intervallo in millisecondi tra le stampe delle statistiche dei reactor.
+     * @param readBufferPoolSize     Numero di buffer diretti allocati per il pool di lettura di ogni reactor.
+     * @param readBufferPoolMaxBytes Byte massimi dei buffer in prestito dal pool di lettura di ogni reactor; oltre questo limite la connessione che legge viene chiusa.
+     * @param maxFrameSize           Dimensione massima del corpo di un messaggio accettata dal server (in byte).
+     * @param frameCompressor        Compressore delle risposte per le connessioni che hanno richiesto la compressione.
+     * @param idleTimeout            Tempo in millisecondi dopo cui una connessione senza attività viene chiusa, 0 per non chiuderle mai.
+     * @param maxQueuedRequests      Numero massimo di richieste in attesa o in esecuzione nell'executor; oltre questo limite le richieste vengono rifiutate.
+     * @param maxRequestsPerConnection Numero massimo di richieste di un client senza risposta oltre il quale la lettura dal client viene sospesa.
+     * @param rateLimiter            Limiti di frequenza delle operazioni per connessione e per utente loggato.
+     * @param reviewLog              Log in sola aggiunta delle recensioni inserite, con i checkpoint periodici.
+     * @param userVersion            Versione degli utenti registrati, incrementata ad ogni registrazione o nuova recensione di un utente.
+     * @param hotelShards            File degli hotel divisi per città, con la versione degli hotel di ogni città.
      */
     public HotelierServer(
             ExecutorService executor,
@@ -208,7 +296,7 @@ public class HotelierServer {
             NotificationServiceImpl notificationService,
             Registry registryRMI,
             HashMap<String, HashMap<String, Hotel>> hotelDB,
-            HashMap<Integer, List<Review>> reviewsHotel,
+            ReviewStore reviewStore,
             HashMap<String, List<NotifyEventInterface>> hotelCallbacks,
             HashMap<String, List<Hotel>> rankingList,
             ConcurrentHashMap<String, String> decryptionKeys,
@@ -229,7 +317,22 @@ public class HotelierServer {
             Thread userFileWriterThread,
             Thread reviewFileWriterThread,
             Thread hotelFileWriterThread,
-            Thread calculateRankingThread
+            Thread calculateRankingThread,
+            long outboundHighWaterMark,
+            int ioReactors,
+            String reactorBalancing,
+            long reactorStatsInterval,
+            int readBufferPoolSize,
+            long readBufferPoolMaxBytes,
+            int maxFrameSize,
+            FrameCompressor frameCompressor,
+            long idleTimeout,
+            int maxQueuedRequests,
+            int maxRequestsPerConnection,
+            RateLimiter rateLimiter,
+            ReviewLog reviewLog,
+            DataVersion userVersion,
+            HotelShards hotelShards
     ) {
         this.executor = executor;
 
@@ -254,7 +357,7 @@ public class HotelierServer {
         this.registryRMI = registryRMI;
 
         this.hotelDB = hotelDB;
-        this.reviewsHotel = reviewsHotel;
+        this.reviewStore = reviewStore;
         this.hotelCallbacks = hotelCallbacks;
         this.rankingList = rankingList;
         this.decryptionKeys = decryptionKeys;
@@ -281,23 +384,77 @@ public class HotelierServer {
         this.reviewFileWriterThread = reviewFileWriterThread;
         this.hotelFileWriterThread = hotelFileWriterThread;
         this.calculateRankingThread = calculateRankingThread;
+
+        this.outboundHighWaterMark = outboundHighWaterMark;
+        this.ioReactors = ioReactors;
+        this.reactorBalancing = reactorBalancing;
+        this.reactorStatsInterval = reactorStatsInterval;
+        this.readBufferPoolSize = readBufferPoolSize;
+        this.readBufferPoolMaxBytes = readBufferPoolMaxBytes;
+        this.maxFrameSize = maxFrameSize;
+        this.frameCompressor = frameCompressor;
+        this.idleTimeout = idleTimeout;
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+        this.rateLimiter = rateLimiter;
+        this.reviewLog = reviewLog;
+        this.userVersion = userVersion;
+        this.hotelShards = hotelShards;
     }
 
     /**
-     * Avvia il caricamento dei dati dal disco utilizzando thread separati.
+     * Carica i dati dal disco eseguendo in parallelo i task di caricamento, e attende che siano tutti terminati:
+     * il server viene messo in ascolto solo dopo, per cui nessun client vede strutture dati vuote o caricate a metà.
      * 1. Caricamento degli utenti registrati.
-     * 2. Caricamento degli hotel.
+     * 2. Caricamento degli hotel, con un task per ogni città, oppure dal file unico che viene migrato negli shard per città.
      * 3. Caricamento delle recensioni degli hotel.
+     * Per ogni caricamento viene registrata la durata, per individuare i rallentamenti dell'avvio; per gli hotel è la durata
+     * complessiva del caricamento di tutti i file, eseguiti in parallelo.
+     * Se un caricamento non riesce l'avvio viene interrotto: i caricamenti ancora in corso vengono interrotti
+     * e l'executor viene arrestato, così il server non parte con dati incompleti e la JVM può terminare.
+     *
+     * @throws InterruptedException Se l'attesa dei caricamenti viene interrotta.
+     * @throws ExecutionException   Se un task di caricamento termina con un'eccezione, ad esempio perché un file non può essere letto.
+     * @throws IOException          Se la cartella degli shard degli hotel non può essere letta.
      */
-    public void loadDataFromDisk(){
-        executor.execute(new LoadUsersTask(registredUserDB, filePathUser));
-        System.out.println("Database utenti caricato con successo.");
+    public void loadDataFromDisk() throws InterruptedException, ExecutionException, IOException {
+        long start = System.nanoTime();
 
-        executor.execute(new LoadHotelsTask(hotelDB, filePathHotel));
-        System.out.println("Database hotel caricato con successo.");
+        try {
+            Future<Long> users = executor.submit(timed(new LoadUsersTask(registredUserDB, filePathUser)));
+            Future<Long> reviews = executor.submit(timed(new LoadReviewsTask(reviewStore, filePathReviews, reviewLog)));
+
+            long hotelsStart = System.nanoTime();
+            List<Future<?>> hotels = new ArrayList<>();
+            if (hotelShards.exists()) {
+                for (Path shard : hotelShards.list()) {
+                    hotels.add(executor.submit(new LoadHotelShardTask(hotelDB, shard)));
+                }
+            } else {
+                hotels.add(executor.submit(new LoadHotelsTask(hotelDB, filePathHotel, hotelShards)));
+            }
+
+            // Gli hotel vengono attesi per primi, così la durata misurata è quella del caricamento dell'ultimo file
+            for (Future<?> shard : hotels) {
+                shard.get();
+            }
+            Log.info("Database hotel caricato con successo da {} file in {} ms", hotels.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - hotelsStart));
+            Log.info("Database utenti caricato con successo in {} ms", users.get());
+            Log.info("Database recensioni caricato con successo in {} ms", reviews.get());
+        } catch (InterruptedException | ExecutionException | IOException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+        Log.info("Caricamento dei dati completato in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
 
-        executor.execute(new LoadReviewsTask(reviewsHotel, filePathReviews));
-        System.out.println("Database recensioni caricato con successo.");
+    // Esegue il task e restituisce la sua durata in millisecondi
+    private static Callable<Long> timed(Runnable task) {
+        return () -> {
+            long start = System.nanoTime();
+            task.run();
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        };
     }
 
     /**
@@ -308,29 +465,29 @@ public class HotelierServer {
      */
     public void exportRemoteServices() throws RemoteException {
         // Crea e esporta l'oggetto RegistrationService
-        registrationService = new RegistrationServiceImpl(registredUserDB, decryptionKeys, lockUser);
-        System.out.println("Esportazione del servizio di registrazione...");
+        registrationService = new RegistrationServiceImpl(registredUserDB, decryptionKeys, lockUser, userVersion);
+        Log.info("Esportazione del servizio di registrazione...");
         RegistrationService stubRegistration = (RegistrationService) UnicastRemoteObject.exportObject(registrationService, registr_obj);
-        System.out.println("Servizio di registrazione esportato con successo");
+        Log.info("Servizio di registrazione esportato con successo");
 
         // Crea e esporta l'oggetto NotificationService
         notificationService = new NotificationServiceImpl(hotelDB, hotelCallbacks, lockHotelCallback);
-        System.out.println("Esportazione del servizio di notifica...");
+        Log.info("Esportazione del servizio di notifica...");
         NotificationService stubNotification = (NotificationService) UnicastRemoteObject.exportObject(notificationService, notific_obj);
-        System.out.println("Servizio di notifica esportato con successo");
+        Log.info("Servizio di notifica esportato con successo");
 
         // Crea un registro RMI sulla porta specificata, se non esiste già
-        System.out.println("Creazione del registro RMI sulla porta: " + registry_port);
+        Log.info("Creazione del registro RMI sulla porta: {}", registry_port);
         LocateRegistry.createRegistry(registry_port);
 
         // Ottiene il registro RMI
         registryRMI = LocateRegistry.getRegistry(registry_port);
 
         // Associa i nomi agli oggetti remoti nel registro
-        System.out.println("Associazione degli oggetti remoti nel registro...");
+        Log.info("Associazione degli oggetti remoti nel registro...");
         registryRMI.rebind("REGISTRATION-SERVICE", stubRegistration);
         registryRMI.rebind("NOTIFICATION-SERVICE", stubNotification);
-        System.out.println("Associazione completata con successo");
+        Log.info("Associazione completata con successo");
     }
 
     /**
@@ -344,13 +501,13 @@ public class HotelierServer {
      */
     public void startFileWriterThreads() {
         // Thread responsabile della scrittura degli utenti registrati su file
-        userFileWriterThread = new Thread(new WriteRegistrationToFileTask(registredUserDB, timeoutUser, System.getProperty("user.dir") + filePathUser, lockUser));
+        userFileWriterThread = new Thread(new WriteRegistrationToFileTask(registredUserDB, userVersion, timeoutUser, System.getProperty("user.dir") + filePathUser, lockUser));
 
         // Thread responsabile della scrittura delle recensioni su file
-        reviewFileWriterThread = new Thread(new WriteReviewsToFileTask(reviewsHotel, lockReviews, System.getProperty("user.dir") + filePathReviews, timeouReviews));
+        reviewFileWriterThread = new Thread(new CheckpointReviewsTask(reviewStore, lockReviews, reviewLog, timeouReviews));
 
         // Thread responsabile della scrittura degli hotel su file
-        hotelFileWriterThread = new Thread(new WriteHotelsToFileTask(hotelDB, System.getProperty("user.dir") + filePathHotel, lockHotel, timeoutHotel));
+        hotelFileWriterThread = new Thread(new WriteHotelsToFileTask(hotelDB, hotelShards, lockHotel, timeoutHotel));
 
         // Avvia i thread
         userFileWriterThread.start();
@@ -360,7 +517,8 @@ public class HotelierServer {
 
     /**
      * Avvia il thread per calcolare il ranking locale degli hotel.
-     * Questo metodo crea un nuovo thread che esegue l'operazione di calcolo del ranking
+     * Questo metodo calcola subito la prima classifica sui dati caricati, così le richieste ricevute dopo l'avvio
+     * del server trovano già la classifica di ogni città, poi crea un nuovo thread che esegue l'operazione di calcolo del ranking
      * basata sui puntegi degli hotel dati nelle recensioni. Una volta avviato, il thread eseguirà
      * il compito di calcolare periodicamente il ranking.
      */
@@ -368,7 +526,13 @@ public class HotelierServer {
         //Configurazione del DatagramSocket
         initializeDatagramSocket();
 
-        calculateRankingThread = new Thread(new CalculateLocalRankingTask(hotelDB,  reviewsHotel, hotelCallbacks, rankingList, lockHotel, lockReviews, lockHotelCallback, lockRanking, timeoutRanking, datagramSocket, multicastGroup, multicastPort));
+        CalculateLocalRankingTask rankingTask = new CalculateLocalRankingTask(hotelDB, hotelShards, reviewStore, hotelCallbacks, rankingList, lockHotel, lockReviews, lockHotelCallback, lockRanking, timeoutRanking, datagramSocket, multicastGroup, multicastPort);
+
+        long start = System.nanoTime();
+        rankingTask.calculateRanking();
+        Log.info("Classifica iniziale calcolata in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        calculateRankingThread = new Thread(rankingTask);
 
         calculateRankingThread.start();
     }
@@ -376,37 +540,43 @@ public class HotelierServer {
 
     /**
      * Avvia il server per gestire le connesioni socket, configurando il ServerSocketChannel e il Selector per monitorare gli eventi di I/O.
-     * Entra in un ciclo infinito in cui esamina uno o più NIO SelectableChannels,
-     * e determinare se sono pronti per accettare nuove connessioni oppure per leggere dati dal canale
+     * Il thread corrente si occupa solo di accettare le nuove connessioni e assegnarle ai reactor,
+     * che gestiscono in parallelo la lettura delle richieste e la scrittura delle risposte.
+     * Ad intervalli regolari stampa le statistiche dei reactor, per verificare come le connessioni sono distribuite.
      * In caso di errori di I/O, registra un avviso e termina il server rilasciando tutte le risorse.
      */
     public void startServer() {
 
 
         try {
+            // Avvia i reactor che gestiscono l'I/O delle connessioni
+            startReactors();
+
             // Inizializza il ServerSocketChannel, lo configura in modalità non bloccante e lo associa al Selector
             initializeServer();
+            Log.info("Server in ascolto sulla porta {}, pronto dopo {} ms dall'avvio della JVM", server_port_tcp, ManagementFactory.getRuntimeMXBean().getUptime());
+
+            long lastStats = System.currentTimeMillis();
             while (true){
                 try {
 
-                    // Attende che una o più operazioni I/O siano pronte; il metodo `select()` blocca fino a quando un evento si verifica
-                    selector.select();
+                    // Attende nuove connessioni, risvegliandosi comunque per stampare le statistiche dei reactor
+                    selector.select(reactorStatsInterval);
 
-                    // Itera sulle chiavi pronte per l'I/O, processando gli eventi di accettazione e lettura
+                    // Itera sulle chiavi pronte, accettando le nuove connessioni
                     processSelectionKeys();
-                }catch (Exception e) {
-                    e.printStackTrace();
-
-                    //Qusta eccezione viene lanciata quando la connessione viene interrotta bruscamente lato client
-                    if (e.getMessage().trim().equals("Connection reset")){
 
-                        //gestisco la disconnessione del client
-                        handleClientDisconnect(keyCurrentChannel);
-                    }else break;
+                    if (System.currentTimeMillis() - lastStats >= reactorStatsInterval) {
+                        printReactorStats();
+                        lastStats = System.currentTimeMillis();
+                    }
+                }catch (Exception e) {
+                    Log.error("Errore durante l'accettazione delle connessioni", e);
+                    break;
                 }
             }
         }catch (Exception e) {
-            e.printStackTrace();
+            Log.error("Errore durante l'avvio del server", e);
         }
 
         // Termina il server e rilascia le risorse
@@ -414,6 +584,57 @@ public class HotelierServer {
         
     }
 
+    /**
+     * Crea e avvia i reactor che gestiscono l'I/O delle connessioni dei client.
+     * Se il numero di reactor configurato non è positivo, ne viene avviato uno per ogni core disponibile.
+     */
+    private void startReactors() throws IOException {
+        int count = ioReactors > 0 ? ioReactors : Runtime.getRuntime().availableProcessors();
+
+        reactors = new Reactor[count];
+        for (int i = 0; i < count; i++) {
+            BufferPool bufferPool = new BufferPool(MIN_READ_BUFFER_SIZE, maxFrameSize, readBufferPoolSize, readBufferPoolMaxBytes);
+            reactors[i] = new Reactor(i, this, outboundHighWaterMark, bufferPool, maxFrameSize, idleTimeout, maxRequestsPerConnection);
+            reactors[i].start();
+        }
+        Log.info("Avviati {} reactor per l'I/O delle connessioni ({})", count, reactorBalancing);
+    }
+
+    /**
+     * Sceglie il reactor a cui assegnare una nuova connessione, secondo la politica configurata:
+     * con "least_loaded" il reactor con meno connessioni attive, altrimenti il successivo in ordine circolare.
+     *
+     * @return Il reactor scelto.
+     */
+    private Reactor chooseReactor() {
+        if ("least_loaded".equals(reactorBalancing)) {
+            Reactor chosen = reactors[0];
+            for (Reactor reactor : reactors) {
+                if (reactor.getActiveConnections() < chosen.getActiveConnections()) {
+                    chosen = reactor;
+                }
+            }
+            return chosen;
+        }
+
+        Reactor chosen = reactors[nextReactor];
+        nextReactor = (nextReactor + 1) % reactors.length;
+        return chosen;
+    }
+
+    // Stampa le statistiche di tutti i reactor
+    private void printReactorStats() {
+        for (Reactor reactor : reactors) {
+            Log.info("Statistiche {}", reactor.getStats());
+        }
+        Log.info("Statistiche {}", frameCompressor.getStats());
+        Log.info("Statistiche executor richieste in coda={} picco={} rifiutate={}",
+                queuedRequests.get(), peakQueuedRequests.get(), rejectedRequests.get());
+        Log.info("Statistiche {}", rateLimiter.getStats());
+        Log.info("Statistiche {}", reviewLog.getStats());
+        Log.info("Statistiche {}", reviewStore.getStats());
+    }
+
     /**
      * Inizializza il ServerSocketChannel per gestire le connessioni TCP in entrata.
      * Lo configura per la modalità non bloccante e lo registra con un Selector per monitorare eventi di accettazione.
@@ -450,8 +671,8 @@ public class HotelierServer {
     }
 
     /**
-     * Processa le chiavi di selezione pronte per I/O, determinate dal Selector.
-     * Gestisce gli eventi di accettazione di nuove connessioni e di lettura dei dati dai canali di comunicazione.
+     * Processa le chiavi di selezione pronte, determinate dal Selector.
+     * Gestisce gli eventi di accettazione di nuove connessioni; lettura e scrittura sono gestite dai reactor.
      * Ogni chiave viene processata individualmente e rimossa dall'insieme delle chiavi pronte.
      */
     private void processSelectionKeys() throws IOException {
@@ -464,7 +685,7 @@ public class HotelierServer {
         while (iterator.hasNext()) {
             // Prende la prossima chiave disponibile
             SelectionKey key = iterator.next();
-            keyCurrentChannel = key;
+
             // Rimuove la chiave processata dall'insieme, evitando di riprocessarla
             iterator.remove();
 
@@ -472,11 +693,6 @@ public class HotelierServer {
                 // Se la chiave è pronta per accettare una nuova connessione, gestisce l'evento di accettazione
                 handleAccept(key);
             }
-
-            if (key.isReadable()) {
-                // Se la chiave è pronta per la lettura, gestisce l'evento di lettura dal canale associato
-                handleRead(key);
-            }
         }
     }
 
@@ -495,280 +711,550 @@ public class HotelierServer {
 
         if (client != null) {
             // Stampa un messaggio di log per indicare che una nuova connessione è stata accettata
-            System.out.println("Nuova connessione accettata: " + client.getRemoteAddress());
+            Log.info("Nuova connessione accettata: {}", client.getRemoteAddress());
 
             // Configura il canale del client come non bloccante
             client.configureBlocking(false);
 
-            // Alloca un bytebuffer per la lunghezza del messaggio (4 byte per un int)
-            ByteBuffer msgLength = ByteBuffer.allocate(Integer.BYTES);
-
-            // Alloca un bytebuffer per il messaggio stesso (fino a 2048 byte)
-            ByteBuffer msgTxt = ByteBuffer.allocate(2048);
-
-            // Crea un array di bytebuffer per contenere la lunghezza del messaggio e il messaggio
-            ByteBuffer[] msg = {msgLength, msgTxt};
-
-            // Registra il canale del client nel selettore per l'operazione di lettura
-            // e associa il buffer come attachment
-            client.register(selector, SelectionKey.OP_READ, msg);
+            // Assegna il canale del client a uno dei reactor, che lo registra nel proprio selettore per l'operazione di lettura
+            Reactor reactor = chooseReactor();
+            reactor.register(client);
+            Log.debug("Connessione assegnata al reactor {}", reactor.getId());
 
 
         } else {
             // Se il SocketChannel è null, stampa un messaggio di errore
-            System.err.println("Errore: impossibile accettare la connessione.");
+            Log.warn("Errore: impossibile accettare la connessione.");
         }
     }
 
 
     /**
-     * Gestisce l'evento di lettura di dati da un client.
-     *
-     * Questo metodo viene chiamato quando il canale del client è pronto per la lettura.
-     * I dati vengono letti dai buffer e, una volta che un messaggio completo è stato ricevuto,
-     * viene processato. Se il client chiude la connessione, la chiave viene cancellata.
+     * Invocato dal reactor per ogni messaggio completo ricevuto da un client.
+     * Assegna alla richiesta il numero di sequenza della connessione, decodifica il messaggio e lo processa.
      *
-     * @param key La chiave di selezione associata al canale che ha generato l'evento.
-     * @throws IOException Se si verifica un errore durante la lettura o l'elaborazione dei dati.
+     * @param frame Il corpo del messaggio, pronto per la lettura.
+     * @param key   La chiave di selezione associata al canale del client.
      */
-    private void handleRead(SelectionKey key) throws IOException {
-
-        // Recupera il canale del client associato alla chiave
-        SocketChannel client = (SocketChannel) key.channel();
-
-        // Recupera i buffer allegati alla chiave (msgLength e msgTxt)
-        ByteBuffer[] buffers = (ByteBuffer[]) key.attachment();
-
-        // Legge i dati dal canale del client nei buffer
-
-        long bytesRead = 0;
-        
-        // Legge i 4 byte che rappresentano la lunghezza del messaggio
-        while (bytesRead < Integer.BYTES) {
-            
-            int read = client.read(buffers[0]);
-
-            if (read == -1) {
-
-                handleClientDisconnect(key);
+    @Override
+    public void onMessage(ByteBuffer frame, SelectionKey key) {
+        ClientConnection connection = (ClientConnection) key.attachment();
+        RequestContext request = new RequestContext(connection, connection.nextSequence());
+
+        if (request.isBinary()) {
+            // Il codice dell'operazione è il primo byte del messaggio
+            if (frame.hasRemaining() && !checkRateLimit(request, frame.get(frame.position()))) {
+                request.setRequestId(peekBinaryId(frame));
+                rejectRateLimited(request);
                 return;
             }
-            bytesRead += read;
+            processBinaryMessage(frame, request);
+            return;
         }
 
-        buffers[0].flip();
-        int messageLength = buffers[0].getInt();
-
-
-        bytesRead = 0;
-
-        // Legge il messaggio completo
-        while (bytesRead < messageLength) {
-            int read = client.read(buffers[1]);
-            if (read == -1) {
-                handleClientDisconnect(key);
-                return;
-            }
-            bytesRead += read;
+        // Il limite di frequenza viene verificato leggendo solo il nome dell'operazione, prima della decodifica completa
+        String operation = JsonRequestDecoder.peekOperation(frame);
+        if (operation != null && !checkRateLimit(request, rateLimiter.limitedOpcodeOf(operation))) {
+            request.setRequestId(JsonRequestDecoder.peekId(frame));
+            rejectRateLimited(request);
+            return;
         }
-        buffers[1].flip();
-
-        // Decodifica il messaggio utilizzando UTF-8
-        String receivedMessage = StandardCharsets.UTF_8.decode(buffers[1]).toString().trim();
 
-        System.out.println("Richiesta ricevuta dal client: " + receivedMessage);
+        // Processa il messaggio ricevuto
+        processMessage(frame, request);
+    }
 
+    /**
+     * Verifica i limiti di frequenza della connessione e dell'utente loggato per l'operazione richiesta.
+     *
+     * @param request La richiesta da verificare.
+     * @param opcode  Il codice dell'operazione richiesta, -1 se l'operazione non ha limiti.
+     * @return true se la richiesta può essere eseguita, false se deve essere rifiutata.
+     */
+    private boolean checkRateLimit(RequestContext request, byte opcode) {
+        if (opcode < 0) {
+            return true;
+        }
+        // L'utente della connessione viene cercato solo se l'operazione ha un limite per utente
+        String username = rateLimiter.hasUserLimit(opcode) ? socketUserMap.get(request.getChannel()) : null;
+        return rateLimiter.tryAcquire(request.getConnection(), username, opcode);
+    }
 
-        // Resetta i buffer per ricevere nuovi messaggi
-        resetBuffers(key);
+    // Risponde al client che ha superato il limite di frequenza, senza eseguire la richiesta
+    private void rejectRateLimited(RequestContext request) {
+        sendResponse(request, new Response(429, new Response.Message(null, "Troppe richieste, riprovare più tardi")));
+    }
 
-        // Processa il messaggio ricevuto
-        processMessage(receivedMessage, key);
+    // Legge l'identificativo di una richiesta binaria senza spostare la posizione del messaggio
+    private static Long peekBinaryId(ByteBuffer frame) {
+        try {
+            ByteBuffer duplicate = frame.duplicate();
+            duplicate.get();
+            return BinaryProtocol.readId(duplicate);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
 
+    /**
+     * Consegna la risposta alla connessione da cui è arrivata la richiesta.
+     * La risposta entra nella coda in uscita solo dopo quelle delle richieste precedenti dello stesso client
+     * e viene scritta sul canale dal thread del selettore, per cui questo metodo non blocca il thread del pool.
+     * Ogni richiesta deve ricevere esattamente una risposta, altrimenti le risposte successive restano in attesa.
+     *
+     * @param request  La richiesta a cui si risponde.
+     * @param response La risposta da inviare al client.
+     */
+    private void sendResponse(RequestContext request, Response response) {
+        // Riporta nella risposta l'identificativo scelto dal client
+        response.setId(request.getRequestId());
+
+        ByteBuffer frame;
+        if (request.isBinary()) {
+            frame = BinaryProtocol.encodeResponse(response);
+            Log.debug("Risposta binaria che invia al client: stato {}, {} byte", response.getStatusCode(), frame.remaining());
+        } else {
+            frame = response.toFrame();
+            // Il contenuto della risposta viene decodificato solo se i messaggi di debug sono attivi
+            if (Log.isDebugEnabled()) {
+                Log.debug("Messaggio che invia al client: {}", StandardCharsets.UTF_8.decode(frame.duplicate().position(Integer.BYTES)).toString());
+            }
+        }
 
+        deliver(request, frame);
     }
 
     /**
-     * Resetta i buffer per leggere nuovi messaggi.
+     * Consegna alla connessione una risposta già codificata, aggiungendo solo l'identificativo scelto dal client.
+     * La risposta è già compressa, se il client lo ha richiesto, per cui viene inserita direttamente nella coda in uscita:
+     * il metodo viene invocato anche dal thread del reactor, che non deve comprimere.
      *
-     * @param key La chiave di selezione associata al canale del client.
+     * @param request  La richiesta a cui si risponde.
+     * @param response La risposta codificata da inviare al client.
      */
-    private void resetBuffers(SelectionKey key) {
-        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
-        ByteBuffer messagenew = ByteBuffer.allocate(2048);
-        ByteBuffer[] bfsnew = { length, messagenew };
-        key.attach(bfsnew);
-        System.out.println("Buffer resettati per la prossima lettura.");
+    private void sendPreparedResponse(RequestContext request, PreparedResponse response) {
+        ByteBuffer frame = response.toFrame(request.isBinary(), request.isCompression(), request.getRequestId());
+        Log.debug("Risposta preparata che invia al client: stato {}, {} byte", response.getStatusCode(), frame.remaining());
+
+        request.getConnection().complete(request.getSequence(), frame);
     }
 
+    // Comprime la risposta se il client lo ha richiesto e la inserisce nella coda in uscita della connessione
+    private void deliver(RequestContext request, ByteBuffer frame) {
+        // Le risposte più grandi della soglia vengono compresse se il client lo ha richiesto
+        if (request.isCompression()) {
+            frame = frameCompressor.compress(frame);
+        }
 
+        request.getConnection().complete(request.getSequence(), frame);
+    }
 
     /**
      * Elabora il messaggio ricevuto dal client e invoca il metodo appropriato in base all'operazione richiesta.
+     * Il messaggio viene decodificato direttamente dai byte ricevuti, senza costruire la stringa JSON né l'albero JSON.
+     * Se il messaggio non è valido o l'operazione è sconosciuta risponde subito con un errore,
+     * così ogni richiesta riceve una risposta e quelle successive dello stesso client non restano in attesa.
      *
-     * @param msg La stringa JSON contenente il messaggio ricevuto.
-     * @param key La chiave di selezione associata al canale del client.
+     * @param frame   Il corpo del messaggio JSON, pronto per la lettura.
+     * @param request La richiesta a cui rispondere.
      */
-    private void processMessage(String msg, SelectionKey key) {
+    private void processMessage(ByteBuffer frame, RequestContext request) {
+        int length = frame.remaining();
 
-        Gson gson = new Gson();
+        JsonRequestDecoder.DecodedRequest decoded;
+        try {
+            decoded = JsonRequestDecoder.decode(frame);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            Log.warn("Messaggio non valido ricevuto: {}", e.getMessage());
+            sendResponse(request, new Response(400, new Response.Message(null, "Richiesta non valida")));
+            return;
+        }
 
-        // Converte il messaggio JSON in un oggetto JsonObject
-        JsonObject jsonMessage = gson.fromJson(msg, JsonObject.class);
+        // Riporta nella risposta l'identificativo della richiesta, se il client lo ha indicato
+        request.setRequestId(decoded.id());
+        String operation = decoded.operation();
 
-        // Estrae l'operazione richiesta dal messaggio
-        String operation = jsonMessage.get("operation").getAsString();
+        Log.debug("Richiesta ricevuta dal client: operazione {}, {} byte", operation, length);
 
-        // Estrae i parametri associati all'operazione
-        JsonObject paramData = jsonMessage.get("param").getAsJsonObject();
-        System.out.println("Parametri ricevuti per l'operazione " + operation + ": " + paramData.toString());
+        try {
+            dispatchOperation(operation, decoded.params(), request);
+        } catch (IllegalStateException e) {
+            // Parametri mancanti o di tipo errato
+            Log.warn("Parametri non validi per l'operazione {}: {}", operation, e.getMessage());
+            sendResponse(request, new Response(400, new Response.Message(null, "Parametri non validi per l'operazione " + operation)));
+        }
+    }
+
+    /**
+     * Elabora un messaggio codificato con il protocollo binario e invoca il metodo appropriato in base al codice dell'operazione.
+     * I parametri vengono letti direttamente dal buffer, senza costruire la rappresentazione JSON del messaggio.
+     *
+     * @param frame   Il corpo del messaggio, pronto per la lettura.
+     * @param request La richiesta a cui rispondere.
+     */
+    private void processBinaryMessage(ByteBuffer frame, RequestContext request) {
+        byte opcode;
+        try {
+            opcode = frame.get();
+            request.setRequestId(BinaryProtocol.readId(frame));
+        } catch (BufferUnderflowException e) {
+            Log.warn("Messaggio binario non valido ricevuto");
+            sendResponse(request, new Response(400, new Response.Message(null, "Richiesta non valida")));
+            return;
+        }
+        Log.debug("Richiesta binaria ricevuta dal client: operazione {}, {} byte", opcode, frame.limit());
+
+        try {
+            switch (opcode) {
+                case BinaryProtocol.OP_LOGIN: {
+                    String username = BinaryProtocol.getString(frame);
+                    byte[] passwordBytes = BinaryProtocol.getBytes(frame);
+                    String uuidClient = BinaryProtocol.getString(frame);
+                    handleLogin(username, passwordBytes, uuidClient, request);
+                    break;
+                }
+                case BinaryProtocol.OP_LOGOUT:
+                    handleLogout(BinaryProtocol.getString(frame), request);
+                    break;
+                case BinaryProtocol.OP_SEARCH_HOTEL: {
+                    String nameHotel = BinaryProtocol.getString(frame);
+                    String cityHotel = BinaryProtocol.getString(frame);
+                    handleSearchHotel(nameHotel, cityHotel, request);
+                    break;
+                }
+                case BinaryProtocol.OP_INSERT_REVIEW: {
+                    String nameHotel = BinaryProtocol.getString(frame);
+                    String cityHotel = BinaryProtocol.getString(frame);
+                    int globalScore = BinaryProtocol.getScore(frame);
+                    int[] singleScores = BinaryProtocol.getScores(frame);
+                    handleInsertReview(nameHotel, cityHotel, globalScore, singleScores, request);
+                    break;
+                }
+                case BinaryProtocol.OP_SHOW_MY_BADGES:
+                    handleShowMyBadges(request);
+                    break;
+                case BinaryProtocol.OP_SEARCH_ALL_HOTELS:
+                    handleSearchAllHotels(BinaryProtocol.getString(frame), request);
+                    break;
+                case BinaryProtocol.OP_SEND_KEY:
+                    handleSendKey(BinaryProtocol.getString(frame), request);
+                    break;
+                case BinaryProtocol.OP_SET_PROTOCOL:
+                    handleSetProtocol(BinaryProtocol.getString(frame), request);
+                    break;
+                case BinaryProtocol.OP_SET_COMPRESSION:
+                    handleSetCompression(frame.get() != 0, request);
+                    break;
+                case BinaryProtocol.OP_BATCH: {
+                    // Il numero di richieste viene controllato prima di allocare il batch
+                    int count = frame.getShort() & 0xFFFF;
+                    if (count > MAX_BATCH_SIZE) {
+                        sendResponse(request, new Response(400, new Response.Message(null, "Batch troppo grande: " + count + " richieste, il massimo consentito è " + MAX_BATCH_SIZE)));
+                        break;
+                    }
+                    BatchItem[] items = new BatchItem[count];
+                    for (int i = 0; i < items.length; i++) {
+                        // Le operazioni non supportate non possono essere saltate, perché i loro parametri non sono decodificati
+                        byte itemOpcode = frame.get();
+                        if (itemOpcode == BinaryProtocol.OP_SEARCH_HOTEL) {
+                            String nameHotel = BinaryProtocol.getString(frame);
+                            items[i] = new BatchItem(itemOpcode, nameHotel, BinaryProtocol.getString(frame));
+                        } else if (itemOpcode == BinaryProtocol.OP_SEARCH_ALL_HOTELS) {
+                            items[i] = new BatchItem(itemOpcode, null, BinaryProtocol.getString(frame));
+                        } else {
+                            throw new IllegalArgumentException("Operazione non supportata in un batch: " + itemOpcode);
+                        }
+                    }
+                    handleBatch(items, request);
+                    break;
+                }
+                default:
+                    Log.info("Operazione sconosciuta ricevuta: {}", opcode);
+                    sendResponse(request, new Response(400, new Response.Message(null, "Operazione sconosciuta: " + opcode)));
+                    break;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // Parametri mancanti o troncati
+            Log.warn("Parametri non validi per l'operazione {}", opcode);
+            sendResponse(request, new Response(400, new Response.Message(null, "Parametri non validi per l'operazione " + opcode)));
+        }
+    }
+
+    // Invoca il metodo che gestisce l'operazione richiesta
+    private void dispatchOperation(String operation, JsonRequestDecoder.Params params, RequestContext request) {
 
         // Gestisce l'operazione in base al tipo richiesto
         switch (operation) {
             case "Login":
-                handleLogin(paramData, key); // Gestisce l'operazione di login
+                handleLogin(params.login(), request); // Gestisce l'operazione di login
                 break;
             case "Logout":
-                handleLogout(paramData, key); // Gestisce l'operazione di logout
+                handleLogout(params.logout(), request); // Gestisce l'operazione di logout
                 break;
             case "SearchHotel":
-                handleSearchHotel(paramData, key); // Gestisce l'operazione di ricerca di un hotel specifico
+                handleSearchHotel(params.searchHotel(), request); // Gestisce l'operazione di ricerca di un hotel specifico
                 break;
             case "InsertReview":
-                handleInsertReview(paramData, key); // Gestisce l'inserimento di una recensione
+                handleInsertReview(params.insertReview(), request); // Gestisce l'inserimento di una recensione
                 break;
             case "ShowMyBadges":
-                handleShowMyBadges(key); // Gestisce la visualizzazione del badge dell'utente
+                handleShowMyBadges(request); // Gestisce la visualizzazione del badge dell'utente
                 break;
             case "SearchAllHotels":
-                handleSearchAllHotels(paramData, key); // Gestisce la ricerca di tutti gli hotel disponibili in una città
+                handleSearchAllHotels(params.searchAllHotels(), request); // Gestisce la ricerca di tutti gli hotel disponibili in una città
                 break;
             case "SendKey":
-                handleSendKey(paramData, key); // Gestisce lo scambio della chiave di cifratura con l'algoritmo Diffie-Hellman
+                handleSendKey(params.sendKey(), request); // Gestisce lo scambio della chiave di cifratura con l'algoritmo Diffie-Hellman
+                break;
+            case "SetProtocol":
+                handleSetProtocol(params.setProtocol().protocol(), request); // Gestisce il cambio del protocollo della connessione
+                break;
+            case "SetCompression":
+                handleSetCompression(params.setCompression().enabled(), request); // Gestisce l'attivazione della compressione delle risposte
+                break;
+            case "Batch":
+                handleBatch(params.batch(), request); // Gestisce più ricerche inviate in un unico messaggio
                 break;
             default:
 
-                System.out.println("Operazione sconosciuta ricevuta: " + operation);
+                Log.info("Operazione sconosciuta ricevuta: {}", operation);
+                sendResponse(request, new Response(400, new Response.Message(null, "Operazione sconosciuta: " + operation)));
                 break;
         }
     }
 
 
 
-    private void handleLogin(JsonObject paramData, SelectionKey key) {
-        // Estrae l'username dai parametri
-        String username = paramData.get("username").getAsString();
+    private void handleLogin(OperationRequest.Login login, RequestContext request) {
 
-        // Estrae la password dai parametri e la converte in un array di byte
-        byte[] passwordBytes = extractPassword(paramData);
-
-        // Estrae l'UUID del client dai parametri
-        String uuidClient = paramData.get("uuidClient").getAsString();
+        handleLogin(login.username(), login.password(), login.uuidClient(), request);
+    }
 
-        System.out.println("Avvio del task di login per l'utente: " + username);
+    private void handleLogin(String username, byte[] passwordBytes, String uuidClient, RequestContext request) {
+        Log.debug("Avvio del task di login per l'utente: {}", username);
 
         // Esegue il task di login utilizzando un esecutore (thread pool)
-        executor.execute(new LoginTask(registredUserDB, socketUserMap, decryptionKeys, username, passwordBytes, uuidClient, key));
+        submitRequest(new LoginTask(registredUserDB, socketUserMap, decryptionKeys, username, passwordBytes, uuidClient, request), request);
 
     }
 
 
-    private void handleLogout(JsonObject paramData, SelectionKey key) {
+    private void handleLogout(OperationRequest.Logout logout, RequestContext request) {
 
-        String username = paramData.get("username").getAsString();
+        handleLogout(logout.username(), request);
+    }
 
-        System.out.println("Inizio Logout task");
-        executor.execute(new LogoutTask(socketUserMap, username, key));
+    private void handleLogout(String username, RequestContext request) {
+        Log.debug("Inizio Logout task");
+        submitRequest(new LogoutTask(socketUserMap, username, request), request);
     }
 
-    private void handleSearchHotel(JsonObject paramData, SelectionKey key) {
-        String nameHotel = paramData.get("name_hotel").getAsString();
-        String cityHotel = paramData.get("city_hotel").getAsString();
+    private void handleSearchHotel(OperationRequest.SearchHotel search, RequestContext request) {
 
-        System.out.println("Inizio SearchHotel task");
-        executor.execute(new SearchHotelTask(hotelDB, nameHotel, cityHotel, key, lockHotel));
+        handleSearchHotel(search.nameHotel(), search.city(), request);
     }
 
-    private void handleInsertReview(JsonObject paramData, SelectionKey key) {
-        String nameHotel = paramData.get("name_hotel").getAsString();
-        String cityHotel = paramData.get("city_hotel").getAsString();
-        int globalScore = paramData.get("global_score").getAsInt();
-        int[] singleScores = extractSingleScores(paramData);
-
+    private void handleSearchHotel(String nameHotel, String cityHotel, RequestContext request) {
+        Log.debug("Inizio SearchHotel task");
+        submitRequest(new SearchHotelTask(hotelDB, nameHotel, cityHotel, request, lockHotel), request);
+    }
 
-        System.out.println("Inizio InsertReview task");
-        executor.execute(new InsertReviewTask(reviewsHotel, socketUserMap, hotelDB, registredUserDB, nameHotel, cityHotel, globalScore, singleScores, key, lockReviews, lockUser));
+    private void handleInsertReview(OperationRequest.InsertReview review, RequestContext request) {
 
+        handleInsertReview(review.nameHotel(), review.city(), review.globalScore(), review.singleScores(), request);
     }
 
-    private void handleShowMyBadges(SelectionKey key) {
+    private void handleInsertReview(String nameHotel, String cityHotel, int globalScore, int[] singleScores, RequestContext request) {
+        Log.debug("Inizio InsertReview task");
+        submitRequest(new InsertReviewTask(reviewStore, reviewLog, socketUserMap, hotelDB, registredUserDB, userVersion, nameHotel, cityHotel, globalScore, singleScores, request, lockReviews, lockUser), request);
 
-        System.out.println("Inizio ShowMyBadges task");
-        executor.execute(new ShowMyBadgeTask(registredUserDB, socketUserMap, key, lockUser));
     }
 
-    private void handleSearchAllHotels(JsonObject paramData, SelectionKey key) {
-        String cityHotel = paramData.get("city_hotel").getAsString();
+    private void handleShowMyBadges(RequestContext request) {
+
+        Log.debug("Inizio ShowMyBadges task");
+        submitRequest(new ShowMyBadgeTask(registredUserDB, socketUserMap, request, lockUser), request);
+    }
 
-        System.out.println("Inizio SearchAllHotels task");
-        executor.execute(new SearchAllHotelInCity(rankingList, cityHotel, lockRanking, key));
+    private void handleSearchAllHotels(OperationRequest.SearchAllHotels search, RequestContext request) {
 
+        handleSearchAllHotels(search.city(), request);
     }
 
-    private void handleSendKey(JsonObject paramData, SelectionKey key) {
-        String publicKey = paramData.get("public_key").getAsString();
+    private void handleSearchAllHotels(String cityHotel, RequestContext request) {
+        // La classifica già codificata viene inviata dal thread del selettore, senza lock e senza passare dall'executor
+        PreparedResponse ranking = rankingResponses.get(cityHotel);
+        if (ranking != null) {
+            sendPreparedResponse(request, ranking);
+            return;
+        }
 
+        Log.debug("Inizio SearchAllHotels task");
+        submitRequest(new SearchAllHotelInCity(rankingList, cityHotel, lockRanking, request), request);
 
-        System.out.println("Inizio SendKey task");
-        executor.execute(new DHKeyExchangeTask(decryptionKeys,publicKey, P_number, g, key));
     }
 
-    // Metodo che gestisce la chiusura della connessione
-    private void handleClientDisconnect(SelectionKey key) {
-        SocketChannel client = (SocketChannel) key.channel();
+    private void handleSendKey(OperationRequest.SendKey sendKey, RequestContext request) {
 
-        System.out.println("Connessione chiusa da " + client);
+        handleSendKey(sendKey.publicKey(), request);
+    }
+
+    private void handleSendKey(String publicKey, RequestContext request) {
+        Log.debug("Inizio SendKey task");
+        submitRequest(new DHKeyExchangeTask(decryptionKeys,publicKey, P_number, g, request), request);
+    }
+
+    /**
+     * Affida all'executor il task di una richiesta, se il numero di richieste in attesa non supera il limite.
+     * Quando il server è sovraccarico il task non viene accodato e il client riceve subito una risposta 503,
+     * invece di attendere in una coda che continua a crescere.
+     * Il limite riguarda solo le richieste dei client: i task interni del server non vengono mai rifiutati.
+     * Se il task termina con un'eccezione il client riceve una risposta 500: le risposte vengono consegnate nell'ordine
+     * delle richieste, per cui una richiesta senza risposta bloccherebbe tutte le risposte successive della connessione.
+     *
+     * @param task    Il task che gestisce la richiesta.
+     * @param request La richiesta a cui rispondere in caso di rifiuto.
+     */
+    private void submitRequest(Runnable task, RequestContext request) {
+        int queued = queuedRequests.incrementAndGet();
+        if (queued > maxQueuedRequests) {
+            queuedRequests.decrementAndGet();
+            rejectRequest(request);
+            return;
+        }
+        peakQueuedRequests.accumulateAndGet(queued, Math::max);
 
-        // Cancellazione della chiave di selezione e chiusura del canale
-        key.cancel();
         try {
-            client.close();
-        } catch (IOException e) {
-            System.err.println("Errore durante la chiusura del canale: " + e.getMessage());
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.error("Errore durante l'esecuzione della richiesta", e);
+                    sendResponse(request, new Response(500, new Response.Message(null, "Errore interno del server")));
+                } finally {
+                    queuedRequests.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // L'executor è stato arrestato o ha rifiutato il task
+            queuedRequests.decrementAndGet();
+            rejectRequest(request);
+        }
+    }
+
+    // Risponde al client che il server è sovraccarico, senza eseguire la richiesta
+    private void rejectRequest(RequestContext request) {
+        rejectedRequests.incrementAndGet();
+        sendResponse(request, new Response(503, new Response.Message(null, "Server sovraccarico, riprovare più tardi")));
+    }
+
+    private void handleBatch(OperationRequest.Batch batch, RequestContext request) {
+        List<JsonRequestDecoder.DecodedRequest> requests = batch.requests();
+
+        BatchItem[] items = new BatchItem[requests.size()];
+        for (int i = 0; i < items.length; i++) {
+            JsonRequestDecoder.DecodedRequest item = requests.get(i);
+            String operation = item.operation();
+
+            if ("SearchHotel".equals(operation)) {
+                OperationRequest.SearchHotel search = item.params().searchHotel();
+                items[i] = new BatchItem(BinaryProtocol.OP_SEARCH_HOTEL, search.nameHotel(), search.city());
+            } else if ("SearchAllHotels".equals(operation)) {
+                items[i] = new BatchItem(BinaryProtocol.OP_SEARCH_ALL_HOTELS, null, item.params().searchAllHotels().city());
+            } else {
+                // Le altre operazioni ricevono un errore, senza annullare il resto del batch
+                items[i] = new BatchItem((byte) -1, null, null);
+                items[i].response = new Response(400, new Response.Message(null, "Operazione non supportata in un batch: " + operation));
+            }
         }
 
-        // Rimozione del canale dalla socketUserMap
-        executor.execute(new RemoveChannelTask(socketUserMap, client));
+        handleBatch(items, request);
     }
 
     /**
-     * Estrae la password dai parametri JSON e la converte in un array di byte.
+     * Esegue le richieste di un batch con un unico task.
+     * Ogni richiesta consuma un gettone dei limiti di frequenza della propria operazione, come se fosse stata inviata da sola:
+     * quelle oltre il limite ricevono un errore 429 all'interno della risposta del batch.
      *
+     * @param items   Le richieste del batch.
+     * @param request La richiesta del batch a cui rispondere.
      */
-    private byte[] extractPassword(JsonObject paramData) {
-        JsonArray jsonArray = paramData.get("password").getAsJsonArray();
-        byte[] passwordBytes = new byte[jsonArray.size()];
-        for (int i = 0; i < jsonArray.size(); i++) {
-            passwordBytes[i] = jsonArray.get(i).getAsByte();
+    private void handleBatch(BatchItem[] items, RequestContext request) {
+        if (items.length > MAX_BATCH_SIZE) {
+            sendResponse(request, new Response(400, new Response.Message(null, "Batch troppo grande: " + items.length + " richieste, il massimo consentito è " + MAX_BATCH_SIZE)));
+            return;
         }
-        return passwordBytes;
+
+        for (BatchItem item : items) {
+            if (item.response == null && !checkRateLimit(request, item.opcode)) {
+                item.response = new Response(429, new Response.Message(null, "Troppe richieste, riprovare più tardi"));
+            }
+        }
+
+        Log.debug("Inizio Batch task con {} richieste", items.length);
+        submitRequest(new BatchTask(hotelDB, rankingList, items, request, lockHotel, lockRanking), request);
     }
 
     /**
-     * Estrae i punteggi sintetici di una recensione dati alle varie categorie .
+     * Cambia il protocollo usato dalla connessione per le richieste successive.
+     * Viene eseguito sul thread del selettore, per cui i messaggi già letti restano nel protocollo precedente
+     * e quelli letti dopo questa richiesta vengono decodificati con il nuovo; la risposta usa ancora il protocollo precedente.
      *
-     * @param paramData L'oggetto JsonObject che contiene l'array di punteggi sintetici sotto la chiave "singles_scores".
-     * @return Un array di interi contenente i punteggi sintetici estratti dall'array JSON.
+     * @param protocol Il protocollo richiesto: "json" oppure "binary".
+     * @param request  La richiesta a cui rispondere.
      */
-    private int[] extractSingleScores(JsonObject paramData) {
-        JsonArray jsonArray = paramData.get("singles_scores").getAsJsonArray();
-        int[] singleScores = new int[jsonArray.size()];
-        for (int i = 0; i < jsonArray.size(); i++) {
-            singleScores[i] = jsonArray.get(i).getAsInt();
+    private void handleSetProtocol(String protocol, RequestContext request) {
+        if (BinaryProtocol.BINARY.equals(protocol) || BinaryProtocol.JSON.equals(protocol)) {
+            request.getConnection().setBinaryProtocol(BinaryProtocol.BINARY.equals(protocol));
+            sendResponse(request, new Response(200, new Response.Message(null, "Protocollo " + protocol + " attivo")));
+        } else {
+            sendResponse(request, new Response(400, new Response.Message(null, "Protocollo non supportato: " + protocol)));
         }
-        return singleScores;
     }
 
+    /**
+     * Attiva o disattiva la compressione delle risposte alle richieste successive della connessione.
+     * Viene eseguito sul thread del selettore, come il cambio di protocollo.
+     *
+     * @param enabled Indica se le risposte più grandi della soglia devono essere compresse.
+     * @param request La richiesta a cui rispondere.
+     */
+    private void handleSetCompression(boolean enabled, RequestContext request) {
+        request.getConnection().setCompression(enabled);
+        sendResponse(request, new Response(200, new Response.Message(null, enabled ? "Compressione attiva" : "Compressione disattivata")));
+    }
+
+    /**
+     * Invocato dal reactor quando un client invia un messaggio più grande della dimensione massima.
+     * Il messaggio è già stato scartato: al client viene inviato un errore e la connessione resta aperta.
+     *
+     * @param length Lunghezza del messaggio dichiarata dal client.
+     * @param key    La chiave di selezione associata al canale del client.
+     */
+    @Override
+    public void onFrameTooLarge(int length, SelectionKey key) {
+        ClientConnection connection = (ClientConnection) key.attachment();
+        RequestContext request = new RequestContext(connection, connection.nextSequence());
+        sendResponse(request, new Response(413, new Response.Message(null, "Richiesta troppo grande: " + length + " byte, il massimo consentito è " + maxFrameSize + " byte")));
+    }
+
+    /**
+     * Invocato dal reactor dopo la chiusura del canale di un client, sia su iniziativa del client
+     * sia perché la connessione è rimasta inattiva oltre il timeout.
+     *
+     * @param connection La connessione del client disconnesso.
+     */
+    @Override
+    public void onDisconnect(ClientConnection connection) {
+        // Rimozione del canale dalla socketUserMap e della chiave di decifratura del client
+        RemoveChannelTask task = new RemoveChannelTask(socketUserMap, decryptionKeys, connection.getChannel(), connection.getClientId());
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // L'executor è già stato arrestato durante la terminazione: la rimozione viene eseguita dal reactor
+            task.run();
+        }
+    }
 
     /**
      * Termina il server chiudendo le connessioni di rete, interrompendo i thread in esecuzione e
@@ -776,15 +1262,15 @@ public class HotelierServer {
      */
     private void terminateServer() {
         // Indica l'inizio della terminazione del server
-        System.out.println("Terminazione server in corso");
+        Log.info("Terminazione server in corso");
 
         try {
             // Deregistra i servizi RMI
             unregisterServices();
         } catch (RemoteException e) {
-            e.printStackTrace();
+            Log.error("Errore durante la deregistrazione dei servizi RMI", e);
         } catch (NotBoundException ex) {
-            ex.printStackTrace();
+            Log.error("Servizio RMI non registrato", ex);
         }
 
         // Chiude il canale del server socket, se aperto
@@ -792,7 +1278,14 @@ public class HotelierServer {
             try {
                 serverSocketChannel.close();
             } catch (IOException e) {
-                e.printStackTrace();
+                Log.error("Errore durante la chiusura del canale del server", e);
+            }
+        }
+
+        // Ferma i reactor e attende che chiudano i canali dei client
+        if (reactors != null) {
+            for (Reactor reactor : reactors) {
+                reactor.stop();
             }
         }
 
@@ -801,14 +1294,13 @@ public class HotelierServer {
             try {
                 selector.close();
             } catch (IOException e) {
-                e.printStackTrace();
+                Log.error("Errore durante la chiusura del selettore", e);
             }
         }
 
         // Interrompe i thread dedicati alla scrittura dei file e al calcolo del ranking
         userFileWriterThread.interrupt();
         hotelFileWriterThread.interrupt();
-        reviewFileWriterThread.interrupt();
         calculateRankingThread.interrupt();
 
         // Arresta immediatamente l'executor che gestisce i thread
@@ -817,11 +1309,28 @@ public class HotelierServer {
             // Attende la terminazione dei thread gestiti dall'executor entro 5 secondi
             executor.awaitTermination(5, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Log.warn("Attesa della terminazione dei task interrotta");
+        }
+
+        // Il thread dei checkpoint viene interrotto dopo i task, così l'ultimo checkpoint contiene le ultime recensioni inserite
+        // e il log delle recensioni viene chiuso solo quando nessun task vi scrive più
+        reviewFileWriterThread.interrupt();
+
+        // Attende che i thread di scrittura completino l'ultima scrittura e l'ultimo checkpoint prima di chiudere il log del server
+        try {
+            userFileWriterThread.join();
+            hotelFileWriterThread.join();
+            reviewFileWriterThread.join();
+        } catch (InterruptedException e) {
+            Log.warn("Attesa della terminazione dei thread di scrittura interrotta");
         }
 
         // Chiude il socket datagram
         datagramSocket.close();
+
+        // Scrive i messaggi di log ancora in coda
+        Log.info("Server terminato");
+        Log.shutdown();
     }
 
 
@@ -837,14 +1346,14 @@ public class HotelierServer {
 
         // Disesporta l'oggetto remoto associato al servizio di registrazione
         UnicastRemoteObject.unexportObject(registrationService, true);
-        System.out.println("Servizio di registrazione deregistrato con successo.");
+        Log.info("Servizio di registrazione deregistrato con successo.");
 
         // Deregistra il servizio di registrazione notifica dal registro RMI
         registryRMI.unbind("NOTIFICATION-SERVICE");
 
         // Disesporta l'oggetto remoto associato al servizio di notifica
         UnicastRemoteObject.unexportObject(notificationService, true);
-        System.out.println("Servizio di notifica deregistrato con successo.");
+        Log.info("Servizio di notifica deregistrato con successo.");
     }
 
 
@@ -883,17 +1392,78 @@ public class HotelierServer {
 
 
     /**
-     * Salva il JSON nel file specificato dal filepath.
+     * Salva il JSON nel file specificato dal filepath, scrivendolo in streaming senza costruire l'intero contenuto in memoria.
      *
-     * @param json Il contenuto da salvare
      * @param filePath percorso dove salvare il file
+     * @param body     scrittura del contenuto da salvare
+     * @return true se il file è stato scritto, false in caso di errore
      */
-    public static void saveJsonToFile(String json, String filePath) {
-        try (FileWriter writer = new FileWriter(filePath, false)) {  // false per sovrascrivere il file
-            writer.write(json + System.lineSeparator());
+    public static boolean saveJsonToFile(String filePath, JsonCodec.JsonBodyWriter body) {
+        try {
+            JsonCodec.writeFile(filePath, body);  // il file viene sovrascritto
+            return true;
         } catch (IOException e) {
-            System.err.println(e.getMessage());
-            e.printStackTrace();
+            Log.error("Errore durante la scrittura del file " + filePath, e);
+            return false;
+        }
+    }
+
+    /**
+     * Salva lo snapshot binario accanto al file JSON appena scritto. Un errore non impedisce di considerare salvati i dati,
+     * perché il file di riferimento è il JSON: lo snapshot non aggiornato viene riconosciuto e ignorato al caricamento.
+     *
+     * @param filePath percorso del file JSON già scritto
+     * @param snapshot scrittura dello snapshot
+     */
+    public static void saveSnapshot(String filePath, SnapshotWriter snapshot) {
+        try {
+            snapshot.write(filePath);
+        } catch (IOException e) {
+            Log.warn("Impossibile scrivere lo snapshot di {}: {}", filePath, e.getMessage());
+        }
+    }
+
+    /**
+     * Scrittura di uno snapshot binario a partire dal percorso del file JSON.
+     */
+    public interface SnapshotWriter {
+        void write(String jsonPath) throws IOException;
+    }
+
+    /**
+     * Legge gli utenti registrati dal file JSON.
+     *
+     * @param filePath percorso del file JSON
+     * @return la mappa degli utenti per username, null se il file è vuoto
+     * @throws IOException se si verifica un errore durante la lettura
+     */
+    public static ConcurrentHashMap<String, User> readUsersJson(String filePath) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
+
+            // Definisce il tipo della mappa deserializzata
+            Type type = new TypeToken<ConcurrentHashMap<String, User>>() {}.getType();
+
+            // Converte il contenuto del file JSON in una mappa temporanea
+            return JsonCodec.GSON.fromJson(reader, type);
+        }
+    }
+
+    /**
+     * Legge gli hotel dal file JSON.
+     *
+     * @param filePath percorso del file JSON
+     * @return la lista degli hotel, null se il file è vuoto
+     * @throws IOException se si verifica un errore durante la lettura
+     */
+    public static List<Hotel> readHotelsJson(String filePath) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
+
+            // Definizione del tipo di dato per la lista di hotel
+            Type hotelListType = new TypeToken<List<Hotel>>() {
+            }.getType();
+
+            // Conversione del contenuto JSON in una lista di oggetti Hotel
+            return JsonCodec.GSON.fromJson(reader, hotelListType);
         }
     }
 
@@ -901,6 +1471,8 @@ public class HotelierServer {
      * La classe LoadUsersTask implementa Runnable e si occupa di caricare gli utenti registrati
      * dal file dei regisrati in una ConcurrentHashMap. Questa classe è utile per inizializzare il sistema
      * con i dati degli utenti salvati precedentemente.
+     * Se accanto al file JSON c'è uno snapshot binario aggiornato viene caricato quello; altrimenti viene letto il JSON
+     * e lo snapshot viene riscritto, così il caricamento successivo non deve rileggere il JSON.
      */
     public class LoadUsersTask implements Runnable {
 
@@ -925,12 +1497,11 @@ public class HotelierServer {
          * Si occupa di verificare l'esistenza del file specificato,
          * di caricare i dati degli utenti registrati dal file e di popolare la mappa registredUserDB.
          * Se il file non esiste, viene creato un nuovo file vuoto.
+         *
+         * @throws UncheckedIOException Se il file non può essere creato o letto; l'avvio del server viene interrotto.
          */
         @Override
         public void run() {
-            // Crea un'istanza di Gson per la conversione da e verso JSON
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-
             // Crea un oggetto File per il percorso specificato
             File file = new File(System.getProperty("user.dir"), filePath);
 
@@ -939,25 +1510,38 @@ public class HotelierServer {
                 try {
                     file.createNewFile(); // Creazione del file se non esiste
                 } catch (IOException e) {
-                    e.printStackTrace(); // Stampa l'errore di creazione del file
+                    throw new UncheckedIOException("Impossibile creare il file degli utenti registrati", e);
                 }
             } else {
-                // Se il file esiste, legge gli utenti già registrati
-                try (BufferedReader reader = new BufferedReader(new FileReader(Paths.get(System.getProperty("user.dir"), filePath).toString()))) {
+                String jsonPath = file.getPath();
 
-                    // Definisce il tipo della mappa deserializzata
-                    Type type = new TypeToken<ConcurrentHashMap<String, User>>() {}.getType();
+                // Se lo snapshot binario corrisponde al file JSON, gli utenti vengono letti da quello
+                try {
+                    List<User> users = BinarySnapshot.readUsers(jsonPath);
+                    if (users != null) {
+                        for (User user : users) {
+                            registredUserDB.put(user.getUsername(), user);
+                        }
+                        Log.info("Caricati {} utenti registrati dallo snapshot binario", users.size());
+                        return;
+                    }
+                } catch (IOException e) {
+                    Log.warn("Snapshot degli utenti registrati non valido, caricamento dal file JSON: {}", e.getMessage());
+                }
 
-                    // Converte il contenuto del file JSON in una mappa temporanea
-                    ConcurrentHashMap<String, User> temp = gson.fromJson(reader, type);
+                // Se il file esiste, legge gli utenti già registrati
+                try {
+                    ConcurrentHashMap<String, User> temp = readUsersJson(jsonPath);
 
                     // Se la mappa temporanea non è null, sovrascrive registredUserDB
                     if (temp != null) {
                         registredUserDB.putAll(temp);
                     }
+                    Log.info("Caricati {} utenti registrati dal file JSON", registredUserDB.size());
+                    saveSnapshot(jsonPath, path -> BinarySnapshot.writeUsers(path, registredUserDB.values()));
 
                 } catch (IOException e) {
-                    System.err.println(e.getMessage());
+                    throw new UncheckedIOException("Errore durante il caricamento degli utenti registrati", e);
                 }
             }
         }
@@ -965,8 +1549,9 @@ public class HotelierServer {
 
     /**
      * La classe LoadHotelsTask implementa Runnable e si occupa di caricare gli hotel
-     * da il file degli hotel in una mappa HashMap organizzata per città e nome dell'hotel.
-     * Questa classe è utile per inizializzare il sistema con i dati degli hotel salvati precedentemente.
+     * da il file unico degli hotel in una mappa HashMap organizzata per città e nome dell'hotel,
+     * e di migrarli negli shard per città, da cui vengono caricati agli avvii successivi.
+     * Come per gli utenti, uno snapshot binario aggiornato viene preferito al file JSON, che resta il formato di riferimento.
      */
     public class LoadHotelsTask implements Runnable {
 
@@ -976,122 +1561,269 @@ public class HotelierServer {
         // Percorso del file JSON da cui caricare gli hotel
         private String filePath;
 
+        // Shard per città in cui migrare gli hotel
+        private HotelShards hotelShards;
+
         /**
          * Costruttore della classe LoadHotelsTask.
          *
-         * @param hotelDB  HashMap contenente le città e gli hotel associati.
-         * @param filePath Percorso del file JSON da cui caricare gli hotel.
+         * @param hotelDB     HashMap contenente le città e gli hotel associati.
+         * @param filePath    Percorso del file JSON da cui caricare gli hotel.
+         * @param hotelShards Shard per città in cui migrare gli hotel.
          */
-        public LoadHotelsTask(HashMap<String, HashMap<String, Hotel>> hotelDB, String filePath) {
+        public LoadHotelsTask(HashMap<String, HashMap<String, Hotel>> hotelDB, String filePath, HotelShards hotelShards) {
             this.hotelDB = hotelDB;
             this.filePath = filePath;
+            this.hotelShards = hotelShards;
         }
 
         /**
          * Questo metodo si occupa di verificare l'esistenza del file specificato,
-         * di caricare i dati degli hotel dal file e di popolare la mappa hotelDB.
-         * Se il file non esiste, viene creato un nuovo file vuoto.
+         * di caricare i dati degli hotel dal file e di popolare la mappa hotelDB, poi scrive uno shard per ogni città.
+         * Il file unico non viene modificato; se non esiste vengono creati gli shard senza hotel.
+         * Se il caricamento non riesce la migrazione non avviene, così al successivo avvio viene ripetuta.
+         *
+         * @throws UncheckedIOException Se il file non può essere letto o gli shard non possono essere scritti; l'avvio del server viene interrotto.
          */
         @Override
         public void run() {
 
             File file = new File(System.getProperty("user.dir"), filePath);
 
-            if (!file.exists()) {
-                try {
-                    file.createNewFile();
-                } catch (IOException e) {
-                    e.printStackTrace();
+            try {
+                if (file.exists()) {
+                    loadFile(file.getPath());
                 }
-            } else {
-                // Lettura del file JSON
-                try (BufferedReader reader = new BufferedReader(new FileReader(Paths.get(System.getProperty("user.dir"), filePath).toString()))) {
+            } catch (IOException e) {
+                throw new UncheckedIOException("Errore durante il caricamento degli hotel", e);
+            }
 
-                    // Definizione del tipo di dato per la lista di hotel
-                    Type hotelListType = new TypeToken<List<Hotel>>() {
-                    }.getType();
+            try {
+                hotelShards.migrate(hotelDB);
+                Log.info("Hotel di {} città migrati da {} nei file per città", hotelDB.size(), file.getName());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Errore durante la migrazione degli hotel nei file per città", e);
+            }
+        }
+
+        // Carica gli hotel dal file unico, preferendo lo snapshot binario se corrisponde al file JSON
+        private void loadFile(String jsonPath) throws IOException {
+            try {
+                List<Hotel> hotels = BinarySnapshot.readHotels(jsonPath);
+                if (hotels != null) {
+                    addHotels(hotelDB, hotels);
+                    Log.info("Caricati {} hotel dallo snapshot binario", hotels.size());
+                    return;
+                }
+            } catch (IOException e) {
+                Log.warn("Snapshot degli hotel non valido, caricamento dal file JSON: {}", e.getMessage());
+            }
 
-                    // Creazione di un'istanza Gson per la conversione da JSON a oggetti Java
-                    Gson gson = new GsonBuilder().setPrettyPrinting().create();
+            // Lettura del file JSON
+            List<Hotel> hotels = readHotelsJson(jsonPath);
+            if (hotels != null) {
+                addHotels(hotelDB, hotels);
+                Log.info("Caricati {} hotel dal file JSON", hotels.size());
+            }
+        }
+    }
 
-                    // Conversione del contenuto JSON in una lista di oggetti Hotel
-                    List<Hotel> hotels = gson.fromJson(reader, hotelListType);
+    /**
+     * La classe LoadHotelShardTask implementa Runnable e si occupa di caricare gli hotel di una città dal suo shard,
+     * preferendo lo snapshot binario se corrisponde al file JSON, e di aggiungerli alla mappa degli hotel.
+     * Gli shard vengono caricati in parallelo, un task per ogni città: l'aggiunta alla mappa è sincronizzata sulla mappa stessa.
+     */
+    public class LoadHotelShardTask implements Runnable {
 
-                    // Popolazione della mappa hotelDB
-                    for (Hotel hotel : hotels) {
-                        // Per ogni hotel, aggiungilo alla mappa interna associata alla città
-                        hotelDB.computeIfAbsent(hotel.getCity().toLowerCase(), k -> new HashMap<>())
-                                .put(hotel.getName().toLowerCase(), hotel);
-                    }
+        // Mappa contenente le città e gli hotel associati
+        private HashMap<String, HashMap<String, Hotel>> hotelDB;
+
+        // Percorso del file JSON dello shard
+        private Path shard;
+
+        /**
+         * Costruttore della classe LoadHotelShardTask.
+         *
+         * @param hotelDB HashMap contenente le città e gli hotel associati.
+         * @param shard   Percorso del file JSON dello shard.
+         */
+        public LoadHotelShardTask(HashMap<String, HashMap<String, Hotel>> hotelDB, Path shard) {
+            this.hotelDB = hotelDB;
+            this.shard = shard;
+        }
+
+        /**
+         * Carica gli hotel dello shard e li aggiunge alla mappa degli hotel.
+         *
+         * @throws UncheckedIOException Se il file JSON dello shard non può essere letto; l'avvio del server viene interrotto.
+         */
+        @Override
+        public void run() {
+            String jsonPath = shard.toString();
+            List<Hotel> hotels = null;
 
+            try {
+                hotels = BinarySnapshot.readHotels(jsonPath);
+            } catch (IOException e) {
+                Log.warn("Snapshot di {} non valido, caricamento dal file JSON: {}", shard.getFileName(), e.getMessage());
+            }
+
+            HashMap<String, HashMap<String, Hotel>> cityHotels = new HashMap<>();
+            if (hotels != null) {
+                addHotels(cityHotels, hotels);
+            } else {
+                try {
+                    hotels = readHotelsJson(jsonPath);
                 } catch (IOException e) {
-                   System.err.println(e.getMessage());
+                    throw new UncheckedIOException("Errore durante il caricamento degli hotel da " + shard.getFileName(), e);
+                }
+                if (hotels == null) {
+                    return;
                 }
+                addHotels(cityHotels, hotels);
+                saveSnapshot(jsonPath, path -> BinarySnapshot.writeHotels(path, cityHotels.values()));
             }
+            Log.debug("Caricati {} hotel da {}", hotels.size(), shard.getFileName());
+
+            synchronized (hotelDB) {
+                for (Map.Entry<String, HashMap<String, Hotel>> city : cityHotels.entrySet()) {
+                    hotelDB.computeIfAbsent(city.getKey(), k -> new HashMap<>()).putAll(city.getValue());
+                }
+            }
+        }
+    }
+
+    // Popolazione della mappa degli hotel: ogni hotel viene aggiunto alla mappa interna associata alla città
+    private static void addHotels(HashMap<String, HashMap<String, Hotel>> hotelDB, List<Hotel> hotels) {
+        for (Hotel hotel : hotels) {
+            hotelDB.computeIfAbsent(hotel.getCity().toLowerCase(), k -> new HashMap<>())
+                    .put(hotel.getName().toLowerCase(), hotel);
         }
     }
 
     /**
-     * La classe LoadReviewsTask implementa Runnable e si occupa di caricare le recensioni degli hotel
-     * dal file delle recensioni in una HashMap, dove ogni chiave rappresenta l'ID di un hotel e il valore è una lista di recensioni.
-     * Questa classe è utile per inizializzare il sistema con le recensioni salvate precedentemente.
+     * La classe LoadReviewsTask implementa Runnable e si occupa di ripristinare l'archivio delle recensioni degli hotel
+     * dall'ultimo checkpoint e di riapplicare le recensioni registrate nel log dopo il checkpoint.
+     * Al primo avvio, o dopo un checkpoint in JSON di una versione precedente del server, le recensioni vengono importate
+     * dal file JSON nell'archivio.
      */
     public class LoadReviewsTask implements Runnable {
 
-        // HashMap contenente le recensioni associate agli ID degli hotel
-        private HashMap<Integer, List<Review>> reviewsHotel;
+        // Percentuale del file tra due messaggi di avanzamento dell'importazione
+        private static final int PROGRESS_STEP = 10;
+
+        // Archivio delle recensioni degli hotel
+        private ReviewStore reviewStore;
 
         // Percorso del file JSON delle recensioni
         private String filePath;
 
+        // Log delle recensioni inserite dopo l'ultimo checkpoint
+        private ReviewLog reviewLog;
+
         /**
          * Costruttore della classe LoadReviewsTask.
          *
-         * @param reviewsHotel HashMap contenente le recensioni associate agli ID degli hotel
-         * @param filePath     Percorso del file JSON delle recensioni
+         * @param reviewStore  Archivio delle recensioni degli hotel
+         * @param filePath     Percorso del file JSON delle recensioni, importato finché il log non ha un checkpoint
+         * @param reviewLog    Log delle recensioni inserite dopo l'ultimo checkpoint
          */
-        public LoadReviewsTask(HashMap<Integer, List<Review>> reviewsHotel, String filePath) {
-            this.reviewsHotel = reviewsHotel;
+        public LoadReviewsTask(ReviewStore reviewStore, String filePath, ReviewLog reviewLog) {
+            this.reviewStore = reviewStore;
             this.filePath = filePath;
+            this.reviewLog = reviewLog;
         }
 
         /**
-         * Questo metodo si occupa di verificare l'esistenza del file specificato,
-         * di caricare i dati delle recensioni dal file e di popolare la mappa reviewsHotel.
-         * Se il file non esiste, viene creato un nuovo file vuoto.
+         * Ripristina l'archivio dall'ultimo checkpoint del log; se il checkpoint manca o contiene le recensioni in JSON,
+         * importa le recensioni dal JSON e richiede un nuovo checkpoint, così l'importazione avviene una sola volta.
+         * Poi aggiunge all'archivio le recensioni registrate nel log dopo il checkpoint.
+         * Se il file delle recensioni non esiste, viene creato un nuovo file vuoto.
+         *
+         * @throws UncheckedIOException Se le recensioni non possono essere caricate o il log non può essere recuperato;
+         *                              l'avvio del server viene interrotto, perché senza log le recensioni non possono essere salvate.
          */
         @Override
         public void run() {
-            File file = new File(System.getProperty("user.dir"), filePath);
+            try {
+                Path checkpoint = reviewLog.latestCheckpoint();
+                boolean imported = false;
+                if (checkpoint == null) {
+                    reviewStore.clear();
+                    imported = loadFile();
+                } else if (!reviewStore.restore(checkpoint)) {
+                    reviewStore.clear();
+                    imported = loadReviews(checkpoint.toFile());
+                }
 
-            // Se il file non esiste, lo crea
-            if (!file.exists()) {
-                try {
-                    file.createNewFile();
-                } catch (IOException e) {
-                   System.err.println(e.getMessage());
+                // Riapplica le recensioni inserite dopo il checkpoint
+                reviewLog.recover(reviewStore::append);
+                if (imported) {
+                    reviewLog.markDirty();
                 }
-            } else {
-                // Se il file esiste, legge le recensioni dal file JSON
-                try (BufferedReader reader = new BufferedReader(new FileReader(Paths.get(System.getProperty("user.dir"), filePath).toString()))) {
+            } catch (IOException e) {
+                throw new UncheckedIOException("Errore durante il recupero delle recensioni", e);
+            }
+        }
 
-                    Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        // Importa le recensioni dal file delle recensioni, creandolo se non esiste; restituisce true se ha importato recensioni
+        private boolean loadFile() throws IOException {
+            File file = new File(System.getProperty("user.dir"), filePath);
 
-                    // Definisce il tipo della HashMap
-                    Type type = new TypeToken<HashMap<Integer, List<Review>>>() {}.getType();
+            // Se il file non esiste, lo crea
+            if (!file.exists()) {
+                file.createNewFile();
+                return false;
+            }
+            return loadReviews(file);
+        }
 
-                    // Legge il contenuto del file e lo deserializza nella HashMap temporanea
-                    HashMap<Integer, List<Review>> temp = gson.fromJson(reader, type);
+        // Legge le recensioni da un file JSON e le aggiunge all'archivio; restituisce true se ha importato recensioni.
+        // Il file contiene un oggetto con l'array delle recensioni di ogni hotel: viene letto in streaming e ogni recensione
+        // viene scritta subito nell'archivio, per cui in memoria c'è una sola recensione alla volta, qualunque sia la dimensione del file
+        private boolean loadReviews(File file) throws IOException {
+            long length = file.length();
+            int imported = 0;
+            int hotels = 0;
+            int nextProgress = PROGRESS_STEP;
+
+            try (FileInputStream in = new FileInputStream(file);
+                 JsonReader reader = JsonCodec.GSON.newJsonReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)))) {
+
+                // Un file vuoto o che contiene null non ha recensioni da importare
+                if (length == 0 || reader.peek() == JsonToken.NULL) {
+                    return false;
+                }
 
-                    // Se la mappa temporanea non è vuota, la copia nella mappa reviewsHotel
-                    if (temp != null) {
-                        reviewsHotel.putAll(temp);
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    // L'ID dell'hotel è già contenuto in ogni recensione
+                    reader.nextName();
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                        continue;
                     }
 
-                } catch (IOException e) {
-                    System.err.println(e.getMessage());
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Review review = JsonCodec.GSON.fromJson(reader, Review.class);
+                        reviewStore.append(review);
+                        imported++;
+                    }
+                    reader.endArray();
+                    hotels++;
+
+                    // Avanzamento calcolato sui byte letti dal file, che il buffer del reader anticipa di qualche KB
+                    int percent = (int) (in.getChannel().position() * 100 / length);
+                    if (percent >= nextProgress && percent < 100) {
+                        Log.info("Importazione delle recensioni da {}: {}% ({} recensioni di {} hotel)", file.getName(), percent, imported, hotels);
+                        nextProgress = percent - percent % PROGRESS_STEP + PROGRESS_STEP;
+                    }
                 }
+                reader.endObject();
             }
+            Log.info("Importate {} recensioni di {} hotel da {}", imported, hotels, file.getName());
+            return imported > 0;
         }
     }
 
@@ -1119,8 +1851,8 @@ public class HotelierServer {
         // UUID del client, utilizzato per recuperare la chiave di decifratura
         private String uuid;
 
-        // Chiave di selezione associata al canale di comunicazione del client
-        private SelectionKey key;
+        // Richiesta del client a cui il task deve rispondere
+        private RequestContext request;
 
 
 
@@ -1133,16 +1865,16 @@ public class HotelierServer {
          * @param userName          username relativo
          * @param password          la password relativa
          * @param uuid              chiave per accedere alla ConcurrentHashMap delle chiavi di decifratura
-         * @param key               la SelectionKey associata al canale di comunicazione
+         * @param request           Richiesta del client a cui il task deve rispondere
          */
-        public LoginTask(ConcurrentHashMap<String, User> registredUserDB, ConcurrentHashMap<SocketChannel, String> socketUserMap, ConcurrentHashMap<String, String> decryptionKeys, String userName, byte[] password, String uuid, SelectionKey key) {
+        public LoginTask(ConcurrentHashMap<String, User> registredUserDB, ConcurrentHashMap<SocketChannel, String> socketUserMap, ConcurrentHashMap<String, String> decryptionKeys, String userName, byte[] password, String uuid, RequestContext request) {
             this.registredUserDB = registredUserDB;
             this.socketUserMap = socketUserMap;
             this.decryptionKeys = decryptionKeys;
             this.userName = userName;
             this.password = password;
             this.uuid = uuid;
-            this.key = key;
+            this.request = request;
         }
 
         // Metodo per verificare le credenziali di un utente
@@ -1165,32 +1897,32 @@ public class HotelierServer {
         public void run() {
 
             if (userName == null || password == null || userName.isEmpty() || password.length < 1) {
-                new Response(400, new Response.Message(null, "Input nullo")).writeResponse(key);
+                sendResponse(request, new Response(400, new Response.Message(null, "Input nullo")));
                 return;
             }
 
 
             // Verifica se l'utente è registrato
             if (!registredUserDB.containsKey(userName)) {
-                new Response(401, new Response.Message("", "Prima di effettuare il login devi registrarti")).writeResponse(key);
+                sendResponse(request, new Response(401, new Response.Message("", "Prima di effettuare il login devi registrarti")));
                 return;
             }
 
             // Verifica se le credenziali sono corrette
             if (!checkCredentials()) {
-                new Response(401, new Response.Message(null, "Le credenziali sono errate")).writeResponse(key);
+                sendResponse(request, new Response(401, new Response.Message(null, "Le credenziali sono errate")));
                 return;
             }
 
             // Ottiene il canale associato alla chiave
-            SocketChannel channel = (SocketChannel) key.channel();
+            SocketChannel channel = request.getChannel();
 
             // Verifica se l'utente è già loggato
             if ((socketUserMap.putIfAbsent(channel, userName)) != null) {
-                new Response(403, new Response.Message(null, "Hai già effettuato il login")).writeResponse(key);
+                sendResponse(request, new Response(403, new Response.Message(null, "Hai già effettuato il login")));
             } else {
                 // Manda risposta di login effettuato al client
-                new Response(200, new Response.Message(null, "Login effettuato")).writeResponse(key);
+                sendResponse(request, new Response(200, new Response.Message(null, "Login effettuato")));
             }
         }
     }
@@ -1208,20 +1940,20 @@ public class HotelierServer {
         //Nome utente che effettua il logout
         private String userName;
 
-        //Chiave di selezione associata al canale di comunicazione
-        private SelectionKey key;
+        // Richiesta del client a cui il task deve rispondere
+        private RequestContext request;
 
         /**
          * Costruttore della classe LogoutTask.
          *
          * @param socketUserMap ConcurrentHashMap contenente i canali di connessione associati agli utenti con una sessione di login attiva
          * @param userName      Nome utente che effettua il logout
-         * @param key           Chiave di selezione associata al canale di comunicazione
+         * @param request       Richiesta del client a cui il task deve rispondere
          */
-        public LogoutTask(ConcurrentHashMap<SocketChannel, String> socketUserMap, String userName, SelectionKey key) {
+        public LogoutTask(ConcurrentHashMap<SocketChannel, String> socketUserMap, String userName, RequestContext request) {
             this.socketUserMap = socketUserMap;
             this.userName = userName;
-            this.key = key;
+            this.request = request;
         }
 
         /**
@@ -1230,15 +1962,15 @@ public class HotelierServer {
         @Override
         public void run() {
             // Ottiene il canale di comunicazione associato alla chiave di selezione
-            SocketChannel channel = (SocketChannel) key.channel();
+            SocketChannel channel = request.getChannel();
 
             // Rimuove il canale di comunicazione dalla mappa delle sessioni attive
             if (socketUserMap.remove(channel, userName)) {
                 // Invia una risposta di successo al client
-                new Response(200, new Response.Message("", "Logout effettuato")).writeResponse(key);
+                sendResponse(request, new Response(200, new Response.Message("", "Logout effettuato")));
             } else {
                 // Invia una risposta di errore al client se l'utente non è loggato
-                new Response(401, new Response.Message("", "Utente non loggato")).writeResponse(key);
+                sendResponse(request, new Response(401, new Response.Message("", "Utente non loggato")));
             }
         }
     }
@@ -1246,21 +1978,31 @@ public class HotelierServer {
     // Task per rimuovere il canale dalla mappa
     private class RemoveChannelTask implements Runnable {
         private final ConcurrentHashMap<SocketChannel, String> socketUserMap;
+        private final ConcurrentHashMap<String, String> decryptionKeys;
         private final SocketChannel channel;
 
-        public RemoveChannelTask(ConcurrentHashMap<SocketChannel, String> socketUserMap, SocketChannel channel) {
+        // UUID della chiave di decifratura scambiata sulla connessione, null se il client non l'ha scambiata
+        private final String clientId;
+
+        public RemoveChannelTask(ConcurrentHashMap<SocketChannel, String> socketUserMap, ConcurrentHashMap<String, String> decryptionKeys, SocketChannel channel, String clientId) {
             this.socketUserMap = socketUserMap;
+            this.decryptionKeys = decryptionKeys;
             this.channel = channel;
+            this.clientId = clientId;
         }
 
         @Override
         public void run() {
+            if (clientId != null) {
+                decryptionKeys.remove(clientId);
+            }
+
             String userName = socketUserMap.remove(channel);
 
             if (userName != null) {
-                System.out.println("Rimosso il canale per l'utente: " + userName);
+                Log.info("Rimosso il canale per l'utente: {}", userName);
             } else {
-                System.out.println("Canale rimosso, ma nessun utente era associato.");
+                Log.info("Canale rimosso, ma nessun utente era associato.");
             }
         }
     }
@@ -1276,8 +2018,8 @@ public class HotelierServer {
         // Mappa contenente i canali di connessione associati agli utenti con una sessione di login attiva
         private ConcurrentHashMap<SocketChannel, String> socketUserMap;
 
-        // Chiave di selezione associata al canale di comunicazione
-        private SelectionKey key;
+        // Richiesta del client a cui il task deve rispondere
+        private RequestContext request;
 
         // Lock per gestire l'accesso concorrente agli utenti registrati
         private ReadWriteLock lockUser;
@@ -1287,13 +2029,13 @@ public class HotelierServer {
          *
          * @param registeredUserDB ConcurrentHashMap contenente gli utenti registrati
          * @param socketUserMap    ConcurrentHashMap contenente i canali di connessione associati agli utenti con una sessione di login attiva
-         * @param key              Chiave di selezione associata al canale di comunicazione
+         * @param request          Richiesta del client a cui il task deve rispondere
          * @param lockUser   ReadWriteLock per gestire l'accesso concorrente agli utenti registrati
          */
-        public ShowMyBadgeTask(ConcurrentHashMap<String, User> registeredUserDB, ConcurrentHashMap<SocketChannel, String> socketUserMap, SelectionKey key, ReadWriteLock lockUser) {
+        public ShowMyBadgeTask(ConcurrentHashMap<String, User> registeredUserDB, ConcurrentHashMap<SocketChannel, String> socketUserMap, RequestContext request, ReadWriteLock lockUser) {
             this.registeredUserDB = registeredUserDB;
             this.socketUserMap = socketUserMap;
-            this.key = key;
+            this.request = request;
             this.lockUser = lockUser;
         }
 
@@ -1305,12 +2047,12 @@ public class HotelierServer {
         public void run() {
 
             // Ottiene il canale di comunicazione associato alla chiave di selezione
-            SocketChannel channel = (SocketChannel) key.channel();
+            SocketChannel channel = request.getChannel();
 
             // Verifica se l'utente è loggato
             String userName = socketUserMap.get(channel);
             if (userName == null) {
-                new Response(401, new Response.Message(null, "Utente non loggato, per visulizzare il distintivo devi loggarti")).writeResponse(key);
+                sendResponse(request, new Response(401, new Response.Message(null, "Utente non loggato, per visulizzare il distintivo devi loggarti")));
             } else {
 
 
@@ -1318,9 +2060,9 @@ public class HotelierServer {
                 User user = registeredUserDB.get(userName);
                 try {
                     // Acquisisce il lock in lettura per accedere in mutua esclusione alla lettura del badge dell'utente
-                    System.out.println("ShowMyBadgesTask: tento di acquisire lock in lettura sugli utenti");
+                    Log.debug("ShowMyBadgesTask: tento di acquisire lock in lettura sugli utenti");
                     acquireReadLock(lockUser);
-                    System.out.println("ShowMyBadgesTask: acquisita la lock in lettura sugli utenti");
+                    Log.debug("ShowMyBadgesTask: acquisita la lock in lettura sugli utenti");
                     if (user != null) {
 
                         // Ottiene i distintivi dell'utente
@@ -1331,15 +2073,15 @@ public class HotelierServer {
                         }
 
                         // Invia una risposta di successo al client con i distintivi dell'utente
-                        new Response(200, new Response.Message(distintivo, "")).writeResponse(key);
+                        sendResponse(request, new Response(200, new Response.Message(distintivo, "")));
 
 
                     }else {
-                        new Response(401, new Response.Message(null, "Utente non registrato, per visulizzare il distintivo devi registrarti")).writeResponse(key);
+                        sendResponse(request, new Response(401, new Response.Message(null, "Utente non registrato, per visulizzare il distintivo devi registrarti")));
                     }
                 }finally {
                     // Rilascia la lock in lettura
-                    System.out.println("ShowMyBadgesTask: rilasciata lock in lettura sugli utenti");
+                    Log.debug("ShowMyBadgesTask: rilasciata lock in lettura sugli utenti");
                     releaseReadLock(lockUser);
                 }
 
@@ -1365,8 +2107,8 @@ public class HotelierServer {
         // Base g utilizzata nell'algoritmo Diffie-Hellman
         private int g;
 
-        // Chiave di selezione associata al canale di comunicazione
-        private SelectionKey key;
+        // Richiesta del client a cui il task deve rispondere
+        private RequestContext request;
 
         /**
          * Costruttore della classe DHKeyExchangeTask.
@@ -1375,14 +2117,14 @@ public class HotelierServer {
          * @param publicKeyC     Chiave pubblica del client
          * @param P_number       Numero primo P utilizzato nell'algoritmo Diffie-Hellman
          * @param g              Base g utilizzata nell'algoritmo Diffie-Hellman
-         * @param key            Chiave di selezione associata al canale di comunicazione
+         * @param request        Richiesta del client a cui il task deve rispondere
          */
-        public DHKeyExchangeTask(ConcurrentHashMap<String, String> decryptionKeys, String publicKeyC, int P_number, int g, SelectionKey key) {
+        public DHKeyExchangeTask(ConcurrentHashMap<String, String> decryptionKeys, String publicKeyC, int P_number, int g, RequestContext request) {
             this.decryptionKeys = decryptionKeys;
             this.publicKeyC = publicKeyC;
             this.P_number = P_number;
             this.g = g;
-            this.key = key;
+            this.request = request;
         }
 
         /**
@@ -1399,13 +2141,13 @@ public class HotelierServer {
             try {
                 s = SecurityClass.getSecret();
             } catch (IllegalStateException e) {
-                System.err.println(e.getMessage());
+                Log.warn("Segreto di sessione non disponibile: {}", e.getMessage());
                 return null;
             }
 
             // Calcolo della chiave di sessione come C^segreto mod P
             String securityKey = C.modPow(s, P).toString(2);
-            System.out.println("Chiave di sessione calcolata: " + securityKey);
+            Log.debug("Chiave di sessione calcolata: {}", securityKey);
             while (securityKey.length() < 16) {
                 securityKey += '0'; // Se la chiave è < 128 bit faccio padding
             }
@@ -1421,7 +2163,7 @@ public class HotelierServer {
         public void run() {
             Pair<String, String> keys = DHAlghoritm();
             if (keys == null || keys.getSecond() == null || keys.getFirst() == null) {
-                new Response(500, new Response.Message(null, "Scambio chiave non andato a buon fine")).writeResponse(key);
+                sendResponse(request, new Response(500, new Response.Message(null, "Scambio chiave non andato a buon fine")));
                 return;
             }
 
@@ -1430,9 +2172,23 @@ public class HotelierServer {
                 clientId = UUID.randomUUID().toString();
             } while (decryptionKeys.putIfAbsent(clientId, keys.getFirst()) != null);
 
-            new Response(200, new Response.Message(new Pair<>(keys.getSecond(), clientId), "UUID associato alla tua chiave di cifratura")).writeResponse(key);
+            // Associa la chiave alla connessione, così viene rimossa quando il client si disconnette;
+            // una chiave scambiata in precedenza sulla stessa connessione non serve più
+            ClientConnection connection = request.getConnection();
+            String previousClientId = connection.getClientId();
+            connection.setClientId(clientId);
+            if (previousClientId != null) {
+                decryptionKeys.remove(previousClientId);
+            }
+            if (!request.getChannel().isOpen()) {
+                // Il client si è disconnesso durante lo scambio
+                decryptionKeys.remove(clientId);
+                return;
+            }
 
-            System.out.println("Registrata nuova chiave di decifratura");
+            sendResponse(request, new Response(200, new Response.Message(new Pair<>(keys.getSecond(), clientId), "UUID associato alla tua chiave di cifratura")));
+
+            Log.debug("Registrata nuova chiave di decifratura");
         }
     }
 
@@ -1441,12 +2197,15 @@ public class HotelierServer {
      * WriteRegistrationToFileTask è una classe che implementa Runnable e si occupa della scrittura periodica
      * dei dati degli utenti registrati su un file. La classe garantisce che l'accesso concorrente ai dati
      * degli utenti sia sicuro utilizzando una lock in lettura. Gli utenti vengono salvati in formato JSON,
-     * facilitando la loro persistenza e successivo recupero.
+     * facilitando la loro persistenza e successivo recupero, e accanto al JSON in uno snapshot binario caricato più velocemente all'avvio.
      */
     public class WriteRegistrationToFileTask implements Runnable {
         // Mappa contenente gli utenti registrati
         private ConcurrentHashMap<String, User> registredUserDB;
 
+        // Versione degli utenti registrati, per saltare la scrittura se non sono cambiati
+        private DataVersion userVersion;
+
         // Timeout per il thread di scrittura
         private long timeout;
 
@@ -1460,12 +2219,14 @@ public class HotelierServer {
          * Costruttore della classe WriteRegistrationToFileTask.
          *
          * @param registredUserDB   ConcurrentHashMap contenente gli utenti registrati
+         * @param userVersion       Versione degli utenti registrati
          * @param timeout           Timeout per il thread di scrittura
          * @param filePath          Percorso del file su cui scrivere gli utenti
          * @param lockUser          ReadWriteLock per gestire l'accesso concorrente agli utenti registrati
          */
-        public WriteRegistrationToFileTask(ConcurrentHashMap<String, User> registredUserDB, long timeout, String filePath, ReadWriteLock lockUser) {
+        public WriteRegistrationToFileTask(ConcurrentHashMap<String, User> registredUserDB, DataVersion userVersion, long timeout, String filePath, ReadWriteLock lockUser) {
             this.registredUserDB = registredUserDB;
+            this.userVersion = userVersion;
             this.timeout = timeout;
             this.filePath = filePath;
             this.lockUser = lockUser;
@@ -1475,7 +2236,8 @@ public class HotelierServer {
         /**
          * Metodo run che viene eseguito quando il thread viene avviato.
          * Questo metodo periodicamente acquisisce una lock in lettura sugli utenti registrati,
-         * converte la mappa degli utenti in formato JSON e la salva sul file degli utenti registrati.
+         * converte la mappa degli utenti in formato JSON e la salva sul file degli utenti registrati,
+         * se dall'ultima scrittura riuscita gli utenti sono cambiati.
          * Dopo ogni scrittura, il thread attende per un intervallo di tempo specificato
          * prima di ripetere l'operazione.
          */
@@ -1488,37 +2250,38 @@ public class HotelierServer {
                 try {
                     if (Thread.interrupted()){
                         if (!lastTime){
-                            System.out.println("Prima di chiudere il programma eseguo l'ultima scrittura sul file dei registrati");
+                            Log.info("Prima di chiudere il programma eseguo l'ultima scrittura sul file dei registrati");
                             lastTime= true;
                         }
                     }
-                    System.out.println("WriteRegistrationToFileTask: tento di acquisire lock in lettura sui registrati");
+                    Log.debug("WriteRegistrationToFileTask: tento di acquisire lock in lettura sui registrati");
                     acquireReadLock(lockUser);
-                    System.out.println("WriteRegistrationToFileTask: acquisita lock in lettura sui registrati");
-                    Gson gson = new GsonBuilder().setPrettyPrinting().create();
-
-                    // Converte l'oggetto JSON aggiornato in una stringa
-                    String json = gson.toJson(registredUserDB);
-
-                    // Scrive l'oggetto JSON aggiornato nel file
-                    saveJsonToFile(json, filePath);
-                    System.out.println("Aggiornato file utenti");
+                    Log.debug("WriteRegistrationToFileTask: acquisita lock in lettura sui registrati");
+                    // Scrive gli utenti nel file solo se sono cambiati dall'ultima scrittura riuscita
+                    long version = userVersion.get();
+                    if (userVersion.isSaved(version)) {
+                        Log.debug("Utenti invariati, scrittura del file saltata");
+                    } else if (saveJsonToFile(filePath, writer -> JsonCodec.PRETTY_GSON.toJson(registredUserDB, registredUserDB.getClass(), writer))) {
+                        saveSnapshot(filePath, path -> BinarySnapshot.writeUsers(path, registredUserDB.values()));
+                        userVersion.markSaved(version);
+                        Log.info("Aggiornato file utenti");
+                    }
                 } finally {
                     releaseReadLock(lockUser);
-                    System.out.println("WriteRegistrationToFileTask: rilasciata lock in lettura sui registrati");
+                    Log.debug("WriteRegistrationToFileTask: rilasciata lock in lettura sui registrati");
 
                 }
                 if (lastTime) break;
                 try {
                     Thread.sleep(timeout);
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    Log.debug("Attesa della scrittura dei registrati interrotta");
                     break;
 
                 }
             }
 
-            System.out.println("Thread che scrive i registrati sul disco terminato");
+            Log.info("Thread che scrive i registrati sul disco terminato");
         }
     }
 
@@ -1539,8 +2302,8 @@ public class HotelierServer {
         // Città in cui cercare l'hotel
         private String city;
 
-        // Chiave di selezione associata al canale di comunicazione
-        private SelectionKey key;
+        // Richiesta del client a cui il task deve rispondere
+        private RequestContext request;
 
         // Lock per gestire l'accesso concorrente agli hotel
         private ReadWriteLock lockHotel;
@@ -1555,11 +2318,11 @@ public class HotelierServer {
          * @param city      Città in cui cercare l'hotel
          * @param lockHotel Lock per gestire l'accesso concorrente agli hotel
          */
-        public SearchHotelTask(HashMap<String, HashMap<String, Hotel>> hotelDB, String nameHotel, String city, SelectionKey key, ReadWriteLock lockHotel) {
+        public SearchHotelTask(HashMap<String, HashMap<String, Hotel>> hotelDB, String nameHotel, String city, RequestContext request, ReadWriteLock lockHotel) {
             this.hotelDB = hotelDB;
             this.nameHotel = nameHotel;
             this.city = city;
-            this.key = key;
+            this.request = request;
             this.lockHotel = lockHotel;
         }
 
@@ -1572,7 +2335,7 @@ public class HotelierServer {
 
             // Input validation
             if (nameHotel == null || city == null || nameHotel.isEmpty() || city.isEmpty()) {
-                new Response(400, new Response.Message(null, "Input nullo")).writeResponse(key);
+                sendResponse(request, new Response(400, new Response.Message(null, "Input nullo")));
                 return;
             }
 
@@ -1588,25 +2351,25 @@ public class HotelierServer {
                         // Acquisisco un lock in lettura per garantire la mutua esclusione sull'hotel,
                         // in modo che nessun altro thread possa modificare le variabili d'istanza dell'oggetto quando viene inviato al client.
 
-                        System.out.println("SearchHotelTask: tento di acquisire la lock in lettura sugli hotel");
+                        Log.debug("SearchHotelTask: tento di acquisire la lock in lettura sugli hotel");
                         acquireReadLock(lockHotel);
-                        System.out.println("SearchHotelTask: acquisita la lock in lettura sugli hotel");
+                        Log.debug("SearchHotelTask: acquisita la lock in lettura sugli hotel");
 
 
                         if (hotel != null) {
                             // Hotel trovato, invia le info sull'hotel al client
-                            new Response(200, new Response.Message(hotel, "Hotel trovato")).writeResponse(key);
+                            sendResponse(request, new Response(200, new Response.Message(hotel, "Hotel trovato")));
                         } else {
                             // Hotel non trovato
-                            new Response(404, new Response.Message(null, "Hotel non trovato")).writeResponse(key);
+                            sendResponse(request, new Response(404, new Response.Message(null, "Hotel non trovato")));
                         }
                     }finally {
                         releaseReadLock(lockHotel);
-                        System.out.println("SearchHotelTask: rilasciata la lock in lettura sugli hotel");
+                        Log.debug("SearchHotelTask: rilasciata la lock in lettura sugli hotel");
                     }
                 } else {
                     // Città non trovata
-                    new Response(404, new Response.Message(null, "Non ci sono hotel nella citta cercata")).writeResponse(key);
+                    sendResponse(request, new Response(404, new Response.Message(null, "Non ci sono hotel nella citta cercata")));
                 }
 
 
@@ -1630,8 +2393,8 @@ public class HotelierServer {
         // Lock per gestire l'accesso concorrente alla classifica degli hotel
         private ReadWriteLock lockRanking;
 
-        // Chiave di selezione per il canale di comunicazione con il client
-        private SelectionKey key;
+        // Richiesta del client a cui il task deve rispondere
+        private RequestContext request;
 
         /**
          * Costruttore della classe SearchAllHotelInCity
@@ -1639,13 +2402,13 @@ public class HotelierServer {
          * @param rankingList HashMap contenente la classifica degli hotel organizzata per città
          * @param city        La città per cui effettuare la ricerca degli hotel
          * @param lockRanking Lock per garantire accesso concorrente sicuro alla classifica degli hotel
-         * @param key         SelectionKey associata al canale di comunicazione con il client
+         * @param request     Richiesta del client a cui il task deve rispondere
          */
-        public SearchAllHotelInCity(HashMap<String, List<Hotel>> rankingList, String city, ReadWriteLock lockRanking, SelectionKey key) {
+        public SearchAllHotelInCity(HashMap<String, List<Hotel>> rankingList, String city, ReadWriteLock lockRanking, RequestContext request) {
             this.rankingList = rankingList;
             this.city = city;
             this.lockRanking = lockRanking;
-            this.key = key;
+            this.request = request;
         }
 
         /**
@@ -1657,15 +2420,15 @@ public class HotelierServer {
         public void run() {
             // Verifica se il nome della città è valido
             if(city == null || city.isEmpty()){
-                new Response(400, new Response.Message(null, "Input non valido")).writeResponse(key);
+                sendResponse(request, new Response(400, new Response.Message(null, "Input non valido")));
                 return;
             }
 
             try {
                 // Acquisisce la lock in lettura per garantire un accesso thread-safe alla classifica degli hotel
-                System.out.println("SearchAllHotelInCity: tento di acquisire lock in lettura sulla classifica");
+                Log.debug("SearchAllHotelInCity: tento di acquisire lock in lettura sulla classifica");
                 acquireReadLock(lockRanking);
-                System.out.println("SearchAllHotelInCity: acquisita lock in lettura sulla classifica");
+                Log.debug("SearchAllHotelInCity: acquisita lock in lettura sulla classifica");
 
                 // Recupera la lista degli hotel per la città specificata dalla classifica
                 List<Hotel> rankingCity = rankingList.get(city);
@@ -1673,28 +2436,182 @@ public class HotelierServer {
                 // Se la lista degli hotel esiste (città trovata nella classifica)
                 if (rankingCity != null){
                     // Invia una risposta al client con la lista degli hotel trovati e un messaggio di successo
-                    new Response(200, new Response.Message(rankingCity, "Classifica degli hotel per la città di " + city + " recuperata con successo")).writeResponse(key);
+                    sendResponse(request, new Response(200, new Response.Message(rankingCity, "Classifica degli hotel per la città di " + city + " recuperata con successo")));
                 } else {
                     // Se la città non è presente nella classifica, invia una risposta con un messaggio di errore
-                    new Response(404, new Response.Message(null, "Non ci sono hotel nella città cercata")).writeResponse(key);
+                    sendResponse(request, new Response(404, new Response.Message(null, "Non ci sono hotel nella città cercata")));
                 }
             } finally {
                 // Rilascia la lock in lettura dopo aver completato l'operazione
                 releaseReadLock(lockRanking);
-                System.out.println("SearchAllHotelInCity: rilasciata lock in lettura sulla classifica");
+                Log.debug("SearchAllHotelInCity: rilasciata lock in lettura sulla classifica");
             }
         }
 
     }
 
 
+    /**
+     * Richiesta contenuta in un batch, con la risposta calcolata dal BatchTask.
+     */
+    private static class BatchItem {
+
+        // Codice dell'operazione richiesta
+        private final byte opcode;
+
+        // Nome dell'hotel da cercare, solo per SearchHotel
+        private final String nameHotel;
+
+        // Città in cui cercare
+        private final String city;
+
+        // Risposta alla richiesta, null finché non viene eseguita
+        private Response response;
+
+        private BatchItem(byte opcode, String nameHotel, String city) {
+            this.opcode = opcode;
+            this.nameHotel = nameHotel;
+            this.city = city;
+        }
+    }
+
+    /**
+     * Questa classe implementa un task Runnable che esegue le ricerche di un batch e invia al client
+     * un'unica risposta contenente, nello stesso ordine, le risposte a tutte le ricerche.
+     * Ogni lock viene acquisita una sola volta per l'intero batch invece che una volta per ricerca,
+     * e solo se il batch contiene ricerche che la richiedono.
+     */
+    public class BatchTask implements Runnable {
+
+        // Mappa contenente le città e gli hotel associati
+        private HashMap<String, HashMap<String, Hotel>> hotelDB;
+
+        // Classifica degli hotel, organizzata per città
+        private HashMap<String, List<Hotel>> rankingList;
+
+        // Richieste del batch
+        private BatchItem[] items;
+
+        // Richiesta del client a cui il task deve rispondere
+        private RequestContext request;
+
+        // Lock per gestire l'accesso concorrente agli hotel
+        private ReadWriteLock lockHotel;
+
+        // Lock per gestire l'accesso concorrente alla classifica degli hotel
+        private ReadWriteLock lockRanking;
+
+        /**
+         * Costruttore della classe BatchTask.
+         *
+         * @param hotelDB     HashMap contenente le città e gli hotel associati
+         * @param rankingList HashMap contenente la classifica degli hotel organizzata per città
+         * @param items       Le richieste del batch
+         * @param request     Richiesta del client a cui il task deve rispondere
+         * @param lockHotel   Lock per gestire l'accesso concorrente agli hotel
+         * @param lockRanking Lock per gestire l'accesso concorrente alla classifica degli hotel
+         */
+        public BatchTask(HashMap<String, HashMap<String, Hotel>> hotelDB, HashMap<String, List<Hotel>> rankingList, BatchItem[] items, RequestContext request, ReadWriteLock lockHotel, ReadWriteLock lockRanking) {
+            this.hotelDB = hotelDB;
+            this.rankingList = rankingList;
+            this.items = items;
+            this.request = request;
+            this.lockHotel = lockHotel;
+            this.lockRanking = lockRanking;
+        }
+
+        @Override
+        public void run() {
+            boolean searchHotels = hasPending(BinaryProtocol.OP_SEARCH_HOTEL);
+            boolean searchRankings = hasPending(BinaryProtocol.OP_SEARCH_ALL_HOTELS);
+
+            // Le lock vengono acquisite nello stesso ordine del calcolo del ranking (hotel, poi classifica)
+            // e restano acquisite fino all'invio, in modo che gli hotel non vengano modificati mentre la risposta viene codificata
+            try {
+                if (searchHotels) {
+                    Log.debug("BatchTask: tento di acquisire la lock in lettura sugli hotel");
+                    acquireReadLock(lockHotel);
+                    Log.debug("BatchTask: acquisita la lock in lettura sugli hotel");
+                }
+                try {
+                    if (searchRankings) {
+                        Log.debug("BatchTask: tento di acquisire lock in lettura sulla classifica");
+                        acquireReadLock(lockRanking);
+                        Log.debug("BatchTask: acquisita lock in lettura sulla classifica");
+                    }
+
+                    Response[] responses = new Response[items.length];
+                    for (int i = 0; i < items.length; i++) {
+                        BatchItem item = items[i];
+                        if (item.response == null) {
+                            item.response = item.opcode == BinaryProtocol.OP_SEARCH_HOTEL ? searchHotel(item.nameHotel, item.city) : searchAllHotels(item.city);
+                        }
+                        responses[i] = item.response;
+                    }
+                    sendResponse(request, new Response(200, new Response.Message(responses, "Batch di " + items.length + " richieste eseguito")));
+                } finally {
+                    if (searchRankings) {
+                        releaseReadLock(lockRanking);
+                        Log.debug("BatchTask: rilasciata lock in lettura sulla classifica");
+                    }
+                }
+            } finally {
+                if (searchHotels) {
+                    releaseReadLock(lockHotel);
+                    Log.debug("BatchTask: rilasciata la lock in lettura sugli hotel");
+                }
+            }
+        }
+
+        // Indica se il batch contiene richieste dell'operazione indicata ancora da eseguire
+        private boolean hasPending(byte opcode) {
+            for (BatchItem item : items) {
+                if (item.response == null && item.opcode == opcode) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Cerca un hotel, come SearchHotelTask; deve essere invocato con la lock degli hotel acquisita
+        private Response searchHotel(String nameHotel, String city) {
+            if (nameHotel == null || city == null || nameHotel.isEmpty() || city.isEmpty()) {
+                return new Response(400, new Response.Message(null, "Input nullo"));
+            }
+            HashMap<String, Hotel> hotelsInCity = hotelDB.get(city);
+            if (hotelsInCity == null) {
+                return new Response(404, new Response.Message(null, "Non ci sono hotel nella citta cercata"));
+            }
+            Hotel hotel = hotelsInCity.get(nameHotel);
+            if (hotel == null) {
+                return new Response(404, new Response.Message(null, "Hotel non trovato"));
+            }
+            return new Response(200, new Response.Message(hotel, "Hotel trovato"));
+        }
+
+        // Cerca la classifica di una città, come SearchAllHotelInCity; deve essere invocato con la lock della classifica acquisita
+        private Response searchAllHotels(String city) {
+            if (city == null || city.isEmpty()) {
+                return new Response(400, new Response.Message(null, "Input non valido"));
+            }
+            List<Hotel> rankingCity = rankingList.get(city);
+            if (rankingCity == null) {
+                return new Response(404, new Response.Message(null, "Non ci sono hotel nella città cercata"));
+            }
+            return new Response(200, new Response.Message(rankingCity, "Classifica degli hotel per la città di " + city + " recuperata con successo"));
+        }
+    }
+
     /**
      * Classe InsertReviewTask che implementa Runnable per gestire l'inserimento di una recensione.
      */
     public class InsertReviewTask implements Runnable {
 
-        // HashMap contenente le recensioni associate agli ID degli hotel
-        private HashMap<Integer, List<Review>> reviewsHotel;
+        // Archivio delle recensioni degli hotel
+        private ReviewStore reviewStore;
+
+        // Log in cui viene registrata la recensione aggiunta all'archivio
+        private ReviewLog reviewLog;
 
         // ConcurrentHashMap per tenere traccia degli utenti collegati ai loro canali Socket
         private ConcurrentHashMap<SocketChannel, String> socketUserMap;
@@ -1705,6 +2622,9 @@ public class HotelierServer {
         // ConcurrentHashMap contenente gli utenti registrati
         private ConcurrentHashMap<String, User> registredUserDB;
 
+        // Versione degli utenti registrati, incrementata quando cambia il numero di recensioni dell'utente
+        private DataVersion userVersion;
+
         // Nome dell'hotel per cui inserire la recensione
         private String nameHotel;
 
@@ -1717,8 +2637,8 @@ public class HotelierServer {
         // Array dei punteggi specifici assegnati dall'utente per varie categorie
         private int[] singleScores;
 
-        // Chiave di selezione associata al canale di comunicazione
-        private SelectionKey key;
+        // Richiesta del client a cui il task deve rispondere
+        private RequestContext request;
 
         // Lock per gestire l'accesso concorrente alle recensioni  degli hotel
         private ReadWriteLock lockReviews;
@@ -1729,28 +2649,32 @@ public class HotelierServer {
         /**
          * Costruttore della classe InsertReviewTask.
          *
-         * @param reviewsHotel      HashMap contenente le recensioni associate agli ID degli hotel
+         * @param reviewStore       Archivio delle recensioni degli hotel
+         * @param reviewLog         Log in cui viene registrata la recensione aggiunta all'archivio
          * @param socketUserMap     ConcurrentHashMap concorrente per tenere traccia degli utenti collegati ai loro canali Socket
          * @param hotelDB           Database degli hotel, organizzato per città e nome dell'hotel
          * @param registredUserDB   ConcurrentHashMap contenente gli utenti registrati
+         * @param userVersion       Versione degli utenti registrati
          * @param nameHotel         Nome dell'hotel per cui inserire la recensione
          * @param city              Città in cui si trova l'hotel
          * @param globalScore       Punteggio globale assegnato dall'utente
          * @param singleScores      Array dei punteggi specifici assegnati dall'utente per varie categorie
-         * @param key               Chiave di selezione associata al canale di comunicazione
+         * @param request           Richiesta del client a cui il task deve rispondere
          * @param lockReviews       Lock per gestire l'accesso concorrente alle recensioni degli hotel
          * @param lockUser          Lock per gestire l'accesso concorrente agli utenti registrati
          */
-        public InsertReviewTask(HashMap<Integer, List<Review>> reviewsHotel, ConcurrentHashMap<SocketChannel, String> socketUserMap, HashMap<String, HashMap<String, Hotel>> hotelDB, ConcurrentHashMap<String, User> registredUserDB, String nameHotel, String city, int globalScore, int[] singleScores, SelectionKey key, ReadWriteLock lockReviews, ReadWriteLock lockUser) {
-            this.reviewsHotel = reviewsHotel;
+        public InsertReviewTask(ReviewStore reviewStore, ReviewLog reviewLog, ConcurrentHashMap<SocketChannel, String> socketUserMap, HashMap<String, HashMap<String, Hotel>> hotelDB, ConcurrentHashMap<String, User> registredUserDB, DataVersion userVersion, String nameHotel, String city, int globalScore, int[] singleScores, RequestContext request, ReadWriteLock lockReviews, ReadWriteLock lockUser) {
+            this.reviewStore = reviewStore;
+            this.reviewLog = reviewLog;
             this.socketUserMap = socketUserMap;
             this.hotelDB = hotelDB;
             this.registredUserDB = registredUserDB;
+            this.userVersion = userVersion;
             this.nameHotel = nameHotel;
             this.city = city;
             this.globalScore = globalScore;
             this.singleScores = singleScores;
-            this.key = key;
+            this.request = request;
             this.lockReviews = lockReviews;
             this.lockUser = lockUser;
         }
@@ -1762,26 +2686,26 @@ public class HotelierServer {
         @Override
         public void run() {
             // Validazione dell'input
-            if (nameHotel == null || nameHotel.isEmpty() || city == null || city.isEmpty() || singleScores == null)  {
-                new Response(400, new Response.Message(null, "Input non valido")).writeResponse(key);
+            if (nameHotel == null || nameHotel.isEmpty() || city == null || city.isEmpty() || singleScores == null || singleScores.length != Review.NUM_SCORES)  {
+                sendResponse(request, new Response(400, new Response.Message(null, "Input non valido")));
                 return;
             }
             if (globalScore < 0 || globalScore > 5) {
-                new Response(400, new Response.Message(null, "GlobalScore deve essere tra 0 e 5")).writeResponse(key);
+                sendResponse(request, new Response(400, new Response.Message(null, "GlobalScore deve essere tra 0 e 5")));
                 return;
             }
             for (int score : singleScores) {
                 if (score < 0 || score > 5) {
-                    new Response(400, new Response.Message(null, "SingleScores deve essere tra 0 e 5")).writeResponse(key);
+                    sendResponse(request, new Response(400, new Response.Message(null, "SingleScores deve essere tra 0 e 5")));
                     return;
                 }
             }
 
             // Recupera il canale di comunicazione e il nome utente associato
-            SocketChannel channel = (SocketChannel) key.channel();
+            SocketChannel channel = request.getChannel();
             String username = socketUserMap.get(channel);
             if (username == null) {
-                new Response(401, new Response.Message(null, "Prima di inserire una recensione devi loggarti")).writeResponse(key);
+                sendResponse(request, new Response(401, new Response.Message(null, "Prima di inserire una recensione devi loggarti")));
             } else {
                 // Verifica se la città esiste nel database
                 HashMap<String, Hotel> hotelsInCity = hotelDB.get(city);
@@ -1795,23 +2719,46 @@ public class HotelierServer {
 
                         // Crea una nuova recensione con i dettagli forniti
                         Review review = new Review(username, hotel.getId(), nameHotel, globalScore, todayDate, new Categories(singleScores[0], singleScores[1], singleScores[2], singleScores[3]));
-
+                        CompletableFuture<Void> commit;
+                        long record;
                         try {
                             // Acquisisce il lock in scrittura per garantire un aggiornamento consistenete
-                            System.out.println("InsertReviewTask: tento di acquisire la lock in scrittura sulle recensioni");
+                            Log.debug("InsertReviewTask: tento di acquisire la lock in scrittura sulle recensioni");
                             acquireWriteLock(lockReviews);
-                            System.out.println("InsertReviewTask: acquisita la lock in scrittura sulle recensioni");
-
-                            // Recupera la lista delle recensioni associate all'hotel specificato
-                            List<Review> reviewsOfHotel = reviewsHotel.computeIfAbsent(hotel.getId(), k -> new ArrayList<>());
-
-                            // Aggiunge la nuova recensione alla lista delle recensioni dell'hotel
-                            reviewsOfHotel.add(review);
-                        }finally {
+                            Log.debug("InsertReviewTask: acquisita la lock in scrittura sulle recensioni");
+
+                            // Aggiunge la recensione all'archivio
+                            record = reviewStore.append(review);
+
+                            // Richiede la scrittura della recensione nel log, nello stesso ordine degli inserimenti
+                            commit = reviewLog.append(review);
+                        } catch (IOException e) {
+                            // La recensione non è stata aggiunta all'archivio né al log
+                            Log.error("Impossibile aggiungere la recensione all'archivio", e);
+                            sendResponse(request, new Response(500, new Response.Message(null, "Impossibile salvare la recensione, riprovare più tardi")));
+                            return;
+                        } finally {
                             // Rilascia il lock in scrittura
                             releaseWriteLock(lockReviews);
-                            System.out.println("InsertReviewTask: rilascio la lock in scrittura sulle recensioni");
+                            Log.debug("InsertReviewTask: rilascio la lock in scrittura sulle recensioni");
+
+                        }
 
+                        // Attende, senza lock, che la recensione sia sul disco insieme a quelle arrivate nello stesso intervallo.
+                        // Se la scrittura fallisce la recensione viene tolta dall'archivio, così non entra nel ranking
+                        // né nel checkpoint successivo, e al client viene risposto che non è stata salvata
+                        try {
+                            commit.get();
+                        } catch (ExecutionException e) {
+                            Log.error("Impossibile registrare la recensione nel log", e.getCause());
+                            removeReview(record);
+                            sendResponse(request, new Response(500, new Response.Message(null, "Impossibile salvare la recensione, riprovare più tardi")));
+                            return;
+                        } catch (InterruptedException e) {
+                            // La conferma potrebbe ancora arrivare: la recensione resta nell'archivio, ma non viene confermata al client
+                            Thread.currentThread().interrupt();
+                            sendResponse(request, new Response(500, new Response.Message(null, "Impossibile salvare la recensione, riprovare più tardi")));
+                            return;
                         }
 
 
@@ -1820,38 +2767,52 @@ public class HotelierServer {
 
                            acquireWriteLock(lockUser);
                            user.incrementNumReview();
+                           userVersion.markModified();
                        }finally {
                            releaseWriteLock(lockUser);
                        }
 
 
 
-                        new Response(200, new Response.Message(null, "Recensione aggiunta con successo")).writeResponse(key);
+                        sendResponse(request, new Response(200, new Response.Message(null, "Recensione aggiunta con successo")));
                     } else {
                         // Hotel non trovato
-                        new Response(404, new Response.Message(null, "Hotel non trovato")).writeResponse(key);
+                        sendResponse(request, new Response(404, new Response.Message(null, "Hotel non trovato")));
                     }
                 } else {
                     // Città non trovata
-                    new Response(404, new Response.Message(null, "Non ci sono hotel nella città cercata")).writeResponse(key);
+                    sendResponse(request, new Response(404, new Response.Message(null, "Non ci sono hotel nella città cercata")));
                 }
             }
         }
+
+        // Toglie dall'archivio la recensione non registrata nel log; se nel frattempo è stato scritto un checkpoint che la contiene,
+        // il checkpoint successivo viene scritto comunque
+        private void removeReview(long record) {
+            try {
+                acquireWriteLock(lockReviews);
+                reviewStore.remove(record);
+                reviewLog.markDirty();
+            } finally {
+                releaseWriteLock(lockReviews);
+            }
+        }
     }
 
     /**
      * WriteHotelsToFileTask è una classe che implementa Runnable e si occupa della scrittura periodica
-     * dei dati degli hotel su un file. La classe garantisce che l'accesso concorrente ai dati degli hotel
+     * dei dati degli hotel su file, uno per ogni città. La classe garantisce che l'accesso concorrente ai dati degli hotel
      * sia sicuro utilizzando una lock in lettura. Gli hotel vengono salvati in formato JSON, facilitando
-     * la loro persistenza e successivo recupero.
+     * la loro persistenza e successivo recupero, e accanto al JSON in uno snapshot binario caricato più velocemente all'avvio.
+     * Ad ogni giro vengono riscritti solo i file delle città in cui il calcolo del ranking ha cambiato i voti di qualche hotel.
      */
     public class WriteHotelsToFileTask implements Runnable {
 
         // Database degli hotel, organizzato per città e nome dell'hotel
         private HashMap<String, HashMap<String, Hotel>> hotelDB;
 
-        // Percorso del file su cui scrivere gli hotel
-        private String filePath;
+        // Shard degli hotel per città, con la versione degli hotel di ogni città per saltare la scrittura delle città non cambiate
+        private HotelShards hotelShards;
 
         // Lock per gestire l'accesso concorrente agli hotel
         private ReadWriteLock lockHotel;
@@ -1863,41 +2824,22 @@ public class HotelierServer {
          * Costruttore della classe WriteHotelsToFileTask.
          *
          * @param hotelDB           Database degli hotel, organizzato per città e nome dell'hotel
-         * @param filePath          Percorso del file su cui scrivere gli hotel
+         * @param hotelShards       Shard degli hotel per città
          * @param lockHotel         Lock per gestire l'accesso concorrente agli hotel
          * @param timeout           Intervallo tra le scritture degli hotel sul file e il calcolo del ranking
          */
-        public WriteHotelsToFileTask(HashMap<String, HashMap<String, Hotel>> hotelDB, String filePath, ReadWriteLock lockHotel, long timeout) {
+        public WriteHotelsToFileTask(HashMap<String, HashMap<String, Hotel>> hotelDB, HotelShards hotelShards, ReadWriteLock lockHotel, long timeout) {
             this.hotelDB = hotelDB;
-            this.filePath = filePath;
+            this.hotelShards = hotelShards;
             this.lockHotel = lockHotel;
             this.timeout = timeout;
         }
 
-        /**
-         * Converte l'hotelDB in un JsonArray.
-         *
-         * @return JsonArray rappresentante gli hotel
-         */
-        private String convertHotelDBToJsonArray() {
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            JsonArray jsonArray = new JsonArray();
-
-            for (HashMap<String, Hotel> hotelsInCity : hotelDB.values()) {
-                for (Hotel hotel : hotelsInCity.values()) {
-                    // Converti l'oggetto Hotel in JsonObject
-                    JsonObject jsonObject = gson.toJsonTree(hotel).getAsJsonObject();
-                    jsonArray.add(jsonObject);
-                }
-            }
-
-            return gson.toJson(jsonArray);
-        }
-
         /**
          * Metodo run che viene eseguito quando il thread viene avviato.
          * Questo metodo periodicamente acquisisce una lock in lettura sugli hotel,
-         * converte il database degli hotel in formato JSON e lo salva sul file degli hotel.
+         * converte gli hotel di ogni città in formato JSON e li salva sul file della città,
+         * se dall'ultima scrittura riuscita il calcolo del ranking ha cambiato i voti di qualche hotel della città.
          * Dopo ogni scrittura, il thread attende per un intervallo di tempo specificato
          * prima di ripetere l'operazione.
          */
@@ -1909,22 +2851,40 @@ public class HotelierServer {
                 try {
                     if (Thread.interrupted()){
                         if (!lastTime){
-                            System.out.println("Prima di chiudere il programma eseguo l'ultima scrittura sul file degli hotel");
+                            Log.info("Prima di chiudere il programma eseguo l'ultima scrittura sul file degli hotel");
                             lastTime = true;
                         }
 
                     }
-                    System.out.println("WriteHotelsToFileTask: tento di acquisire lock in lettura sugli hotel");
+                    Log.debug("WriteHotelsToFileTask: tento di acquisire lock in lettura sugli hotel");
                     acquireReadLock(lockHotel);
-                    System.out.println("WriteHotelsToFileTask: acquisita lock in lettura sugli hotel");
-
-                    String hotelArray = convertHotelDBToJsonArray();
-                    saveJsonToFile(hotelArray, filePath);
-                    System.out.println("Aggiornato file hotel");
+                    Log.debug("WriteHotelsToFileTask: acquisita lock in lettura sugli hotel");
+
+                    // Scrive solo i file delle città cambiate dall'ultima scrittura riuscita
+                    int written = 0;
+                    for (Map.Entry<String, HashMap<String, Hotel>> city : hotelDB.entrySet()) {
+                        DataVersion cityVersion = hotelShards.version(city.getKey());
+                        long version = cityVersion.get();
+                        if (cityVersion.isSaved(version)) {
+                            continue;
+                        }
+                        try {
+                            hotelShards.write(city.getKey(), city.getValue());
+                            cityVersion.markSaved(version);
+                            written++;
+                        } catch (IOException e) {
+                            Log.error("Errore durante la scrittura degli hotel di " + city.getKey(), e);
+                        }
+                    }
+                    if (written > 0) {
+                        Log.info("Aggiornati i file hotel di {} città su {}", written, hotelDB.size());
+                    } else {
+                        Log.debug("Hotel invariati, scrittura dei file saltata");
+                    }
 
                 } finally {
                     releaseReadLock(lockHotel);
-                    System.out.println("WriteHotelsToFileTask: rilasciata lock in lettura sugli hotel");
+                    Log.debug("WriteHotelsToFileTask: rilasciata lock in lettura sugli hotel");
 
 
                 }
@@ -1932,58 +2892,58 @@ public class HotelierServer {
                 try {
                     Thread.sleep(timeout);
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    Log.debug("Attesa della scrittura degli hotel interrotta");
                     break;
 
                 }
 
             }
-            System.out.println("Thread che scrive gli hotel sul disco terminato");
+            Log.info("Thread che scrive gli hotel sul disco terminato");
         }
     }
 
     /**
-     * WriteReviewsToFileTask è una classe che implementa Runnable e si occupa della scrittura periodica
-     * delle recensioni degli hotel su un file. La classe garantisce che l'accesso concorrente ai dati
-     * delle recensioni sia sicuro utilizzando una lock in lettura. Le recensioni vengono salvate in formato
-     * JSON, facilitando la loro persistenza e successivo recupero.
+     * CheckpointReviewsTask è una classe che implementa Runnable e scrive periodicamente un checkpoint
+     * dell'archivio delle recensioni nel log delle recensioni, forzando sul disco i segmenti dell'archivio.
+     * Le singole recensioni sono già registrate nel log quando vengono inserite: il checkpoint serve solo a limitare i record da rileggere all'avvio,
+     * per cui viene scritto solo se dall'ultimo checkpoint sono state inserite nuove recensioni.
+     * Durante il checkpoint la lock in lettura sulle recensioni impedisce l'inserimento di nuove recensioni.
      */
-    public class WriteReviewsToFileTask implements Runnable {
+    public class CheckpointReviewsTask implements Runnable {
 
-        // HashMap contenente le recensioni associate agli ID degli hotel
-        private HashMap<Integer, List<Review>> reviewsHotel;
+        // Archivio delle recensioni degli hotel
+        private ReviewStore reviewStore;
 
         // Lock per gestire l'accesso concorrente alle recensioni degli hotel
         private ReadWriteLock lockReviews;
 
-        // Percorso del file su cui scrivere le recensioni
-        private String filePath;
+        // Log delle recensioni in cui scrivere i checkpoint
+        private ReviewLog reviewLog;
 
-        // Intervallo tra le scritture delle recensioni sul disco in millisecondi
+        // Intervallo tra i checkpoint delle recensioni in millisecondi
         private long timeout;
 
         /**
-         * Costruttore della classe WriteReviewsToFileTask.
+         * Costruttore della classe CheckpointReviewsTask.
          *
-         * @param reviewsHotel Mappa delle recensioni degli hotel da scrivere
+         * @param reviewStore  Archivio delle recensioni degli hotel da rendere persistente
          * @param lockReviews  Lock per gestire l'accesso concorrente alle recensioni
-         * @param filePath     Percorso del file su cui scrivere le recensioni
-         * @param timeout      Intervallo tra le scritture sul disco
+         * @param reviewLog    Log delle recensioni in cui scrivere i checkpoint
+         * @param timeout      Intervallo tra i checkpoint
          */
-        public WriteReviewsToFileTask(HashMap<Integer, List<Review>> reviewsHotel,
-                                      ReadWriteLock lockReviews,
-                                      String filePath,
-                                      long timeout) {
-            this.reviewsHotel = reviewsHotel;
+        public CheckpointReviewsTask(ReviewStore reviewStore,
+                                     ReadWriteLock lockReviews,
+                                     ReviewLog reviewLog,
+                                     long timeout) {
+            this.reviewStore = reviewStore;
             this.lockReviews = lockReviews;
-            this.filePath = filePath;
+            this.reviewLog = reviewLog;
             this.timeout = timeout;
         }
 
         /**
-         * Periodicamente acquisisce una lock in lettura sulle recensioni degli hotel,
-         * converte le recensioni in formato JSON e le salva su disco. Dopo ogni scrittura, il thread
-         * attende per un intervallo di tempo specificato prima di ripetere l'operazione.
+         * Periodicamente acquisisce una lock in lettura sulle recensioni degli hotel e scrive un checkpoint nel log.
+         * Prima di terminare scrive un ultimo checkpoint e chiude il log.
          */
         @Override
         public void run() {
@@ -1993,71 +2953,39 @@ public class HotelierServer {
                 try {
                     if (Thread.interrupted()){
                         if (!lastTime){
-                            System.out.println("Prima di chiudere il programma eseguo l'ultima scrittura sul file delle recensione");
+                            Log.info("Prima di chiudere il programma eseguo l'ultimo checkpoint delle recensioni");
                             lastTime = true;
                         }
                     }
-                    System.out.println("WriteReviewsToFileTask: tentando di acquisire lock in lettura sulle recensioni");
+                    Log.debug("CheckpointReviewsTask: tentando di acquisire lock in lettura sulle recensioni");
                     acquireReadLock(lockReviews);
-                    System.out.println("WriteReviewsToFileTask: lock in lettura acquisita sulle recensioni");
+                    Log.debug("CheckpointReviewsTask: lock in lettura acquisita sulle recensioni");
 
-                    // Converti le recensioni in un JSONObject
-                    String reviewsJson = convertReviewsToJson();
-
-                    // Salva il JSON nel file
-                    saveJsonToFile(reviewsJson, filePath);
-                    System.out.println("Aggiornato file reviews");
+                    // Scrive il checkpoint solo se sono state inserite nuove recensioni
+                    if (reviewLog.checkpoint(reviewStore::writeCheckpoint)) {
+                        Log.info("Scritto checkpoint delle recensioni");
+                    }
 
+                } catch (IOException e) {
+                    Log.error("Errore durante il checkpoint delle recensioni", e);
                 } finally {
                     releaseReadLock(lockReviews);
-                    System.out.println("WriteReviewsToFileTask: lock in lettura rilasciata sulle recensioni");
+                    Log.debug("CheckpointReviewsTask: lock in lettura rilasciata sulle recensioni");
 
 
                 }
                 if (lastTime) break;
                 try {
-                    // Attende per il periodo specificato prima di eseguire un'altra scrittura
+                    // Attende per il periodo specificato prima di eseguire un altro checkpoint
                     Thread.sleep(timeout);
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    break;
-
-
+                    Log.debug("Attesa del checkpoint delle recensioni interrotta");
+                    lastTime = true;
                 }
             }
-            System.out.println("Thread che scrive le recensioni sul disco terminato");
+            reviewLog.close();
+            Log.info("Thread che scrive i checkpoint delle recensioni terminato");
         }
-
-        /**
-         * Converte le recensioni in un formato JSON.
-         *
-         * @return Stringa JSON delle recensioni
-         */
-        private String convertReviewsToJson() {
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            JsonObject jsonObject = new JsonObject();
-
-            for (Map.Entry<Integer, List<Review>> entry : reviewsHotel.entrySet()) {
-                Integer hotelId = entry.getKey();
-                List<Review> reviews = entry.getValue();
-
-                // Crea un JSONArray per le recensioni di un hotel specifico
-                JsonArray jsonArray = new JsonArray();
-
-                // Itera attraverso tutte le recensioni per un hotel specifico
-                for (Review review : reviews) {
-                    // Converti la recensione in JsonObject e aggiungila al JSONArray
-                    jsonArray.add(gson.toJsonTree(review).getAsJsonObject());
-                }
-
-                // Aggiungi il JSONArray al JSONObject principale con l'ID dell'hotel come chiave
-                jsonObject.add(hotelId.toString(), jsonArray);
-            }
-
-            return gson.toJson(jsonObject);
-        }
-
-
     }
 
     /**
@@ -2071,8 +2999,11 @@ public class HotelierServer {
         // Database degli hotel, organizzato per città e nome dell'hotel
         private HashMap<String, HashMap<String, Hotel>> hotelDB;
 
-        // HashMap contenente le recensioni associate agli ID degli hotel
-        private HashMap<Integer, List<Review>> reviewsHotel;
+        // Shard degli hotel per città, la cui versione viene incrementata quando il calcolo cambia i voti di un hotel della città
+        private HotelShards hotelShards;
+
+        // Archivio delle recensioni degli hotel
+        private ReviewStore reviewStore;
 
 
         // Mappa contenente i client registrati per il servizio di callback per i ranking locali
@@ -2107,7 +3038,8 @@ public class HotelierServer {
          * Costruttore della classe CalculateLocalRankingTask.
          *
          * @param hotelDB           Database degli hotel, organizzato per città e nome dell'hotel.
-         * @param reviewsHotel      HashMap contenente le recensioni associate agli ID degli hotel.
+         * @param hotelShards       Shard degli hotel per città, la cui versione viene incrementata quando il calcolo cambia i voti di un hotel della città.
+         * @param reviewStore       Archivio delle recensioni degli hotel.
          * @param hotelCallbacks    Mappa contenente i client registrati per il servizio di callback per i ranking locali
          * @param rankingList       Mappa concorrente per la lista dei ranking degli hotel per città.
          * @param lockHotel         Lock per gestire l'accesso concorrente agli hotel.
@@ -2121,14 +3053,16 @@ public class HotelierServer {
          */
 
         public CalculateLocalRankingTask(HashMap<String, HashMap<String, Hotel>> hotelDB,
-                                         HashMap<Integer, List<Review>> reviewsHotel,
+                                         HotelShards hotelShards,
+                                         ReviewStore reviewStore,
                                          HashMap<String, List<NotifyEventInterface>> hotelCallbacks,
                                          HashMap<String, List<Hotel>> rankingList, ReadWriteLock lockHotel,
                                          ReadWriteLock lockReviews, ReadWriteLock lockHotelCallback,
                                          ReadWriteLock lockRanking, long timeout,
                                          DatagramSocket datagramSocket, InetAddress multicastGroup, int multicastPort){
             this.hotelDB = hotelDB;
-            this.reviewsHotel = reviewsHotel;
+            this.hotelShards = hotelShards;
+            this.reviewStore = reviewStore;
             this.hotelCallbacks = hotelCallbacks;
             this.rankingList = rankingList;
             this.lockHotel = lockHotel;
@@ -2154,136 +3088,156 @@ public class HotelierServer {
 
                 // Invia il pacchetto al gruppo di multicast
                 datagramSocket.send(packet);
-                System.out.println("Notifica inviata: " + message);
+                Log.info("Notifica inviata: {}", message);
 
             } catch (IOException e) {
-                e.printStackTrace();
+                Log.error("Errore durante l'invio della notifica multicast", e);
             }
         }
 
         /**
-         * Calcola periodicamente il rank degli hotel in base alle recensioni disponibili.
-         * Dopo aver calcolato il rank, confronta la nuova classifica con quella precedente e notifica i client
-         * registrati se ci sono stati cambiamenti. L'accesso ai dati è sincronizzato tramite lock per garantire
-         * la consistenza delle informazioni durante le operazioni concorrenti.
+         * Calcola periodicamente il rank degli hotel, a partire da un intervallo dopo la classifica iniziale
+         * calcolata all'avvio del server.
          */
         @Override
         public void run(){
             while (!Thread.interrupted()) {
 
                 try {
+                    Thread.sleep(timeout);
+                } catch (InterruptedException e) {
+                    Log.debug("Attesa del calcolo della classifica interrotta: {}", e.getMessage());
+                    break;
 
+                }
 
-                    System.out.println("CalculateLocalRankingTask: tento di acquisire lock in lettura sulle recensioni");
-                    acquireReadLock(lockReviews);
-                    System.out.println("CalculateLocalRankingTask: acquisita lock in lettura sulle recensioni");
+                calculateRanking();
+            }
+
+            Log.info("Thread che calcola ranking terminato");
+        }
+
+        /**
+         * Calcola il rank degli hotel in base alle recensioni disponibili.
+         * Dopo aver calcolato il rank, confronta la nuova classifica con quella precedente e notifica i client
+         * registrati se ci sono stati cambiamenti. L'accesso ai dati è sincronizzato tramite lock per garantire
+         * la consistenza delle informazioni durante le operazioni concorrenti.
+         */
+        public void calculateRanking(){
+            try {
 
-                    System.out.println("CalculateLocalRankingTask: tento di acquisire lock in scrittura sugli hotel");
-                    acquireWriteLock(lockHotel);
-                    System.out.println("CalculateLocalRankingTask: acquisita lock in scrittura sugli hotel");
 
-                    System.out.println("CalculateLocalRankingTask: tento di acquisire lock in scrittura sulla classifica");
-                    acquireWriteLock(lockRanking);
-                    System.out.println("CalculateLocalRankingTask: acquisita lock in scrittura suglla classifica");
+                Log.debug("CalculateLocalRankingTask: tento di acquisire lock in lettura sulle recensioni");
+                acquireReadLock(lockReviews);
+                Log.debug("CalculateLocalRankingTask: acquisita lock in lettura sulle recensioni");
 
-                    // Itera su tutte le città nel database degli hotel
-                    for (Map.Entry<String, HashMap<String, Hotel>> cityEntry : hotelDB.entrySet()) {
-                        String city = cityEntry.getKey();
-                        HashMap<String, Hotel> hotelsInCity = cityEntry.getValue();
+                Log.debug("CalculateLocalRankingTask: tento di acquisire lock in scrittura sugli hotel");
+                acquireWriteLock(lockHotel);
+                Log.debug("CalculateLocalRankingTask: acquisita lock in scrittura sugli hotel");
 
-                        // Itera su tutti gli hotel in una città specifica e calcola il ranking
-                        for (Hotel hotel : hotelsInCity.values()) {
-                            // Recupera le recensioni per l'hotel corrente usando l'ID dell'hotel
-                            List<Review> reviews = reviewsHotel.get(hotel.getId());
+                Log.debug("CalculateLocalRankingTask: tento di acquisire lock in scrittura sulla classifica");
+                acquireWriteLock(lockRanking);
+                Log.debug("CalculateLocalRankingTask: acquisita lock in scrittura suglla classifica");
 
-                            // Calcola il ranking per l'hotel corrente
-                            hotel.calcolaRanking(reviews);
-                        }
+                // Data di riferimento per il peso dell'attualità delle recensioni
+                LocalDate today = LocalDate.now();
 
-                        // Crea una lista ordinata degli hotel basata sul rate
-                        List<Hotel> sortedHotels = new ArrayList<>(hotelsInCity.values());
-                        sortedHotels.sort((hotel1, hotel2) -> {
-                            Double rate1 = hotel1.getRate();
-                            Double rate2 = hotel2.getRate();
-                            return rate2.compareTo(rate1);  // Ordine decrescente
-                        });
-
-                        // Confronta la nuova classifica con quella precedente
-                        List<Hotel> oldRanking = rankingList.get(city);
-                        boolean res = false;
-                        if (oldRanking != null){
-                            res = oldRanking.equals(sortedHotels);
-                            if (!oldRanking.get(0).equals(sortedHotels.get(0))){
-                                sendMulticastNotification(sortedHotels.get(0), city);
-                            }
+                // Itera su tutte le città nel database degli hotel
+                for (Map.Entry<String, HashMap<String, Hotel>> cityEntry : hotelDB.entrySet()) {
+                    String city = cityEntry.getKey();
+                    HashMap<String, Hotel> hotelsInCity = cityEntry.getValue();
+
+                    // Itera su tutti gli hotel in una città specifica e calcola il ranking
+                    for (Hotel hotel : hotelsInCity.values()) {
+                        // Calcola il ranking per l'hotel corrente dalle sue recensioni nell'archivio;
+                        // se i voti cambiano lo shard della città deve essere salvato
+                        if (reviewStore.calculateRanking(hotel, today)) {
+                            hotelShards.markModified(city);
                         }
+                    }
 
+                    // Crea una lista ordinata degli hotel basata sul rate
+                    List<Hotel> sortedHotels = new ArrayList<>(hotelsInCity.values());
+                    sortedHotels.sort((hotel1, hotel2) -> {
+                        Double rate1 = hotel1.getRate();
+                        Double rate2 = hotel2.getRate();
+                        return rate2.compareTo(rate1);  // Ordine decrescente
+                    });
+
+                    // Confronta la nuova classifica con quella precedente
+                    List<Hotel> oldRanking = rankingList.get(city);
+                    boolean res = false;
+                    if (oldRanking != null){
+                        res = oldRanking.equals(sortedHotels);
+                        if (!oldRanking.get(0).equals(sortedHotels.get(0))){
+                            sendMulticastNotification(sortedHotels.get(0), city);
+                        }
+                    }
 
-                        if (oldRanking == null || !res) {
 
+                    if (oldRanking == null || !res) {
 
-                            rankingList.put(city, sortedHotels);
-                            System.out.println("Classifica aggiornata per la città: " + city);
 
-                            System.out.println("CalculateLocalRankingTask: tento di acquisire la lock in lettura sulle callbacks");
-                            HotelierServer.acquireReadLock(lockHotelCallback);
-                            System.out.println("CalculateLocalRankingTask: acquisita la lock in lettura sulle callback");
+                        rankingList.put(city, sortedHotels);
+                        Log.info("Classifica aggiornata per la città: {}", city);
 
-                            // Ottieni la lista dei client da notificare per la città specifica
-                            List<NotifyEventInterface> callbacks = hotelCallbacks.get(city);
-                            List<NotifyEventInterface> toRemove = new ArrayList<>();
-                            if (callbacks != null && !callbacks.isEmpty()) {
-                                for (NotifyEventInterface callback : callbacks) {
-                                    // Notifica ciascun client registrato
-                                    try {
-                                        callback.notifyEvent(sortedHotels, city);
-                                    }catch (RemoteException e) {
-                                        System.err.println(e.getMessage());
-                                        // Aggiungi lo stub del client alla lista degli elementi da rimuovere
-                                        toRemove.add(callback);
+                        Log.debug("CalculateLocalRankingTask: tento di acquisire la lock in lettura sulle callbacks");
+                        HotelierServer.acquireReadLock(lockHotelCallback);
+                        Log.debug("CalculateLocalRankingTask: acquisita la lock in lettura sulle callback");
 
-                                    }
+                        // Ottieni la lista dei client da notificare per la città specifica
+                        List<NotifyEventInterface> callbacks = hotelCallbacks.get(city);
+                        List<NotifyEventInterface> toRemove = new ArrayList<>();
+                        if (callbacks != null && !callbacks.isEmpty()) {
+                            for (NotifyEventInterface callback : callbacks) {
+                                // Notifica ciascun client registrato
+                                try {
+                                    callback.notifyEvent(sortedHotels, city);
+                                }catch (RemoteException e) {
+                                    Log.warn("Notifica della classifica di {} non consegnata: {}", city, e.getMessage());
+                                    // Aggiungi lo stub del client alla lista degli elementi da rimuovere
+                                    toRemove.add(callback);
 
                                 }
-                                // Rimuovi gli stub dei client che non sono più attivi dalla struttura dati hotelCallbacks
-                                callbacks.removeAll(toRemove);
-                            }
-                            releaseReadLock(lockHotelCallback);
-                            System.out.println("CalculateLocalRankingTask: rilasciata lock in lettura sulle callbacks");
-
 
+                            }
+                            // Rimuovi gli stub dei client che non sono più attivi dalla struttura dati hotelCallbacks
+                            callbacks.removeAll(toRemove);
                         }
+                        releaseReadLock(lockHotelCallback);
+                        Log.debug("CalculateLocalRankingTask: rilasciata lock in lettura sulle callbacks");
+
 
                     }
 
+                }
 
-                }finally {
+                // Codifica la classifica di ogni città mentre gli hotel non possono essere modificati,
+                // poi la pubblica per le richieste SearchAllHotels; i voti cambiano ad ogni calcolo anche se l'ordine resta uguale
+                Map<String, PreparedResponse> responses = new HashMap<>();
+                for (Map.Entry<String, List<Hotel>> rankingEntry : rankingList.entrySet()) {
+                    String city = rankingEntry.getKey();
+                    responses.put(city, new PreparedResponse(new Response(200, new Response.Message(rankingEntry.getValue(), "Classifica degli hotel per la città di " + city + " recuperata con successo")), frameCompressor));
+                }
+                rankingResponses = Collections.unmodifiableMap(responses);
 
-                    releaseReadLock(lockReviews);
-                    System.out.println("CalculateLocalRankingTask: rilasciata lock in lettura sulle reviews");
 
-                    releaseWriteLock(lockHotel);
-                    System.out.println("CalculateLocalRankingTask: rilasciata lock in lettura sugli hotel");
+            }finally {
 
-                    releaseWriteLock(lockRanking);
-                    System.out.println("CalculateLocalRankingTask: rilasciata lock in scrittura sulla classifica");
+                releaseReadLock(lockReviews);
+                Log.debug("CalculateLocalRankingTask: rilasciata lock in lettura sulle reviews");
 
+                releaseWriteLock(lockHotel);
+                Log.debug("CalculateLocalRankingTask: rilasciata lock in lettura sugli hotel");
 
+                releaseWriteLock(lockRanking);
+                Log.debug("CalculateLocalRankingTask: rilasciata lock in scrittura sulla classifica");
 
 
 
-                }
 
-                try {
-                    Thread.sleep(timeout);
-                } catch (InterruptedException e) {
-                    System.err.println(e.getMessage());
-                    break;
 
-                }
             }
-
-            System.out.println("Thread che calcola ranking terminato");
         }
     }
 
@@ -0,0 +1,373 @@
+package Server;
+
+import Shared.FrameReader;
+import Shared.Review;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * La classe JsonRequestDecoder decodifica le richieste JSON dei client con un JsonReader che legge direttamente
+ * i byte del messaggio, senza costruire la stringa JSON né l'albero JsonObject.
+ *
+ * I campi dei parametri vengono letti in un'unica passata, qualunque sia l'ordine dei campi della richiesta,
+ * e solo quando viene gestita l'operazione vengono convertiti nei parametri tipizzati di OperationRequest.
+ * I campi sconosciuti vengono saltati; un campo di tipo errato viene trattato come mancante,
+ * per cui l'operazione risponde che i parametri non sono validi.
+ */
+public final class JsonRequestDecoder {
+
+    private JsonRequestDecoder() {
+    }
+
+    /**
+     * Richiesta decodificata: nome dell'operazione, identificativo scelto dal client e parametri.
+     *
+     * @param operation Il nome dell'operazione richiesta.
+     * @param id        L'identificativo della richiesta, oppure null.
+     * @param params    I parametri della richiesta.
+     */
+    public record DecodedRequest(String operation, Long id, Params params) {
+    }
+
+    /**
+     * Decodifica una richiesta.
+     *
+     * @param frame Il corpo del messaggio, pronto per la lettura; la lettura ne avanza la posizione.
+     * @return La richiesta decodificata.
+     * @throws IOException           Se il messaggio non è un oggetto JSON valido, non indica l'operazione o contiene un batch annidato.
+     * @throws IllegalStateException Se il messaggio non è un oggetto JSON.
+     */
+    public static DecodedRequest decode(ByteBuffer frame) throws IOException {
+        JsonReader reader = new JsonReader(new FrameReader(frame));
+        reader.setLenient(true);
+
+        DecodedRequest request = readRequest(reader, false);
+        if (reader.peek() != JsonToken.END_DOCUMENT) {
+            throw new MalformedJsonException("Contenuto inatteso dopo la richiesta");
+        }
+        if (request.operation() == null) {
+            throw new MalformedJsonException("Operazione mancante");
+        }
+        return request;
+    }
+
+    /**
+     * Legge il nome dell'operazione di una richiesta senza decodificarla: i valori degli altri campi di primo livello vengono saltati
+     * e la lettura si ferma al campo dell'operazione. Serve a verificare il limite di frequenza prima della decodifica completa.
+     *
+     * @param frame Il corpo del messaggio, pronto per la lettura; la posizione non viene modificata.
+     * @return Il nome dell'operazione, oppure null se manca, non è un valore semplice o il messaggio non è valido.
+     */
+    public static String peekOperation(ByteBuffer frame) {
+        try {
+            JsonReader reader = peekField(frame, "operation");
+            return reader == null ? null : readString(reader);
+        } catch (IOException | IllegalStateException e) {
+            // Il messaggio non valido viene segnalato al client dalla decodifica completa
+            return null;
+        }
+    }
+
+    /**
+     * Legge l'identificativo di una richiesta senza decodificarla, per riportarlo nella risposta di una richiesta rifiutata.
+     *
+     * @param frame Il corpo del messaggio, pronto per la lettura; la posizione non viene modificata.
+     * @return L'identificativo della richiesta, oppure null se manca, non è un numero o il messaggio non è valido.
+     */
+    public static Long peekId(ByteBuffer frame) {
+        try {
+            JsonReader reader = peekField(frame, "id");
+            return reader == null ? null : readLong(reader);
+        } catch (IOException | IllegalStateException e) {
+            return null;
+        }
+    }
+
+    // Posiziona un lettore sul valore di un campo di primo livello, leggendo una copia del messaggio; null se il campo manca
+    private static JsonReader peekField(ByteBuffer frame, String field) throws IOException {
+        JsonReader reader = new JsonReader(new FrameReader(frame.duplicate()));
+        reader.setLenient(true);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (field.equals(reader.nextName())) {
+                return reader;
+            }
+            reader.skipValue();
+        }
+        return null;
+    }
+
+    // Legge un oggetto richiesta: operazione, identificativo e parametri; l'operazione è null se manca.
+    // Una richiesta di un batch (nested) non può a sua volta contenere richieste
+    private static DecodedRequest readRequest(JsonReader reader, boolean nested) throws IOException {
+        String operation = null;
+        Long id = null;
+        Params params = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "operation":
+                    operation = readString(reader);
+                    break;
+                case "id":
+                    id = readLong(reader);
+                    break;
+                case "param":
+                    if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        params = readParams(reader, nested);
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return new DecodedRequest(operation, id, params == null ? Params.MISSING : params);
+    }
+
+    // Legge i campi dei parametri di qualunque operazione; le richieste di un batch sono accettate solo al primo livello,
+    // così un batch annidato non fa crescere la ricorsione della lettura
+    private static Params readParams(JsonReader reader, boolean nested) throws IOException {
+        Params params = new Params();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "username":
+                    params.username = readString(reader);
+                    break;
+                case "password":
+                    params.password = readBytes(reader);
+                    break;
+                case "uuidClient":
+                    params.uuidClient = readString(reader);
+                    break;
+                case "name_hotel":
+                    params.nameHotel = readString(reader);
+                    break;
+                case "city_hotel":
+                    params.city = readString(reader);
+                    break;
+                case "global_score":
+                    params.globalScore = readInt(reader);
+                    break;
+                case "singles_scores":
+                    // Punteggi in numero o valore errato vengono trattati come parametro mancante
+                    int[] scores = readInts(reader);
+                    params.singleScores = Review.validScores(scores) ? scores : null;
+                    break;
+                case "public_key":
+                    params.publicKey = readString(reader);
+                    break;
+                case "protocol":
+                    params.protocol = readString(reader);
+                    break;
+                case "enabled":
+                    params.enabled = readBoolean(reader);
+                    break;
+                case "requests":
+                    if (nested) {
+                        throw new MalformedJsonException("Un batch non può contenere un altro batch");
+                    }
+                    params.requests = readRequests(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return params;
+    }
+
+    // Legge le richieste di un batch; null se il campo non è un array
+    private static List<DecodedRequest> readRequests(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+        List<DecodedRequest> requests = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                // Una richiesta che non è un oggetto non invalida l'intero batch
+                reader.skipValue();
+                requests.add(new DecodedRequest(null, null, Params.MISSING));
+                continue;
+            }
+            requests.add(readRequest(reader, true));
+        }
+        reader.endArray();
+        return requests;
+    }
+
+    private static String readString(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER || token == JsonToken.BOOLEAN) {
+            return token == JsonToken.BOOLEAN ? Boolean.toString(reader.nextBoolean()) : reader.nextString();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    private static Long readLong(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NUMBER || token == JsonToken.STRING) {
+            try {
+                return reader.nextLong();
+            } catch (NumberFormatException e) {
+                // Il valore non numerico è già stato consumato: l'identificativo viene ignorato
+                return null;
+            }
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    private static Integer readInt(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NUMBER || token == JsonToken.STRING) {
+            try {
+                return reader.nextInt();
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    private static Boolean readBoolean(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BOOLEAN) {
+            return reader.nextBoolean();
+        }
+        if (token == JsonToken.STRING) {
+            return Boolean.parseBoolean(reader.nextString());
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    // Legge un array di interi; null se il campo non è un array o contiene valori non numerici
+    private static int[] readInts(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+        int[] values = new int[8];
+        int count = 0;
+        boolean valid = true;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Integer value = readInt(reader);
+            if (value == null) {
+                valid = false;
+                continue;
+            }
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = value;
+        }
+        reader.endArray();
+        return valid ? Arrays.copyOf(values, count) : null;
+    }
+
+    // Legge un array di byte, codificato come array di numeri
+    private static byte[] readBytes(JsonReader reader) throws IOException {
+        int[] values = readInts(reader);
+        if (values == null) {
+            return null;
+        }
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] < Byte.MIN_VALUE || values[i] > Byte.MAX_VALUE) {
+                return null;
+            }
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * Campi dei parametri letti dalla richiesta, convertiti nei parametri tipizzati dell'operazione quando viene gestita.
+     * Ogni metodo restituisce i parametri di un'operazione e lancia IllegalStateException se manca un parametro obbligatorio.
+     */
+    public static final class Params {
+
+        // Parametri di una richiesta senza il campo "param"
+        private static final Params MISSING = new Params();
+
+        private String username;
+        private byte[] password;
+        private String uuidClient;
+        private String nameHotel;
+        private String city;
+        private Integer globalScore;
+        private int[] singleScores;
+        private String publicKey;
+        private String protocol;
+        private Boolean enabled;
+        private List<DecodedRequest> requests;
+
+        private Params() {
+        }
+
+        public OperationRequest.Login login() {
+            return new OperationRequest.Login(require(username, "username"), require(password, "password"), require(uuidClient, "uuidClient"));
+        }
+
+        public OperationRequest.Logout logout() {
+            return new OperationRequest.Logout(require(username, "username"));
+        }
+
+        public OperationRequest.SearchHotel searchHotel() {
+            return new OperationRequest.SearchHotel(require(nameHotel, "name_hotel"), require(city, "city_hotel"));
+        }
+
+        public OperationRequest.InsertReview insertReview() {
+            return new OperationRequest.InsertReview(require(nameHotel, "name_hotel"), require(city, "city_hotel"),
+                    require(globalScore, "global_score"), require(singleScores, "singles_scores"));
+        }
+
+        public OperationRequest.SearchAllHotels searchAllHotels() {
+            return new OperationRequest.SearchAllHotels(require(city, "city_hotel"));
+        }
+
+        public OperationRequest.SendKey sendKey() {
+            return new OperationRequest.SendKey(require(publicKey, "public_key"));
+        }
+
+        public OperationRequest.SetProtocol setProtocol() {
+            return new OperationRequest.SetProtocol(require(protocol, "protocol"));
+        }
+
+        public OperationRequest.SetCompression setCompression() {
+            return new OperationRequest.SetCompression(require(enabled, "enabled"));
+        }
+
+        public OperationRequest.Batch batch() {
+            return new OperationRequest.Batch(require(requests, "requests"));
+        }
+
+        private static <T> T require(T value, String name) {
+            if (value == null) {
+                throw new IllegalStateException("Parametro mancante o non valido: " + name);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package Server;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * La classe Log gestisce i messaggi di log del server con livelli di gravità, senza rallentare i thread che li producono.
+ *
+ * Un messaggio di livello inferiore a quello configurato viene scartato con un solo confronto, senza costruire la stringa:
+ * il testo contiene dei segnaposto "{}" che vengono sostituiti con gli argomenti solo dal thread di scrittura.
+ * Gli argomenti devono quindi essere valori che non cambiano dopo la chiamata (stringhe, numeri, indirizzi).
+ *
+ * I messaggi vengono inseriti in una coda circolare di dimensione fissa, svuotata su file da un thread in background,
+ * per cui i thread che producono i messaggi non attendono mai la scrittura su disco né la console.
+ * Se la coda è piena il messaggio viene scartato e il numero di messaggi persi viene riportato nel file.
+ * Prima dell'avvio e dopo l'arresto i messaggi vengono scritti direttamente sulla console.
+ */
+public final class Log {
+
+    /**
+     * Livelli di gravità dei messaggi, dal meno al più grave.
+     * DEBUG comprende i messaggi di tracciamento dei lock e il contenuto delle richieste e delle risposte.
+     */
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    /**
+     * Messaggio in attesa di essere scritto, con il testo non ancora formattato.
+     */
+    private static class Entry {
+
+        private final long timestamp;
+        private final Level level;
+        private final String thread;
+        private final String format;
+        private final Object[] args;
+        private final Throwable error;
+
+        private Entry(Level level, String format, Object[] args, Throwable error) {
+            this.timestamp = System.currentTimeMillis();
+            this.level = level;
+            this.thread = Thread.currentThread().getName();
+            this.format = format;
+            this.args = args;
+            this.error = error;
+        }
+    }
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    // Argomenti di un messaggio senza segnaposto
+    private static final Object[] NO_ARGS = new Object[0];
+
+    // Numero massimo di messaggi scritti sul file prima di svuotare il buffer del file
+    private static final int DRAIN_BATCH = 1024;
+
+    // Livello minimo dei messaggi registrati
+    private static volatile Level level = Level.INFO;
+
+    // Coda dei messaggi in attesa di essere scritti, null se il thread di scrittura non è attivo
+    private static volatile ArrayBlockingQueue<Entry> queue;
+
+    // Thread che svuota la coda sul file
+    private static Thread writerThread;
+
+    // Numero di messaggi scartati perché la coda era piena
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private Log() {
+    }
+
+    /**
+     * Avvia il thread di scrittura dei messaggi.
+     *
+     * @param minimumLevel Livello minimo dei messaggi registrati.
+     * @param filePath     Percorso del file di log, a cui i messaggi vengono aggiunti; null o vuoto per scrivere sulla console.
+     * @param capacity     Numero massimo di messaggi in attesa di essere scritti.
+     * @throws IOException Se il file di log non può essere aperto.
+     */
+    public static synchronized void start(Level minimumLevel, String filePath, int capacity) throws IOException {
+        if (queue != null) {
+            throw new IllegalStateException("Log già avviato");
+        }
+        Writer out = filePath == null || filePath.isEmpty()
+                ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                : new OutputStreamWriter(new FileOutputStream(filePath, true), StandardCharsets.UTF_8);
+
+        ArrayBlockingQueue<Entry> entries = new ArrayBlockingQueue<>(capacity);
+        writerThread = new Thread(() -> drain(entries, new BufferedWriter(out, 64 * 1024)), "log-writer");
+        writerThread.setDaemon(true);
+
+        level = minimumLevel;
+        queue = entries;
+        writerThread.start();
+    }
+
+    /**
+     * Arresta il thread di scrittura dopo aver scritto i messaggi in coda.
+     * I messaggi successivi vengono scritti direttamente sulla console.
+     */
+    public static synchronized void shutdown() {
+        if (queue == null) {
+            return;
+        }
+        queue = null;
+        writerThread.interrupt();
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writerThread = null;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static boolean isDebugEnabled() {
+        return level == Level.DEBUG;
+    }
+
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) >= 0;
+    }
+
+    public static void debug(String message) {
+        if (level == Level.DEBUG) {
+            log(Level.DEBUG, message, NO_ARGS, null);
+        }
+    }
+
+    public static void debug(String format, Object arg) {
+        if (level == Level.DEBUG) {
+            log(Level.DEBUG, format, new Object[]{arg}, null);
+        }
+    }
+
+    public static void debug(String format, Object arg1, Object arg2) {
+        if (level == Level.DEBUG) {
+            log(Level.DEBUG, format, new Object[]{arg1, arg2}, null);
+        }
+    }
+
+    public static void debug(String format, Object... args) {
+        if (level == Level.DEBUG) {
+            log(Level.DEBUG, format, args, null);
+        }
+    }
+
+    public static void info(String message) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, message, NO_ARGS, null);
+        }
+    }
+
+    public static void info(String format, Object... args) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, format, args, null);
+        }
+    }
+
+    public static void warn(String message) {
+        if (isEnabled(Level.WARN)) {
+            log(Level.WARN, message, NO_ARGS, null);
+        }
+    }
+
+    public static void warn(String format, Object... args) {
+        if (isEnabled(Level.WARN)) {
+            log(Level.WARN, format, args, null);
+        }
+    }
+
+    public static void error(String message, Throwable error) {
+        if (isEnabled(Level.ERROR)) {
+            log(Level.ERROR, message, NO_ARGS, error);
+        }
+    }
+
+    public static void error(String format, Object... args) {
+        if (isEnabled(Level.ERROR)) {
+            log(Level.ERROR, format, args, null);
+        }
+    }
+
+    // Inserisce il messaggio nella coda, oppure lo scrive subito sulla console se il thread di scrittura non è attivo
+    private static void log(Level messageLevel, String format, Object[] args, Throwable error) {
+        Entry entry = new Entry(messageLevel, format, args, error);
+
+        ArrayBlockingQueue<Entry> entries = queue;
+        if (entries == null) {
+            StringBuilder line = new StringBuilder();
+            format(entry, line);
+            (messageLevel.compareTo(Level.WARN) >= 0 ? System.err : System.out).print(line);
+            return;
+        }
+        if (!entries.offer(entry)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    // Corpo del thread di scrittura: svuota la coda a blocchi e scrive il file solo quando la coda è vuota
+    private static void drain(ArrayBlockingQueue<Entry> entries, Writer out) {
+        List<Entry> batch = new ArrayList<>(DRAIN_BATCH);
+        StringBuilder line = new StringBuilder(256);
+        boolean running = true;
+
+        while (running || !entries.isEmpty()) {
+            try {
+                if (running) {
+                    batch.add(entries.take());
+                }
+            } catch (InterruptedException e) {
+                // Arresto richiesto: vengono scritti i messaggi rimasti in coda
+                running = false;
+            }
+            entries.drainTo(batch, DRAIN_BATCH - batch.size());
+
+            try {
+                long lost = dropped.getAndSet(0);
+                if (lost > 0) {
+                    out.write(TIMESTAMP.format(Instant.now()) + " WARN  [log-writer] " + lost + " messaggi di log scartati perché la coda era piena" + System.lineSeparator());
+                }
+                for (Entry entry : batch) {
+                    line.setLength(0);
+                    format(entry, line);
+                    out.append(line);
+                }
+                if (entries.isEmpty()) {
+                    out.flush();
+                }
+            } catch (IOException e) {
+                System.err.println("Errore durante la scrittura del log: " + e.getMessage());
+            }
+            batch.clear();
+        }
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Errore durante la chiusura del log: " + e.getMessage());
+        }
+    }
+
+    // Formatta un messaggio sostituendo i segnaposto "{}" con gli argomenti, nell'ordine
+    private static void format(Entry entry, StringBuilder line) {
+        line.append(TIMESTAMP.format(Instant.ofEpochMilli(entry.timestamp)))
+                .append(' ').append(entry.level);
+        if (entry.level.name().length() < 5) {
+            line.append(' ');
+        }
+        line.append(" [").append(entry.thread).append("] ");
+
+        String format = entry.format;
+        int from = 0;
+        for (Object arg : entry.args) {
+            int placeholder = format.indexOf("{}", from);
+            if (placeholder < 0) {
+                break;
+            }
+            line.append(format, from, placeholder).append(arg);
+            from = placeholder + 2;
+        }
+        line.append(format, from, format.length()).append(System.lineSeparator());
+
+        if (entry.error != null) {
+            StringWriter trace = new StringWriter();
+            entry.error.printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package Server;
 
 import Shared.*;
-import com.google.gson.Gson;
 
 import java.rmi.RemoteException;
 import java.rmi.server.RemoteObject;
@@ -47,10 +46,9 @@ public class NotificationServiceImpl extends RemoteObject implements Notificatio
      * @throws RemoteException Se si verifica un errore durante la registrazione
      */
     public String registerForCallback(String city, NotifyEventInterface clientInterface) throws RemoteException {
-        Gson gson = new Gson();
         // Input validation
         if (city == null  || city.isEmpty()) {
-            return gson.toJson(new Response(400, new Response.Message(null, "Input nullo")));
+            return JsonCodec.GSON.toJson(new Response(400, new Response.Message(null, "Input nullo")));
 
         }
         // Verifica se la città esiste nel database
@@ -59,18 +57,18 @@ public class NotificationServiceImpl extends RemoteObject implements Notificatio
 
 
             try {
-                System.out.println("registerForCallback: tento di acquisire la lock in scrittura sulle callbacks");
+                Log.debug("registerForCallback: tento di acquisire la lock in scrittura sulle callbacks");
                 HotelierServer.acquireWriteLock(lockHotelCallback);
-                System.out.println("registerForCallback: acquisita la lock in scrittura sulle callback");
+                Log.debug("registerForCallback: acquisita la lock in scrittura sulle callback");
 
                 List<NotifyEventInterface> callbacks = hotelCallbacks.computeIfAbsent(city, k -> new ArrayList<>());
 
                 // Aggiungi lo stub dell'oggetto remoto del client alla lista degli stub dei client solo se non è ancora registrato
                 if(!callbacks.contains(clientInterface)){
                     callbacks.add(clientInterface);
-                    return gson.toJson(new Response(200, new Response.Message(null, "Registrazione per la citta '" + city + "' eseguita con successo")));
+                    return JsonCodec.GSON.toJson(new Response(200, new Response.Message(null, "Registrazione per la citta '" + city + "' eseguita con successo")));
                 }else{
-                    return gson.toJson(new Response(403, new Response.Message(null, "Registrazione per la citta '" + city + "' già effettuata")));
+                    return JsonCodec.GSON.toJson(new Response(403, new Response.Message(null, "Registrazione per la citta '" + city + "' già effettuata")));
                 }
                 
 
@@ -78,14 +76,14 @@ public class NotificationServiceImpl extends RemoteObject implements Notificatio
             }finally {
 
                 HotelierServer.releaseWriteLock(lockHotelCallback);
-                System.out.println("registerForCallback: rilasciata la lock in scrittura sulle callback");
+                Log.debug("registerForCallback: rilasciata la lock in scrittura sulle callback");
 
 
             }
 
         } else {
             // Città non trovata
-            return gson.toJson(new Response(404, new Response.Message(null, "Errore nella registrazione per la citta '" + city + "': non ci sono hotel nella citta cercata")));
+            return JsonCodec.GSON.toJson(new Response(404, new Response.Message(null, "Errore nella registrazione per la citta '" + city + "': non ci sono hotel nella citta cercata")));
         }
     }
 
@@ -104,23 +102,22 @@ public class NotificationServiceImpl extends RemoteObject implements Notificatio
      */
     @Override
     public String unregisterForCallback(String city, NotifyEventInterface clientInterface) throws RemoteException {
-        Gson gson = new Gson();
 
         // Verifica che il clientInterface non sia nullo
         if (clientInterface == null) {
-            return gson.toJson(new Response(400, new Response.Message(null, "Input nullo")));
+            return JsonCodec.GSON.toJson(new Response(400, new Response.Message(null, "Input nullo")));
         }
 
         // Verifica che il nome della città non sia nullo o vuoto
         if (city == null || city.isEmpty()) {
-            return gson.toJson(new Response(400, new Response.Message(null, "Nome della città non valido")));
+            return JsonCodec.GSON.toJson(new Response(400, new Response.Message(null, "Nome della città non valido")));
         }
 
         try {
             // Acquisizione del lock in scrittura per garantire esclusività nell'accesso alla mappa delle callback
-            System.out.println("unregisterForCallback: tento di acquisire la lock in scrittura sulle callbacks");
+            Log.debug("unregisterForCallback: tento di acquisire la lock in scrittura sulle callbacks");
             HotelierServer.acquireWriteLock(lockHotelCallback);
-            System.out.println("unregisterForCallback: acquisita la lock in scrittura sulle callback");
+            Log.debug("unregisterForCallback: acquisita la lock in scrittura sulle callback");
 
             // Converti il nome della città in minuscolo per uniformità
             city = city.toLowerCase();
@@ -130,18 +127,18 @@ public class NotificationServiceImpl extends RemoteObject implements Notificatio
 
             // Verifica se esiste una lista di callback per la città specificata
             if (callbacks != null && callbacks.remove(clientInterface)) {
-                System.out.println("unregisterForCallback: Callback rimossa per la città " + city);
+                Log.info("unregisterForCallback: Callback rimossa per la città {}", city);
                 // Ritorna una risposta di successo se la deregistrazione è avvenuta
-                return gson.toJson(new Response(200, new Response.Message(null, "Deregistrazione dal servizio di callback per la città " + city + " effettuata")));
+                return JsonCodec.GSON.toJson(new Response(200, new Response.Message(null, "Deregistrazione dal servizio di callback per la città " + city + " effettuata")));
             } else {
                 // Ritorna una risposta di errore se la callback non è stata trovata nella città specificata
-                return gson.toJson(new Response(404, new Response.Message(null, "Callback non trovata per la città " + city)));
+                return JsonCodec.GSON.toJson(new Response(404, new Response.Message(null, "Callback non trovata per la città " + city)));
             }
 
         } finally {
             // Rilascio del lock in scrittura dopo aver completato l'operazione
             HotelierServer.releaseWriteLock(lockHotelCallback);
-            System.out.println("unregisterForCallback: rilasciata la lock in scrittura sulle callback");
+            Log.debug("unregisterForCallback: rilasciata la lock in scrittura sulle callback");
         }
     }
 
@@ -0,0 +1,40 @@
+package Server;
+
+import java.util.List;
+
+/**
+ * L'interfaccia OperationRequest raccoglie i parametri tipizzati delle operazioni che un client può richiedere,
+ * uno per ogni operazione, decodificati da JsonRequestDecoder senza costruire l'albero JSON della richiesta.
+ */
+public interface OperationRequest {
+
+    record Login(String username, byte[] password, String uuidClient) implements OperationRequest {
+    }
+
+    record Logout(String username) implements OperationRequest {
+    }
+
+    record SearchHotel(String nameHotel, String city) implements OperationRequest {
+    }
+
+    record InsertReview(String nameHotel, String city, int globalScore, int[] singleScores) implements OperationRequest {
+    }
+
+    record SearchAllHotels(String city) implements OperationRequest {
+    }
+
+    record SendKey(String publicKey) implements OperationRequest {
+    }
+
+    record SetProtocol(String protocol) implements OperationRequest {
+    }
+
+    record SetCompression(boolean enabled) implements OperationRequest {
+    }
+
+    /**
+     * Batch di richieste, ognuna con la propria operazione e i propri parametri.
+     */
+    record Batch(List<JsonRequestDecoder.DecodedRequest> requests) implements OperationRequest {
+    }
+}
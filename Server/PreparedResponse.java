@@ -0,0 +1,92 @@
+package Server;
+
+import Shared.BinaryProtocol;
+import Shared.FrameCompressor;
+import Shared.Response;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * La classe PreparedResponse contiene una risposta già codificata, sia in JSON sia con il protocollo binario,
+ * e per ciascun protocollo anche già compressa, da inviare uguale a tutti i client che la richiedono senza codificarla
+ * né comprimerla di nuovo, qualunque protocollo e compressione abbiano scelto.
+ * Per ogni richiesta viene solo aggiunto l'identificativo scelto dal client, copiando i byte della risposta;
+ * nelle risposte compresse l'identificativo viene aggiunto ai dati compressi da FrameCompressor.complete.
+ * L'oggetto è immutabile, per cui può essere letto da più thread senza sincronizzazione.
+ */
+public class PreparedResponse {
+
+    // Suffisso che chiude una risposta JSON senza identificativo
+    private static final byte[] JSON_END = "}".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] EMPTY = new byte[0];
+
+    // Codice di stato della risposta
+    private final int statusCode;
+
+    // Risposta JSON senza identificativo, senza intestazione
+    private final byte[] json;
+
+    // Risposta binaria senza identificativo, con intestazione; non viene mai modificata, solo duplicata
+    private final ByteBuffer binary;
+
+    // Risposte compresse, senza la parte che contiene l'identificativo; null se non conviene comprimerle
+    private final FrameCompressor.PreparedBody compressedJson;
+    private final FrameCompressor.PreparedBody compressedBinary;
+
+    /**
+     * Costruttore della classe PreparedResponse. Codifica la risposta nei due protocolli e comprime le due codifiche.
+     *
+     * @param response   La risposta da codificare, senza identificativo.
+     * @param compressor Compressore delle risposte per le connessioni che hanno richiesto la compressione.
+     */
+    public PreparedResponse(Response response, FrameCompressor compressor) {
+        this.statusCode = response.getStatusCode();
+
+        ByteBuffer jsonFrame = response.toFrame();
+        this.json = new byte[jsonFrame.remaining() - Integer.BYTES];
+        jsonFrame.position(Integer.BYTES).get(json);
+
+        this.binary = BinaryProtocol.encodeResponse(response).asReadOnlyBuffer();
+
+        // Nel JSON l'identificativo sostituisce la parentesi graffa finale, nel binario segue il codice di stato e il byte di flag
+        this.compressedJson = compressor.prepare(json, 0, json.length - JSON_END.length);
+        byte[] binaryBody = new byte[binary.remaining() - Integer.BYTES - BinaryProtocol.RESPONSE_HEAD];
+        binary.duplicate().position(Integer.BYTES + BinaryProtocol.RESPONSE_HEAD).get(binaryBody);
+        this.compressedBinary = compressor.prepare(binaryBody, 0, binaryBody.length);
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Restituisce la risposta codificata con l'identificativo della richiesta.
+     *
+     * @param binaryProtocol Indica se la risposta deve essere codificata con il protocollo binario.
+     * @param compression    Indica se il client ha richiesto la compressione; la risposta viene inviata compressa
+     *                       solo se la sua dimensione supera la soglia del compressore e la compressione conviene.
+     * @param id             L'identificativo della richiesta, oppure null.
+     * @return Il messaggio con l'intestazione contenente la lunghezza, pronto per la lettura.
+     */
+    public ByteBuffer toFrame(boolean binaryProtocol, boolean compression, Long id) {
+        if (binaryProtocol) {
+            if (compression && compressedBinary != null) {
+                return FrameCompressor.complete(compressedBinary, BinaryProtocol.responseHead(binary, id), EMPTY);
+            }
+            return BinaryProtocol.withId(binary, id);
+        }
+
+        // L'identificativo è l'ultimo campo della risposta JSON: sostituisce la parentesi graffa finale
+        byte[] end = id == null ? JSON_END : (",\"id\":" + id + "}").getBytes(StandardCharsets.UTF_8);
+        if (compression && compressedJson != null) {
+            return FrameCompressor.complete(compressedJson, EMPTY, end);
+        }
+        int length = json.length - JSON_END.length + end.length;
+
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + length);
+        frame.putInt(length).put(json, 0, json.length - JSON_END.length).put(end);
+        return frame.flip();
+    }
+}
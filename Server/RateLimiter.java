@@ -0,0 +1,175 @@
+package Server;
+
+import Shared.BinaryProtocol;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * La classe RateLimiter limita la frequenza delle richieste di ogni operazione, sia per ogni connessione
+ * sia per ogni utente loggato, così un client che invia troppe richieste non occupa i thread dell'executor
+ * a scapito degli altri. Un utente loggato da più connessioni condivide lo stesso limite su tutte.
+ *
+ * I limiti sono configurati per nome dell'operazione con il formato "operazione:richieste al secondo:raffica",
+ * separati da virgola, ad esempio "InsertReview:5:10,SearchHotel:100:200"; le operazioni non indicate non hanno limiti.
+ * Ogni limite è un TokenBucket: quelli delle connessioni sono conservati nella ClientConnection,
+ * quelli degli utenti in una mappa condivisa dai reactor.
+ * Il controllo usa il codice numerico dell'operazione del protocollo binario, per cui non richiede di decodificare la richiesta.
+ */
+public class RateLimiter {
+
+    /**
+     * Limite di frequenza di un'operazione.
+     */
+    private static class Limit {
+
+        // Numero di richieste consentite al secondo
+        private final double ratePerSecond;
+
+        // Numero di richieste consentite di seguito dopo un periodo di inattività
+        private final double burst;
+
+        private Limit(double ratePerSecond, double burst) {
+            this.ratePerSecond = ratePerSecond;
+            this.burst = burst;
+        }
+    }
+
+    // Numero di codici di operazione gestiti, indicizzati dal codice del protocollo binario
+    private static final int OPERATIONS = BinaryProtocol.OP_BATCH + 1;
+
+    // Limiti per connessione e per utente, indicizzati dal codice dell'operazione; null se l'operazione non ha limiti
+    private final Limit[] connectionLimits;
+    private final Limit[] userLimits;
+
+    // Codici delle operazioni con almeno un limite, per nome dell'operazione
+    private final Map<String, Byte> limitedOperations;
+
+    // Limiti degli utenti loggati, per nome utente
+    private final ConcurrentHashMap<String, TokenBucket[]> userBuckets;
+
+    // Statistiche delle richieste rifiutate
+    private final AtomicLong rejectedByConnection;
+    private final AtomicLong rejectedByUser;
+
+    /**
+     * Costruttore della classe RateLimiter.
+     *
+     * @param connectionLimits Limiti per connessione, nel formato "operazione:richieste al secondo:raffica" separati da virgola.
+     * @param userLimits       Limiti per utente loggato, nello stesso formato.
+     * @throws IllegalArgumentException Se un limite non è nel formato corretto o indica un'operazione sconosciuta.
+     */
+    public RateLimiter(String connectionLimits, String userLimits) {
+        this.connectionLimits = new Limit[OPERATIONS];
+        this.userLimits = new Limit[OPERATIONS];
+        this.limitedOperations = new HashMap<>();
+        this.userBuckets = new ConcurrentHashMap<>();
+        this.rejectedByConnection = new AtomicLong();
+        this.rejectedByUser = new AtomicLong();
+
+        parseLimits(connectionLimits, this.connectionLimits);
+        parseLimits(userLimits, this.userLimits);
+    }
+
+    // Legge i limiti dalla configurazione e li inserisce nell'array indicizzato dal codice dell'operazione
+    private void parseLimits(String config, Limit[] limits) {
+        if (config == null || config.isBlank()) {
+            return;
+        }
+        for (String entry : config.split(",")) {
+            String[] fields = entry.trim().split(":");
+            if (fields.length != 3) {
+                throw new IllegalArgumentException("Limite di frequenza non valido: " + entry);
+            }
+            byte opcode = BinaryProtocol.opcodeOf(fields[0].trim());
+            limits[opcode] = new Limit(Double.parseDouble(fields[1].trim()), Double.parseDouble(fields[2].trim()));
+            limitedOperations.put(fields[0].trim(), opcode);
+        }
+    }
+
+    /**
+     * Restituisce il codice di un'operazione con almeno un limite.
+     *
+     * @param operation Il nome dell'operazione.
+     * @return Il codice dell'operazione, oppure -1 se l'operazione non ha limiti o è sconosciuta.
+     */
+    public byte limitedOpcodeOf(String operation) {
+        Byte opcode = limitedOperations.get(operation);
+        return opcode == null ? -1 : opcode;
+    }
+
+    /**
+     * Indica se un'operazione ha un limite per utente, per evitare di cercare l'utente della connessione quando non serve.
+     *
+     * @param opcode Il codice dell'operazione.
+     * @return true se l'operazione ha un limite per utente.
+     */
+    public boolean hasUserLimit(byte opcode) {
+        return opcode >= 0 && opcode < OPERATIONS && userLimits[opcode] != null;
+    }
+
+    /**
+     * Consuma un gettone dai limiti della connessione e, se indicato, dell'utente loggato per l'operazione richiesta.
+     * Deve essere invocato dal thread del selettore della connessione.
+     *
+     * @param connection La connessione da cui arriva la richiesta.
+     * @param username   L'utente loggato sulla connessione, oppure null.
+     * @param opcode     Il codice dell'operazione richiesta.
+     * @return true se la richiesta rispetta i limiti, false se deve essere rifiutata.
+     */
+    public boolean tryAcquire(ClientConnection connection, String username, byte opcode) {
+        if (opcode < 0 || opcode >= OPERATIONS) {
+            return true;
+        }
+        long now = System.nanoTime();
+
+        Limit connectionLimit = connectionLimits[opcode];
+        if (connectionLimit != null) {
+            TokenBucket[] buckets = connection.getTokenBuckets();
+            if (buckets == null) {
+                buckets = new TokenBucket[OPERATIONS];
+                connection.setTokenBuckets(buckets);
+            }
+            if (!acquire(buckets, opcode, connectionLimit, now)) {
+                rejectedByConnection.incrementAndGet();
+                return false;
+            }
+        }
+
+        Limit userLimit = userLimits[opcode];
+        if (userLimit != null && username != null) {
+            TokenBucket[] buckets = userBuckets.computeIfAbsent(username, user -> new TokenBucket[OPERATIONS]);
+            // I secchielli di un utente possono essere creati contemporaneamente da più reactor
+            synchronized (buckets) {
+                if (!acquire(buckets, opcode, userLimit, now)) {
+                    rejectedByUser.incrementAndGet();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Consuma un gettone dal secchiello dell'operazione, creandolo al primo utilizzo
+    private static boolean acquire(TokenBucket[] buckets, byte opcode, Limit limit, long now) {
+        TokenBucket bucket = buckets[opcode];
+        if (bucket == null) {
+            bucket = new TokenBucket(limit.ratePerSecond, limit.burst, now);
+            buckets[opcode] = bucket;
+        }
+        return bucket.tryAcquire(now);
+    }
+
+    /**
+     * Restituisce una descrizione delle statistiche dei limiti di frequenza.
+     *
+     * @return Stringa con il numero di richieste rifiutate per i limiti delle connessioni e degli utenti.
+     */
+    public String getStats() {
+        return "limiti di frequenza rifiutate per connessione=" + rejectedByConnection.get()
+                + " per utente=" + rejectedByUser.get()
+                + " utenti con limiti attivi=" + userBuckets.size();
+    }
+}
@@ -0,0 +1,471 @@
+package Server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * La classe Reactor implementa Runnable e gestisce l'I/O di un sottoinsieme delle connessioni dei client.
+ * Ogni reactor ha il proprio Selector e il proprio thread: il thread che accetta le connessioni assegna
+ * ogni nuovo SocketChannel a uno dei reactor, che da quel momento si occupa di leggere le richieste
+ * e di scrivere le risposte di quel client. In questo modo l'I/O di rete si distribuisce su più core.
+ * Il reactor chiude inoltre le connessioni rimaste inattive oltre il timeout configurato, usando una ruota temporale
+ * avanzata dal ciclo del selettore: ogni lettura o scrittura aggiorna solo l'istante dell'ultima attività della connessione,
+ * che viene controllato quando la sua scadenza nella ruota arriva.
+ */
+public class Reactor implements Runnable {
+
+    /**
+     * Interfaccia con cui il reactor consegna al server i messaggi completi e le disconnessioni dei client.
+     */
+    public interface MessageHandler {
+
+        /**
+         * Invocato sul thread del reactor per ogni messaggio completo ricevuto da un client.
+         * Il buffer appartiene al pool del reactor e non deve essere conservato dopo il ritorno del metodo.
+         *
+         * @param frame Il corpo del messaggio, pronto per la lettura.
+         * @param key   La chiave di selezione associata al canale del client.
+         */
+        void onMessage(ByteBuffer frame, SelectionKey key);
+
+        /**
+         * Invocato sul thread del reactor quando un client invia un messaggio più grande della dimensione massima.
+         * Il messaggio viene scartato e la connessione resta aperta.
+         *
+         * @param length Lunghezza del messaggio dichiarata dal client.
+         * @param key    La chiave di selezione associata al canale del client.
+         */
+        void onFrameTooLarge(int length, SelectionKey key);
+
+        /**
+         * Invocato sul thread del reactor dopo la chiusura del canale di un client.
+         *
+         * @param connection La connessione del client disconnesso, con il canale già chiuso.
+         */
+        void onDisconnect(ClientConnection connection);
+    }
+
+    // Numero massimo di messaggi processati per ogni evento di lettura di un singolo client
+    private static final int MAX_FRAMES_PER_READ = 16;
+
+    // Durata massima di uno slot della ruota temporale delle connessioni inattive (in millisecondi)
+    private static final long MAX_IDLE_TICK = 1000;
+
+    // Identificativo del reactor, usato nei log e nelle statistiche
+    private final int id;
+
+    // Selettore che monitora i canali assegnati a questo reactor
+    private final Selector selector;
+
+    // Oggetto a cui vengono consegnati i messaggi ricevuti e le disconnessioni
+    private final MessageHandler handler;
+
+    // Soglia in byte della coda in uscita di una connessione oltre la quale la lettura dal client viene sospesa
+    private final long outboundHighWaterMark;
+
+    // Pool di buffer diretti per il corpo dei messaggi letti dalle connessioni di questo reactor
+    private final BufferPool bufferPool;
+
+    // Dimensione massima del corpo di un messaggio accettata dal server (in byte)
+    private final int maxFrameSize;
+
+    // Numero massimo di richieste di un client senza risposta oltre il quale la lettura dal client viene sospesa
+    private final int maxPendingRequests;
+
+    // Tempo in millisecondi dopo cui una connessione senza attività viene chiusa, 0 o negativo per non chiuderle mai
+    private final long idleTimeout;
+
+    // Ruota temporale con le scadenze di inattività delle connessioni, null se il timeout è disabilitato
+    private final TimingWheel<ClientConnection> idleWheel;
+
+    // Istante in millisecondi dell'ultimo risveglio del selettore, usato come istante di attività delle connessioni
+    private long now;
+
+    // Canali accettati e assegnati a questo reactor, in attesa di essere registrati nel selettore
+    private final ConcurrentLinkedQueue<SocketChannel> pendingChannels;
+
+    // Coda delle connessioni con risposte da scrivere, svuotata dal thread del reactor
+    private final ConcurrentLinkedQueue<ClientConnection> writeRequests;
+
+    // Thread che esegue il ciclo del reactor
+    private Thread thread;
+
+    // Statistiche del reactor
+    private final AtomicInteger activeConnections;
+    private final AtomicLong acceptedConnections;
+    private final AtomicLong messagesRead;
+    private final AtomicLong writeEvents;
+    private final AtomicLong idleClosed;
+
+    /**
+     * Costruttore della classe Reactor.
+     *
+     * @param id                    Identificativo del reactor.
+     * @param handler               Oggetto a cui vengono consegnati i messaggi ricevuti e le disconnessioni.
+     * @param outboundHighWaterMark Soglia in byte della coda in uscita oltre la quale la lettura dal client viene sospesa.
+     * @param bufferPool            Pool di buffer diretti per il corpo dei messaggi letti dalle connessioni del reactor.
+     * @param maxFrameSize          Dimensione massima del corpo di un messaggio accettata dal server (in byte).
+     * @param idleTimeout           Tempo in millisecondi dopo cui una connessione senza attività viene chiusa, 0 o negativo per disabilitare.
+     * @param maxPendingRequests    Numero massimo di richieste di un client senza risposta oltre il quale la lettura dal client viene sospesa.
+     * @throws IOException Se non è possibile aprire il selettore.
+     */
+    public Reactor(int id, MessageHandler handler, long outboundHighWaterMark, BufferPool bufferPool, int maxFrameSize, long idleTimeout, int maxPendingRequests) throws IOException {
+        this.id = id;
+        this.selector = Selector.open();
+        this.handler = handler;
+        this.outboundHighWaterMark = outboundHighWaterMark;
+        this.bufferPool = bufferPool;
+        this.maxFrameSize = maxFrameSize;
+        this.idleTimeout = idleTimeout;
+        this.maxPendingRequests = maxPendingRequests;
+        this.now = System.currentTimeMillis();
+        if (idleTimeout > 0) {
+            // Un giro completo della ruota copre il timeout, così ogni scadenza viene controllata una sola volta
+            long tick = Math.max(1, Math.min(MAX_IDLE_TICK, idleTimeout / 10));
+            this.idleWheel = new TimingWheel<>(tick, (int) (idleTimeout / tick) + 2, now);
+        } else {
+            this.idleWheel = null;
+        }
+        this.pendingChannels = new ConcurrentLinkedQueue<>();
+        this.writeRequests = new ConcurrentLinkedQueue<>();
+        this.activeConnections = new AtomicInteger();
+        this.acceptedConnections = new AtomicLong();
+        this.messagesRead = new AtomicLong();
+        this.writeEvents = new AtomicLong();
+        this.idleClosed = new AtomicLong();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * Avvia il thread del reactor.
+     */
+    public void start() {
+        thread = new Thread(this, "reactor-" + id);
+        thread.start();
+    }
+
+    /**
+     * Ferma il thread del reactor e attende che termini. I canali dei client e il selettore vengono chiusi
+     * dal thread del reactor stesso alla fine del suo ciclo, così non vengono toccati mentre processa gli eventi.
+     */
+    public void stop() {
+        if (thread == null) {
+            // Reactor mai avviato: nessun thread sta usando il selettore
+            closeResources();
+            return;
+        }
+        thread.interrupt();
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Log.warn("Attesa della terminazione del reactor {} interrotta", id);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Assegna a questo reactor un canale appena accettato. Può essere invocato da qualsiasi thread:
+     * la registrazione nel selettore avviene sul thread del reactor, che viene risvegliato.
+     *
+     * @param channel Il canale del client, già configurato in modalità non bloccante.
+     */
+    public void register(SocketChannel channel) {
+        activeConnections.incrementAndGet();
+        acceptedConnections.incrementAndGet();
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Ciclo del reactor: attende gli eventi di I/O sui canali assegnati, registra i nuovi canali,
+     * scrive le risposte accodate dai thread del pool e chiude le connessioni inattive.
+     */
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                // Se il timeout di inattività è attivo il selettore si risveglia almeno una volta per slot della ruota
+                selector.select(idleWheel != null ? idleWheel.getTickMillis() : 0);
+                now = System.currentTimeMillis();
+
+                // Registra i canali assegnati dal thread che accetta le connessioni
+                registerPendingChannels();
+
+                // Scrive le risposte accodate dai thread del pool
+                processWriteRequests();
+
+                // Processa gli eventi di lettura e scrittura pronti
+                processSelectionKeys();
+
+                // Chiude le connessioni inattive oltre il timeout
+                if (idleWheel != null) {
+                    idleWheel.advance(now, this::checkIdle);
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // Il selettore è stato chiuso durante la terminazione del server
+        } catch (IOException e) {
+            Log.error("Errore nel reactor " + id, e);
+        } finally {
+            closeResources();
+        }
+        Log.info("Reactor {} terminato", id);
+    }
+
+    /**
+     * Chiude le connessioni dei client, compresi i canali assegnati ma non ancora registrati, e il selettore.
+     * Viene invocato dal thread del reactor alla fine del suo ciclo.
+     */
+    private void closeResources() {
+        if (selector.isOpen()) {
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid()) {
+                    handleClientDisconnect(key);
+                }
+            }
+        }
+
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            activeConnections.decrementAndGet();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.warn("Errore durante la chiusura del canale: {}", e.getMessage());
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            Log.error("Errore durante la chiusura del selettore", e);
+        }
+    }
+
+    /**
+     * Restituisce una descrizione delle statistiche del reactor, utile per verificare
+     * come le connessioni sono distribuite tra i reactor.
+     *
+     * @return Stringa con le statistiche del reactor.
+     */
+    public String getStats() {
+        return "reactor-" + id
+                + " connessioni attive=" + activeConnections.get()
+                + " accettate=" + acceptedConnections.get()
+                + " messaggi letti=" + messagesRead.get()
+                + " eventi di scrittura=" + writeEvents.get()
+                + " chiuse per inattività=" + idleClosed.get()
+                + " " + bufferPool.getStats();
+    }
+
+    private void registerPendingChannels() {
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                // Registra il canale del client per l'operazione di lettura e associa lo stato della connessione come attachment
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                ClientConnection connection = new ClientConnection(key, writeRequests, outboundHighWaterMark, bufferPool, maxFrameSize, maxPendingRequests);
+                key.attach(connection);
+
+                // Programma il primo controllo di inattività
+                connection.touch(now);
+                if (idleWheel != null) {
+                    idleWheel.schedule(connection, now + idleTimeout);
+                }
+            } catch (IOException e) {
+                Log.warn("Errore durante la registrazione del canale: {}", e.getMessage());
+                activeConnections.decrementAndGet();
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    Log.warn("Errore durante la chiusura del canale: {}", ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Prende in carico le connessioni per cui i thread del pool hanno accodato delle risposte
+     * e prova a scriverle subito; quello che il socket non accetta resta in coda e viene scritto agli eventi OP_WRITE successivi.
+     */
+    private void processWriteRequests() {
+        ClientConnection connection;
+        while ((connection = writeRequests.poll()) != null) {
+            connection.clearWriteScheduled();
+
+            SelectionKey key = connection.getKey();
+            if (key.isValid()) {
+                handleWrite(key);
+            }
+        }
+    }
+
+    private void processSelectionKeys() {
+        Set<SelectionKey> selectionKeys = selector.selectedKeys();
+        Iterator<SelectionKey> iterator = selectionKeys.iterator();
+
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+
+            if (key.isValid() && key.isReadable()) {
+                handleRead(key);
+            }
+
+            if (key.isValid() && key.isWritable()) {
+                writeEvents.incrementAndGet();
+                handleWrite(key);
+            }
+        }
+    }
+
+    /**
+     * Gestisce l'evento di lettura di dati da un client.
+     *
+     * I byte disponibili vengono passati alla macchina a stati della connessione e ogni messaggio
+     * completo viene consegnato al server. Se il messaggio è incompleto il metodo ritorna subito al selettore
+     * e la lettura riprende al successivo evento OP_READ. Se il client chiude la connessione, la chiave viene cancellata.
+     *
+     * @param key La chiave di selezione associata al canale che ha generato l'evento.
+     */
+    private void handleRead(SelectionKey key) {
+        ClientConnection connection = (ClientConnection) key.attachment();
+        connection.touch(now);
+
+        try {
+            int framesRead = 0;
+
+            // Processa i messaggi completi già disponibili, senza monopolizzare il reactor con un solo client
+            while (framesRead < MAX_FRAMES_PER_READ) {
+                ByteBuffer frame;
+                try {
+                    frame = connection.readFrame();
+                } catch (ClientConnection.FrameTooLargeException e) {
+                    // Il messaggio viene scartato e il client riceve un errore, la connessione resta aperta
+                    Log.warn("Messaggio troppo grande dal client: {}", e.getMessage());
+                    framesRead++;
+                    handler.onFrameTooLarge(e.getLength(), key);
+                    continue;
+                }
+
+                // Messaggio incompleto, si riprende al prossimo evento di lettura
+                if (frame == null) {
+                    break;
+                }
+
+                framesRead++;
+                messagesRead.incrementAndGet();
+                try {
+                    handler.onMessage(frame, key);
+                } finally {
+                    // Il messaggio è stato processato: il buffer torna nel pool
+                    connection.releaseFrame(frame);
+                }
+
+                // Il client ha troppe richieste in corso: le successive restano nel socket finché i task non le completano
+                if (connection.hasTooManyPendingRequests()) {
+                    connection.updateInterestOps();
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            // Il client ha chiuso la connessione
+            handleClientDisconnect(key);
+        } catch (IOException e) {
+            // Connessione interrotta bruscamente o messaggio non valido
+            Log.warn("Errore durante la lettura dal client: {}", e.getMessage());
+            handleClientDisconnect(key);
+        } catch (RuntimeException e) {
+            // Errore imprevisto nell'elaborazione di un messaggio: viene chiusa solo questa connessione,
+            // così il ciclo del reactor continua a servire gli altri client
+            Log.error("Errore durante l'elaborazione di un messaggio del client, chiusura della connessione", e);
+            if (key.isValid()) {
+                handleClientDisconnect(key);
+            }
+        }
+    }
+
+    /**
+     * Gestisce l'evento di scrittura verso un client, scrivendo le risposte in coda
+     * finché il buffer di invio del socket le accetta.
+     *
+     * @param key La chiave di selezione associata al canale del client.
+     */
+    private void handleWrite(SelectionKey key) {
+        ClientConnection connection = (ClientConnection) key.attachment();
+        connection.touch(now);
+
+        try {
+            connection.flush();
+        } catch (IOException e) {
+            Log.warn("Errore durante la scrittura verso il client: {}", e.getMessage());
+            handleClientDisconnect(key);
+        }
+    }
+
+    /**
+     * Controlla una connessione la cui scadenza di inattività è arrivata nella ruota temporale.
+     * Se nel frattempo la connessione ha avuto attività, o ha richieste e risposte in corso,
+     * viene programmata di nuovo; altrimenti viene chiusa.
+     *
+     * @param connection La connessione da controllare.
+     */
+    private void checkIdle(ClientConnection connection) {
+        SelectionKey key = connection.getKey();
+
+        // Connessione già chiusa: viene semplicemente dimenticata
+        if (!key.isValid()) {
+            return;
+        }
+
+        long deadline = connection.getLastActivity() + idleTimeout;
+        if (deadline > now || connection.hasPendingWork()) {
+            idleWheel.schedule(connection, Math.max(deadline, now + idleWheel.getTickMillis()));
+            return;
+        }
+
+        Log.info("Connessione inattiva da {} ms, chiusura di {}", (now - connection.getLastActivity()), key.channel());
+        idleClosed.incrementAndGet();
+        handleClientDisconnect(key);
+    }
+
+    // Metodo che gestisce la chiusura della connessione
+    private void handleClientDisconnect(SelectionKey key) {
+        SocketChannel client = (SocketChannel) key.channel();
+
+        Log.info("Connessione chiusa da {}", client);
+
+        // Cancellazione della chiave di selezione e chiusura del canale
+        key.cancel();
+        try {
+            client.close();
+        } catch (IOException e) {
+            Log.warn("Errore durante la chiusura del canale: {}", e.getMessage());
+        }
+
+        // Restituisce al pool il buffer del messaggio eventualmente in lettura
+        ClientConnection connection = (ClientConnection) key.attachment();
+        connection.close();
+
+        activeConnections.decrementAndGet();
+        handler.onDisconnect(connection);
+    }
+}
@@ -0,0 +1,72 @@
+package Server;
+
+import java.nio.channels.SocketChannel;
+
+/**
+ * La classe RequestContext rappresenta una richiesta ricevuta da un client e ancora in attesa di risposta.
+ * Contiene la connessione da cui è arrivata, il numero di sequenza assegnato dalla connessione,
+ * che permette di scrivere le risposte nello stesso ordine delle richieste anche se i task vengono eseguiti in parallelo,
+ * il protocollo con cui la richiesta è stata codificata, usato anche per la risposta, se la risposta può essere compressa
+ * e l'identificativo scelto dal client, che viene riportato nella risposta.
+ */
+public class RequestContext {
+
+    // Connessione da cui è arrivata la richiesta
+    private final ClientConnection connection;
+
+    // Numero di sequenza della richiesta all'interno della connessione
+    private final long sequence;
+
+    // Indica se la richiesta è codificata con il protocollo binario anziché JSON
+    private final boolean binary;
+
+    // Indica se la risposta può essere compressa
+    private final boolean compression;
+
+    // Identificativo della richiesta scelto dal client, null se il client non lo ha indicato
+    private Long requestId;
+
+    /**
+     * Costruttore della classe RequestContext.
+     * Deve essere invocato dal thread del selettore quando la richiesta viene letta,
+     * perché il protocollo e la compressione sono quelli negoziati dalla connessione in quel momento.
+     *
+     * @param connection Connessione da cui è arrivata la richiesta.
+     * @param sequence   Numero di sequenza della richiesta all'interno della connessione.
+     */
+    public RequestContext(ClientConnection connection, long sequence) {
+        this.connection = connection;
+        this.sequence = sequence;
+        this.binary = connection.isBinaryProtocol();
+        this.compression = connection.isCompression();
+        this.requestId = null;
+    }
+
+    public ClientConnection getConnection() {
+        return connection;
+    }
+
+    public SocketChannel getChannel() {
+        return connection.getChannel();
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public Long getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(Long requestId) {
+        this.requestId = requestId;
+    }
+}
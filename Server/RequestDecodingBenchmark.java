@@ -0,0 +1,128 @@
+package Server;
+
+import Shared.JsonCodec;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * La classe RequestDecodingBenchmark misura il costo della decodifica delle richieste JSON,
+ * confrontando la decodifica precedente (stringa JSON, albero JsonObject e lettura degli array elemento per elemento)
+ * con quella di JsonRequestDecoder, che legge i parametri tipizzati direttamente dai byte del messaggio.
+ *
+ * Per ogni tipo di richiesta stampa i byte allocati e il tempo medio per richiesta, dopo un riscaldamento
+ * che consente alla JVM di compilare il codice misurato. I byte allocati sono misurati sul thread corrente,
+ * per cui il risultato non dipende dalla frequenza del garbage collector.
+ *
+ * Utilizzo: RequestDecodingBenchmark [iterazioni]
+ */
+public class RequestDecodingBenchmark {
+
+    // Richieste misurate, come le invia il client
+    private static final String[][] REQUESTS = {
+            {"Login", "{\"operation\":\"Login\",\"param\":{\"username\":\"mario\",\"password\":[12,-45,88,3,-120,77,91,-2,14,55,-89,100,23,-7,64,31],\"uuidClient\":\"bb1e3725-c4af-4e80-ab21-ca836c3ea045\"},\"id\":1}"},
+            {"SearchHotel", "{\"operation\":\"SearchHotel\",\"param\":{\"name_hotel\":\"Hotel Roma 1\",\"city_hotel\":\"Roma\"},\"id\":2}"},
+            {"InsertReview", "{\"operation\":\"InsertReview\",\"param\":{\"name_hotel\":\"Hotel Roma 1\",\"city_hotel\":\"Roma\",\"global_score\":4,\"singles_scores\":[5,4,3,4]},\"id\":3}"},
+            {"SearchAllHotels", "{\"operation\":\"SearchAllHotels\",\"param\":{\"city_hotel\":\"Roma\"},\"id\":4}"}
+    };
+
+    // Accumula un valore derivato dalle richieste decodificate, così la JVM non può eliminare la decodifica
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        System.out.printf("%-16s %16s %16s %14s %14s%n", "operazione", "byte/ric. prima", "byte/ric. dopo", "ns/ric. prima", "ns/ric. dopo");
+        for (String[] request : REQUESTS) {
+            byte[] body = request[1].getBytes(StandardCharsets.UTF_8);
+
+            // Riscaldamento
+            for (int i = 0; i < iterations; i++) {
+                sink += decodeTree(ByteBuffer.wrap(body));
+                sink += decodeStreaming(ByteBuffer.wrap(body));
+            }
+
+            long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += decodeTree(ByteBuffer.wrap(body));
+            }
+            long treeNanos = System.nanoTime() - start;
+            long treeBytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+            bytesBefore = threads.getThreadAllocatedBytes(threadId);
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += decodeStreaming(ByteBuffer.wrap(body));
+            }
+            long streamingNanos = System.nanoTime() - start;
+            long streamingBytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+            System.out.printf("%-16s %16d %16d %14d %14d%n", request[0],
+                    treeBytes / iterations, streamingBytes / iterations, treeNanos / iterations, streamingNanos / iterations);
+        }
+        System.out.println("controllo=" + sink);
+    }
+
+    // Decodifica precedente: stringa JSON, albero JsonObject e lettura dei parametri dall'albero
+    private static long decodeTree(ByteBuffer frame) {
+        String message = StandardCharsets.UTF_8.decode(frame).toString().trim();
+        JsonObject json = JsonCodec.GSON.fromJson(message, JsonObject.class);
+        long id = json.get("id").getAsLong();
+        String operation = json.get("operation").getAsString();
+        JsonObject param = json.get("param").getAsJsonObject();
+
+        switch (operation) {
+            case "Login": {
+                JsonArray array = param.get("password").getAsJsonArray();
+                byte[] password = new byte[array.size()];
+                for (int i = 0; i < array.size(); i++) {
+                    password[i] = array.get(i).getAsByte();
+                }
+                return id + param.get("username").getAsString().length() + password.length + param.get("uuidClient").getAsString().length();
+            }
+            case "InsertReview": {
+                JsonArray array = param.get("singles_scores").getAsJsonArray();
+                int[] scores = new int[array.size()];
+                for (int i = 0; i < array.size(); i++) {
+                    scores[i] = array.get(i).getAsInt();
+                }
+                return id + param.get("name_hotel").getAsString().length() + param.get("city_hotel").getAsString().length()
+                        + param.get("global_score").getAsInt() + scores.length;
+            }
+            case "SearchHotel":
+                return id + param.get("name_hotel").getAsString().length() + param.get("city_hotel").getAsString().length();
+            default:
+                return id + param.get("city_hotel").getAsString().length();
+        }
+    }
+
+    // Decodifica attuale: parametri tipizzati letti direttamente dai byte del messaggio
+    private static long decodeStreaming(ByteBuffer frame) throws Exception {
+        JsonRequestDecoder.DecodedRequest request = JsonRequestDecoder.decode(frame);
+        long id = request.id();
+
+        switch (request.operation()) {
+            case "Login": {
+                OperationRequest.Login login = request.params().login();
+                return id + login.username().length() + login.password().length + login.uuidClient().length();
+            }
+            case "InsertReview": {
+                OperationRequest.InsertReview review = request.params().insertReview();
+                return id + review.nameHotel().length() + review.city().length() + review.globalScore() + review.singleScores().length;
+            }
+            case "SearchHotel": {
+                OperationRequest.SearchHotel search = request.params().searchHotel();
+                return id + search.nameHotel().length() + search.city().length();
+            }
+            default:
+                return id + request.params().searchAllHotels().city().length();
+        }
+    }
+}
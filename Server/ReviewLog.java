@@ -0,0 +1,584 @@
+package Server;
+
+import Shared.Categories;
+import Shared.JsonCodec;
+import Shared.Review;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * La classe ReviewLog registra le recensioni inserite dai client in un log in sola aggiunta (write-ahead log),
+ * così ogni nuova recensione costa la scrittura di un solo record invece della riscrittura di tutte le recensioni.
+ *
+ * Il log è diviso in segmenti numerati nella directory indicata ("segment-N.log"): quando un segmento supera
+ * la dimensione massima le recensioni successive vengono scritte in un nuovo segmento.
+ * Periodicamente viene scritto un checkpoint ("checkpoint-N.json") che rende persistenti tutte le recensioni dei segmenti
+ * precedenti al segmento N: il suo contenuto JSON è scritto dal chiamante (il ReviewStore forza i propri segmenti
+ * sul disco e vi salva il numero di record e l'indice degli hotel); dopo il checkpoint
+ * i segmenti e i checkpoint precedenti vengono eliminati. Il numero nel nome del checkpoint indica quindi
+ * il primo segmento da rileggere all'avvio, e il checkpoint viene reso visibile con una rinomina atomica,
+ * per cui un'interruzione in qualunque momento non perde né duplica recensioni.
+ *
+ * Ogni record è composto dalla lunghezza del contenuto, dal suo CRC32 e dal contenuto; all'avvio un record
+ * incompleto o danneggiato in coda al log, dovuto a un'interruzione durante la scrittura, viene scartato.
+ *
+ * Una recensione è confermata solo dopo che il suo record è stato forzato sul disco. Per non pagare una sincronizzazione
+ * del disco per ogni recensione, i record vengono scritti con un commit di gruppo (group commit): un thread dedicato
+ * attende per un breve intervallo dall'arrivo del primo record, raccoglie tutti i record arrivati nel frattempo
+ * (fino a un numero massimo), li scrive con una sola scrittura e una sola sincronizzazione e completa insieme
+ * tutte le conferme in attesa. Le distribuzioni della latenza dei commit e della dimensione dei gruppi
+ * sono disponibili nelle statistiche.
+ */
+public class ReviewLog {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".json";
+
+    // Intestazione di un record: lunghezza del contenuto e CRC32
+    private static final int RECORD_HEADER = 2 * Integer.BYTES;
+
+    // Directory che contiene segmenti e checkpoint
+    private final Path directory;
+
+    // Dimensione in byte oltre la quale viene aperto un nuovo segmento
+    private final long segmentSize;
+
+    // Canale del segmento in cui vengono aggiunti i record, null prima del recupero
+    private FileChannel segment;
+
+    // Numero del segmento corrente
+    private long segmentNumber;
+
+    // Indica se dall'ultimo checkpoint sono stati aggiunti record
+    private boolean dirty;
+
+    // Numero massimo di record scritti con una sola sincronizzazione del disco
+    private final int maxBatchSize;
+
+    // Attesa massima in nanosecondi, dall'arrivo del primo record, prima di scrivere un gruppo incompleto
+    private final long maxBatchDelayNanos;
+
+    // Record in attesa di essere scritti, nell'ordine di arrivo
+    private final ArrayDeque<PendingRecord> pending = new ArrayDeque<>();
+
+    // Indica se il thread di scrittura sta scrivendo un gruppo di record, senza tenere il monitor del log
+    private boolean writing;
+
+    // Thread che scrive i gruppi di record, null prima del recupero e dopo la chiusura
+    private Thread writerThread;
+
+    // Buffer riutilizzati dal thread di scrittura per codificare i record
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(recordBytes);
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer batchBuffer = ByteBuffer.allocate(64 * 1024);
+
+    // Latenza in microsecondi dalla richiesta di scrittura di un record alla sua conferma
+    private final Histogram commitLatency = new Histogram();
+
+    // Numero di record scritti con ogni sincronizzazione del disco
+    private final Histogram batchSizes = new Histogram();
+
+    /**
+     * Destinatario delle recensioni rilette dal log durante il recupero.
+     */
+    public interface ReplayConsumer {
+        void accept(Review review) throws IOException;
+    }
+
+    /**
+     * Record in attesa di essere scritto, con la conferma da completare quando è sul disco.
+     */
+    private static class PendingRecord {
+
+        private final Review review;
+        private final long enqueuedAt;
+        private final CompletableFuture<Void> commit;
+
+        private PendingRecord(Review review) {
+            this.review = review;
+            this.enqueuedAt = System.nanoTime();
+            this.commit = new CompletableFuture<>();
+        }
+    }
+
+    /**
+     * Costruttore della classe ReviewLog. Il log non può essere usato prima di aver invocato recover.
+     *
+     * @param directory          Directory che contiene segmenti e checkpoint; viene creata se non esiste.
+     * @param segmentSize        Dimensione in byte oltre la quale viene aperto un nuovo segmento.
+     * @param maxBatchSize       Numero massimo di record scritti con una sola sincronizzazione del disco.
+     * @param maxBatchDelayMicros Attesa massima in microsecondi, dall'arrivo del primo record, prima di scrivere un gruppo incompleto.
+     */
+    public ReviewLog(String directory, long segmentSize, int maxBatchSize, long maxBatchDelayMicros) {
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSize;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxBatchDelayMicros);
+    }
+
+    /**
+     * Restituisce l'ultimo checkpoint completo, da cui caricare le recensioni prima di rileggere il log.
+     *
+     * @return Il percorso del checkpoint, oppure null se non è ancora stato scritto alcun checkpoint.
+     * @throws IOException Se la directory del log non può essere letta.
+     */
+    public synchronized Path latestCheckpoint() throws IOException {
+        long number = latestCheckpointNumber();
+        return number < 0 ? null : checkpointPath(number);
+    }
+
+    /**
+     * Rilegge i record dei segmenti successivi all'ultimo checkpoint e apre l'ultimo segmento per le recensioni successive.
+     * Le recensioni inserite prima della fine del recupero attendono che il recupero sia completato.
+     *
+     * @param replay Destinatario delle recensioni rilette, nell'ordine in cui sono state registrate.
+     * @return Il numero di recensioni rilette.
+     * @throws IOException Se il log non può essere letto o il nuovo segmento non può essere creato.
+     */
+    public synchronized int recover(ReplayConsumer replay) throws IOException {
+        Files.createDirectories(directory);
+
+        long firstSegment = Math.max(latestCheckpointNumber(), 0);
+        List<Long> segments = listNumbers(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+
+        int replayed = 0;
+        long lastSegment = firstSegment - 1;
+        for (long number : segments) {
+            if (number < firstSegment) {
+                // Segmento già incluso nel checkpoint, rimasto per un'interruzione durante la pulizia
+                Files.deleteIfExists(segmentPath(number));
+                continue;
+            }
+            replayed += replaySegment(segmentPath(number), replay);
+            lastSegment = number;
+        }
+
+        // Le recensioni successive vengono aggiunte all'ultimo segmento riletto, già privato di un eventuale record incompleto
+        openSegment(Math.max(lastSegment, firstSegment));
+        dirty = replayed > 0;
+
+        writerThread = new Thread(this::writeBatches, "review-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        notifyAll();
+
+        Log.info("Log delle recensioni recuperato: {} recensioni rilette dai segmenti, segmento corrente {}", replayed, segmentNumber);
+        return replayed;
+    }
+
+    /**
+     * Richiede che il prossimo checkpoint venga scritto anche se non sono state inserite nuove recensioni,
+     * ad esempio dopo aver importato le recensioni in un formato diverso da quello del checkpoint.
+     */
+    public synchronized void markDirty() {
+        dirty = true;
+    }
+
+    /**
+     * Richiede la scrittura di una recensione nel log. Deve essere invocato con la lock in scrittura sulle recensioni acquisita,
+     * così l'ordine dei record coincide con quello degli inserimenti e i checkpoint vedono tutte le recensioni dei segmenti chiusi.
+     * Il metodo non attende la scrittura: il chiamante deve attendere la conferma dopo aver rilasciato la lock,
+     * così più recensioni possono essere scritte con la stessa sincronizzazione del disco.
+     *
+     * @param review La recensione da registrare.
+     * @return La conferma, completata quando il record è sul disco oppure con l'errore di scrittura.
+     */
+    public synchronized CompletableFuture<Void> append(Review review) {
+        PendingRecord record = new PendingRecord(review);
+        try {
+            awaitRecovery();
+        } catch (IOException e) {
+            record.commit.completeExceptionally(e);
+            return record.commit;
+        }
+        if (writerThread == null) {
+            record.commit.completeExceptionally(new IOException("Log delle recensioni chiuso"));
+            return record.commit;
+        }
+
+        pending.add(record);
+        dirty = true;
+        notifyAll();
+        return record.commit;
+    }
+
+    // Corpo del thread di scrittura: attende il primo record, poi raccoglie quelli arrivati entro l'attesa massima e li scrive insieme
+    private void writeBatches() {
+        List<PendingRecord> batch = new ArrayList<>(maxBatchSize);
+        while (true) {
+            synchronized (this) {
+                while (pending.isEmpty() && writerThread != null) {
+                    awaitNotification(0);
+                }
+                if (pending.isEmpty()) {
+                    // Il log è stato chiuso e non ci sono record da scrivere
+                    return;
+                }
+
+                // Attende altri record fino al riempimento del gruppo o alla scadenza dell'attesa dal primo record
+                long deadline = pending.peek().enqueuedAt + maxBatchDelayNanos;
+                long remaining;
+                while (pending.size() < maxBatchSize && writerThread != null && (remaining = deadline - System.nanoTime()) > 0) {
+                    awaitNotification(remaining);
+                }
+
+                while (batch.size() < maxBatchSize && !pending.isEmpty()) {
+                    batch.add(pending.poll());
+                }
+                writing = true;
+            }
+
+            // La scrittura avviene senza il monitor, così i nuovi record si accodano per il gruppo successivo
+            IOException error = null;
+            try {
+                writeBatch(batch);
+            } catch (IOException e) {
+                error = e;
+                Log.error("Errore durante la scrittura di " + batch.size() + " recensioni nel log", e);
+            }
+
+            long now = System.nanoTime();
+            batchSizes.record(batch.size());
+            for (PendingRecord record : batch) {
+                commitLatency.record(TimeUnit.NANOSECONDS.toMicros(now - record.enqueuedAt));
+                if (error == null) {
+                    record.commit.complete(null);
+                } else {
+                    record.commit.completeExceptionally(error);
+                }
+            }
+            batch.clear();
+
+            synchronized (this) {
+                writing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    // Scrive un gruppo di record con una sola scrittura, lo forza sul disco e passa al segmento successivo se necessario.
+    // Se la scrittura fallisce il segmento viene riportato alla fine dell'ultimo gruppo confermato
+    private void writeBatch(List<PendingRecord> batch) throws IOException {
+        batchBuffer.clear();
+        for (PendingRecord record : batch) {
+            recordBytes.reset();
+            encode(record.review, recordOut);
+
+            byte[] payload = recordBytes.toByteArray();
+            crc.reset();
+            crc.update(payload, 0, payload.length);
+
+            if (batchBuffer.remaining() < RECORD_HEADER + payload.length) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(batchBuffer.capacity() * 2, batchBuffer.position() + RECORD_HEADER + payload.length));
+                batchBuffer.flip();
+                batchBuffer = larger.put(batchBuffer);
+            }
+            batchBuffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        }
+
+        batchBuffer.flip();
+        // Posizione del segmento prima del gruppo, -1 se non è nota perché il segmento è già inutilizzabile
+        long start = -1;
+        try {
+            start = segment.position();
+            while (batchBuffer.hasRemaining()) {
+                segment.write(batchBuffer);
+            }
+            segment.force(false);
+        } catch (IOException e) {
+            discardBatch(start);
+            throw e;
+        }
+
+        if (segment.position() >= segmentSize) {
+            try {
+                openSegment(segmentNumber + 1);
+            } catch (IOException e) {
+                // I record del gruppo sono già sul disco: l'errore riguarda solo i gruppi successivi
+                Log.error("Errore durante l'apertura del segmento " + (segmentNumber + 1) + " del log delle recensioni", e);
+            }
+        }
+    }
+
+    // Elimina i record di un gruppo non confermato, scritti in parte o senza sincronizzazione, troncando il segmento
+    // alla posizione precedente al gruppo: altrimenti verrebbero riletti all'avvio e i gruppi successivi li seguirebbero.
+    // Se il segmento non può essere troncato i gruppi successivi vengono scritti in un nuovo segmento
+    private void discardBatch(long start) {
+        if (start >= 0) {
+            try {
+                segment.truncate(start);
+                segment.force(false);
+                return;
+            } catch (IOException e) {
+                Log.error("Errore durante il troncamento del segmento " + segmentNumber + " del log delle recensioni", e);
+            }
+        }
+
+        try {
+            segment.close();
+        } catch (IOException e) {
+            // Il segmento viene abbandonato comunque
+        }
+        try {
+            segment = openChannel(segmentNumber + 1);
+            segmentNumber++;
+        } catch (IOException e) {
+            Log.error("Errore durante l'apertura del segmento " + (segmentNumber + 1) + " del log delle recensioni", e);
+        }
+    }
+
+    // Attende una notifica sul monitor del log (senza limite se nanos è 0); restituisce true se l'attesa è stata interrotta
+    private boolean awaitNotification(long nanos) {
+        try {
+            if (nanos == 0) {
+                wait();
+            } else {
+                TimeUnit.NANOSECONDS.timedWait(this, nanos);
+            }
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+
+    // Attende che tutti i record richiesti siano stati scritti; invocato con il monitor del log acquisito.
+    // Un'interruzione non deve far perdere record in attesa: viene ignorata e restituita al chiamante, che la ripristina al termine
+    private boolean awaitFlushed() {
+        boolean interrupted = false;
+        while (!pending.isEmpty() || writing) {
+            interrupted |= awaitNotification(0);
+        }
+        return interrupted;
+    }
+
+    /**
+     * Restituisce una descrizione delle statistiche del commit di gruppo.
+     *
+     * @return Stringa con le distribuzioni della latenza dei commit in microsecondi e della dimensione dei gruppi.
+     */
+    public String getStats() {
+        return "log recensioni latenza commit (us) " + commitLatency + " | record per gruppo " + batchSizes;
+    }
+
+    /**
+     * Scrive un checkpoint con tutte le recensioni registrate finora, se dall'ultimo checkpoint sono state aggiunte recensioni.
+     * Deve essere invocato con la lock in lettura sulle recensioni acquisita, così nessuna recensione viene aggiunta durante il checkpoint.
+     * Le recensioni successive vengono scritte in un nuovo segmento, che sarà il primo da rileggere all'avvio.
+     *
+     * @param body Scrittura del contenuto JSON del checkpoint.
+     * @return true se il checkpoint è stato scritto, false se non c'erano recensioni nuove.
+     * @throws IOException Se il checkpoint non può essere scritto; in questo caso i segmenti vengono conservati.
+     */
+    public synchronized boolean checkpoint(JsonCodec.JsonBodyWriter body) throws IOException {
+        awaitRecovery();
+        if (!dirty) {
+            return false;
+        }
+
+        // Un'operazione su un FileChannel da parte di un thread interrotto chiude il canale, rendendo inutilizzabile il segmento
+        // corrente: l'interruzione (ad esempio quella che richiede l'ultimo checkpoint alla chiusura) viene ripristinata al termine
+        boolean interrupted = Thread.interrupted();
+        try {
+            // I record già richiesti devono finire nei segmenti inclusi nel checkpoint; con la lock in lettura non ne arrivano altri
+            interrupted |= awaitFlushed();
+
+            // I segmenti precedenti al nuovo segmento sono tutti inclusi nel checkpoint
+            long firstSegment = segmentNumber + 1;
+            openSegment(firstSegment);
+
+            Path temp = directory.resolve(CHECKPOINT_PREFIX + firstSegment + CHECKPOINT_SUFFIX + ".tmp");
+            JsonCodec.writeFile(temp.toString(), body);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, checkpointPath(firstSegment), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+
+            // Il nuovo checkpoint è visibile: i segmenti e i checkpoint precedenti non servono più
+            for (long number : listNumbers(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+                if (number < firstSegment) {
+                    Files.deleteIfExists(segmentPath(number));
+                }
+            }
+            for (long number : listNumbers(CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX)) {
+                if (number < firstSegment) {
+                    Files.deleteIfExists(checkpointPath(number));
+                }
+            }
+            return true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Scrive i record in attesa, arresta il thread di scrittura e chiude il segmento corrente.
+     * Le recensioni richieste dopo la chiusura vengono rifiutate.
+     */
+    public synchronized void close() {
+        if (writerThread != null) {
+            writerThread = null;
+            notifyAll();
+            if (awaitFlushed()) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (segment != null) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                Log.warn("Errore durante la chiusura del log delle recensioni: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Attende la fine del recupero, che apre il primo segmento
+    private void awaitRecovery() throws IOException {
+        while (segment == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Attesa del recupero del log delle recensioni interrotta");
+            }
+        }
+    }
+
+    // Chiude il segmento corrente, forzandolo sul disco, e apre il segmento indicato
+    private void openSegment(long number) throws IOException {
+        if (segment != null) {
+            segment.force(false);
+            segment.close();
+        }
+        segment = openChannel(number);
+        segmentNumber = number;
+    }
+
+    // Apre il segmento indicato per aggiungere record in coda
+    private FileChannel openChannel(long number) throws IOException {
+        return FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // Rilegge i record di un segmento; un record incompleto o danneggiato termina il segmento e viene rimosso
+    private int replaySegment(Path path, ReplayConsumer replay) throws IOException {
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer data = ByteBuffer.allocate((int) size);
+            while (data.hasRemaining() && channel.read(data) >= 0) {
+                // Legge l'intero segmento, la cui dimensione è limitata da segmentSize
+            }
+            data.flip();
+
+            long valid = 0;
+            while (data.remaining() >= RECORD_HEADER) {
+                int length = data.getInt();
+                int checksum = data.getInt();
+                if (length < 0 || length > data.remaining()) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                data.get(payload);
+
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                replay.accept(decode(payload));
+                valid = data.position();
+                count++;
+            }
+
+            if (valid < size) {
+                Log.warn("Scartati {} byte incompleti o danneggiati in coda al segmento {}", size - valid, path.getFileName());
+                channel.truncate(valid);
+            }
+        }
+        return count;
+    }
+
+    // Numero dell'ultimo checkpoint, -1 se non ce ne sono
+    private long latestCheckpointNumber() throws IOException {
+        List<Long> checkpoints = listNumbers(CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+        return checkpoints.isEmpty() ? -1 : checkpoints.get(checkpoints.size() - 1);
+    }
+
+    // Numeri dei file della directory con il prefisso e il suffisso indicati, in ordine crescente
+    private List<Long> listNumbers(String prefix, String suffix) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return numbers;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // File estraneo al log
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+
+    private Path checkpointPath(long number) {
+        return directory.resolve(CHECKPOINT_PREFIX + number + CHECKPOINT_SUFFIX);
+    }
+
+    // Codifica il contenuto di un record
+    private static void encode(Review review, DataOutputStream out) throws IOException {
+        out.writeInt(review.getIdHotel());
+        out.writeUTF(review.getUser());
+        out.writeUTF(review.getNameHotel());
+        out.writeInt(review.getGlobalscor());
+        out.writeUTF(review.getData());
+        Categories ratings = review.getRatings();
+        out.writeDouble(ratings.getCleaning());
+        out.writeDouble(ratings.getPosition());
+        out.writeDouble(ratings.getServices());
+        out.writeDouble(ratings.getQuality());
+    }
+
+    // Decodifica il contenuto di un record
+    private static Review decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int idHotel = in.readInt();
+        String user = in.readUTF();
+        String nameHotel = in.readUTF();
+        int globalScore = in.readInt();
+        String data = in.readUTF();
+        Categories ratings = new Categories(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+        return new Review(user, idHotel, nameHotel, globalScore, data, ratings);
+    }
+}
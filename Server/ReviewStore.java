@@ -0,0 +1,381 @@
+package Server;
+
+import Shared.Categories;
+import Shared.Hotel;
+import Shared.Review;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * La classe ReviewStore conserva le recensioni degli hotel in file di segmenti mappati in memoria, con record di dimensione fissa,
+ * così le recensioni non occupano lo heap della JVM: i dati restano nella cache delle pagine del sistema operativo
+ * e vengono letti direttamente dai buffer mappati.
+ *
+ * Ogni record contiene il numero del record precedente dello stesso hotel, per cui le recensioni di un hotel formano
+ * una lista concatenata dalla più recente alla più vecchia. Nello heap resta solo l'indice per ID dell'hotel,
+ * con l'ultimo record e il numero di recensioni di ogni hotel.
+ *
+ * Il contenuto dei segmenti viene forzato sul disco solo ai checkpoint del ReviewLog, che salvano il numero di record
+ * e l'indice: all'avvio i record successivi al checkpoint vengono scartati e ricostruiti rileggendo il log.
+ *
+ * La classe non è thread-safe: come la mappa delle recensioni che sostituisce, è protetta dalla lock sulle recensioni,
+ * in scrittura per gli inserimenti e in lettura per il calcolo del ranking e i checkpoint.
+ */
+public class ReviewStore {
+
+    /**
+     * Posizione nell'archivio delle recensioni di un hotel.
+     */
+    private static class HotelReviews {
+
+        // Numero dell'ultimo record dell'hotel
+        private long last;
+
+        // Numero di recensioni dell'hotel
+        private int count;
+
+        private HotelReviews(long last, int count) {
+            this.last = last;
+            this.count = count;
+        }
+    }
+
+    // Dimensione in byte di un record: solo i campi letti dal calcolo del ranking, il nome utente e il nome dell'hotel non vengono salvati
+    public static final int RECORD_SIZE = 56;
+
+    // Dimensione dei record degli archivi scritti prima che il nome utente e il nome dell'hotel venissero tolti dal record:
+    // i campi iniziali sono gli stessi, per cui questi archivi continuano a essere letti e ampliati con la dimensione originale
+    private static final int LEGACY_RECORD_SIZE = 128;
+
+    // Posizione dei campi all'interno di un record
+    private static final int PREVIOUS = 0;
+    private static final int ID_HOTEL = 8;
+    private static final int GLOBAL_SCORE = 12;
+    private static final int DATE = 16;
+    private static final int CLEANING = 24;
+    private static final int POSITION = 32;
+    private static final int SERVICES = 40;
+    private static final int QUALITY = 48;
+
+    private static final String SEGMENT_PREFIX = "reviews-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    // Formato della data delle recensioni, salvata nel record come numero di giorni dal 01/01/1970
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    // Proprietà del checkpoint con il numero di record, con la dimensione dei record e con l'indice degli hotel
+    private static final String RECORDS = "records";
+    private static final String RECORD_SIZE_NAME = "record_size";
+    private static final String HOTELS = "hotels";
+
+    // Directory che contiene i segmenti
+    private final Path directory;
+
+    // Numero di record di ogni segmento
+    private final int recordsPerSegment;
+
+    // Segmenti mappati in memoria, nell'ordine dei record
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    // Indice delle recensioni per ID dell'hotel
+    private final HashMap<Integer, HotelReviews> index = new HashMap<>();
+
+    // Numero di record nell'archivio
+    private long size;
+
+    // Numero di record già forzati sul disco
+    private long forcedSize;
+
+    // Dimensione in byte dei record dei segmenti, letta dal checkpoint per gli archivi scritti con record più grandi
+    private int recordSize = RECORD_SIZE;
+
+    /**
+     * Costruttore della classe ReviewStore. L'archivio non può essere usato prima di aver invocato restore o clear.
+     *
+     * @param directory         Directory che contiene i segmenti; viene creata se non esiste.
+     * @param recordsPerSegment Numero di record di ogni segmento.
+     * @throws IllegalArgumentException Se un segmento supera la dimensione massima di un file mappato (2 GB).
+     */
+    public ReviewStore(String directory, int recordsPerSegment) {
+        if (recordsPerSegment <= 0 || (long) recordsPerSegment * LEGACY_RECORD_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Numero di record per segmento non valido: " + recordsPerSegment);
+        }
+        this.directory = Paths.get(directory);
+        this.recordsPerSegment = recordsPerSegment;
+    }
+
+    /**
+     * Ripristina l'archivio dal contenuto di un checkpoint scritto da writeCheckpoint: i record successivi
+     * a quelli del checkpoint vengono scartati, perché non erano ancora stati forzati sul disco.
+     *
+     * @param checkpoint Il file del checkpoint.
+     * @return true se l'archivio è stato ripristinato, false se il checkpoint non è stato scritto dall'archivio
+     *         (un checkpoint con le recensioni in JSON di una versione precedente del server).
+     * @throws IOException Se il checkpoint o i segmenti non possono essere letti.
+     */
+    public boolean restore(Path checkpoint) throws IOException {
+        long records = -1;
+        // Un checkpoint senza la dimensione dei record è stato scritto con i record che contenevano i nomi
+        int restoredRecordSize = LEGACY_RECORD_SIZE;
+        HashMap<Integer, HotelReviews> restored = new HashMap<>();
+
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(checkpoint, StandardCharsets.UTF_8))) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return false;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (RECORDS.equals(name)) {
+                    records = reader.nextLong();
+                } else if (RECORD_SIZE_NAME.equals(name)) {
+                    restoredRecordSize = reader.nextInt();
+                } else if (HOTELS.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        int idHotel = Integer.parseInt(reader.nextName());
+                        reader.beginArray();
+                        long last = reader.nextLong();
+                        int count = reader.nextInt();
+                        reader.endArray();
+                        restored.put(idHotel, new HotelReviews(last, count));
+                    }
+                    reader.endObject();
+                } else {
+                    // Le proprietà di un checkpoint in JSON sono gli ID degli hotel
+                    return false;
+                }
+            }
+            reader.endObject();
+        }
+        if (records < 0) {
+            return false;
+        }
+
+        if (restoredRecordSize < RECORD_SIZE) {
+            throw new IOException("Dimensione dei record dell'archivio delle recensioni non valida: " + restoredRecordSize);
+        }
+
+        clear();
+        recordSize = restoredRecordSize;
+        Files.createDirectories(directory);
+        long needed = (records + recordsPerSegment - 1) / recordsPerSegment;
+        for (long number = 0; number < needed; number++) {
+            if (!Files.exists(segmentPath(number))) {
+                throw new IOException("Segmento dell'archivio delle recensioni mancante: " + segmentPath(number));
+            }
+            segments.add(map(number));
+        }
+        size = records;
+        forcedSize = records;
+        index.putAll(restored);
+        Log.info("Archivio delle recensioni ripristinato: {} recensioni di {} hotel in {} segmenti", size, index.size(), segments.size());
+        return true;
+    }
+
+    /**
+     * Svuota l'archivio, ad esempio prima di importare le recensioni da un file JSON.
+     * I segmenti esistenti vengono riutilizzati e sovrascritti dalle nuove recensioni, con la dimensione attuale dei record.
+     */
+    public void clear() {
+        segments.clear();
+        index.clear();
+        size = 0;
+        forcedSize = 0;
+        recordSize = RECORD_SIZE;
+    }
+
+    /**
+     * Aggiunge una recensione all'archivio. Deve essere invocato con la lock in scrittura sulle recensioni acquisita.
+     *
+     * @param review La recensione da aggiungere.
+     * @return Il numero del record della recensione, da indicare a remove per annullare l'inserimento.
+     * @throws IOException Se non è possibile creare un nuovo segmento.
+     */
+    public long append(Review review) throws IOException {
+        long record = size;
+        int segmentIndex = (int) (record / recordsPerSegment);
+        if (segmentIndex == segments.size()) {
+            Files.createDirectories(directory);
+            segments.add(map(segmentIndex));
+        }
+        MappedByteBuffer segment = segments.get(segmentIndex);
+        int offset = (int) (record % recordsPerSegment) * recordSize;
+
+        HotelReviews hotel = index.get(review.getIdHotel());
+        Categories ratings = review.getRatings();
+        segment.putLong(offset + PREVIOUS, hotel == null ? -1 : hotel.last);
+        segment.putInt(offset + ID_HOTEL, review.getIdHotel());
+        segment.putInt(offset + GLOBAL_SCORE, review.getGlobalscor());
+        segment.putLong(offset + DATE, LocalDate.parse(review.getData(), DATE_FORMAT).toEpochDay());
+        segment.putDouble(offset + CLEANING, ratings.getCleaning());
+        segment.putDouble(offset + POSITION, ratings.getPosition());
+        segment.putDouble(offset + SERVICES, ratings.getServices());
+        segment.putDouble(offset + QUALITY, ratings.getQuality());
+
+        size++;
+        if (hotel == null) {
+            index.put(review.getIdHotel(), new HotelReviews(record, 1));
+        } else {
+            hotel.last = record;
+            hotel.count++;
+        }
+        return record;
+    }
+
+    /**
+     * Annulla l'inserimento di una recensione, ad esempio se non è stato possibile registrarla nel ReviewLog.
+     * Il record viene tolto dalla lista delle recensioni del suo hotel, ricollegando il record successivo dello stesso hotel
+     * a quello precedente, e non viene più letto; lo spazio del record non viene riutilizzato, perché nel frattempo
+     * possono essere state aggiunte altre recensioni. Deve essere invocato con la lock in scrittura sulle recensioni acquisita.
+     *
+     * @param record Il numero del record restituito da append.
+     */
+    public void remove(long record) {
+        MappedByteBuffer segment = segments.get((int) (record / recordsPerSegment));
+        int offset = (int) (record % recordsPerSegment) * recordSize;
+        int idHotel = segment.getInt(offset + ID_HOTEL);
+        long previous = segment.getLong(offset + PREVIOUS);
+
+        HotelReviews hotel = index.get(idHotel);
+        if (hotel == null) {
+            return;
+        }
+        if (hotel.last == record) {
+            hotel.last = previous;
+        } else {
+            // Cerca, dalla recensione più recente dell'hotel, il record che punta a quello da togliere
+            long next = hotel.last;
+            while (next > record) {
+                MappedByteBuffer nextSegment = segments.get((int) (next / recordsPerSegment));
+                int nextOffset = (int) (next % recordsPerSegment) * recordSize;
+                long nextPrevious = nextSegment.getLong(nextOffset + PREVIOUS);
+                if (nextPrevious == record) {
+                    nextSegment.putLong(nextOffset + PREVIOUS, previous);
+                    break;
+                }
+                next = nextPrevious;
+            }
+            if (next <= record) {
+                // Il record non fa parte della lista dell'hotel, ad esempio perché è già stato tolto
+                return;
+            }
+        }
+        if (--hotel.count == 0) {
+            index.remove(idHotel);
+        }
+    }
+
+    /**
+     * Ricalcola il ranking di un hotel leggendo i punteggi delle sue recensioni direttamente dai segmenti,
+     * senza creare oggetti Review. Deve essere invocato con la lock in lettura sulle recensioni acquisita.
+     *
+     * @param hotel L'hotel di cui ricalcolare il ranking.
+     * @param today La data odierna, per il peso dell'attualità delle recensioni.
+     * @return true se almeno un voto dell'hotel è cambiato.
+     */
+    public boolean calculateRanking(Hotel hotel, LocalDate today) {
+        HotelReviews reviews = index.get(hotel.getId());
+        if (reviews == null) {
+            return false;
+        }
+
+        long todayEpochDay = today.toEpochDay();
+        double totalRate = 0.0;
+        double cleaningRate = 0.0;
+        double positionRate = 0.0;
+        double servicesRate = 0.0;
+        double qualityRate = 0.0;
+
+        // Segue la lista delle recensioni dell'hotel, dalla più recente alla più vecchia
+        for (long record = reviews.last; record >= 0; ) {
+            MappedByteBuffer segment = segments.get((int) (record / recordsPerSegment));
+            int offset = (int) (record % recordsPerSegment) * recordSize;
+
+            double recencyWeight = Hotel.recencyWeight(todayEpochDay - segment.getLong(offset + DATE));
+            totalRate += recencyWeight * segment.getInt(offset + GLOBAL_SCORE);
+            cleaningRate += recencyWeight * segment.getDouble(offset + CLEANING);
+            positionRate += recencyWeight * segment.getDouble(offset + POSITION);
+            servicesRate += recencyWeight * segment.getDouble(offset + SERVICES);
+            qualityRate += recencyWeight * segment.getDouble(offset + QUALITY);
+
+            record = segment.getLong(offset + PREVIOUS);
+        }
+        return hotel.calcolaRanking(reviews.count, totalRate, cleaningRate, positionRate, servicesRate, qualityRate);
+    }
+
+    /**
+     * Forza sul disco i record aggiunti dall'ultimo checkpoint e scrive il numero di record e l'indice degli hotel,
+     * come contenuto del checkpoint del ReviewLog. Deve essere invocato con la lock in lettura sulle recensioni acquisita.
+     *
+     * @param writer JsonWriter del checkpoint.
+     * @throws IOException Se si verifica un errore durante la scrittura.
+     */
+    public void writeCheckpoint(JsonWriter writer) throws IOException {
+        if (size > forcedSize) {
+            int first = (int) (forcedSize / recordsPerSegment);
+            int last = (int) ((size - 1) / recordsPerSegment);
+            for (int segment = first; segment <= last; segment++) {
+                segments.get(segment).force();
+            }
+            forcedSize = size;
+        }
+
+        writer.beginObject();
+        writer.name(RECORDS).value(size);
+        writer.name(RECORD_SIZE_NAME).value(recordSize);
+        writer.name(HOTELS).beginObject();
+        for (Map.Entry<Integer, HotelReviews> entry : index.entrySet()) {
+            writer.name(entry.getKey().toString());
+            writer.beginArray().value(entry.getValue().last).value(entry.getValue().count).endArray();
+        }
+        writer.endObject();
+        writer.endObject();
+    }
+
+    /**
+     * Restituisce il numero di recensioni nell'archivio.
+     *
+     * @return Il numero di record.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Restituisce una descrizione delle statistiche dell'archivio.
+     *
+     * @return Stringa con il numero di recensioni, di hotel recensiti e di segmenti mappati.
+     */
+    public String getStats() {
+        return "archivio recensioni record=" + size + " hotel=" + index.size() + " segmenti=" + segments.size()
+                + " byte mappati=" + (long) segments.size() * recordsPerSegment * recordSize;
+    }
+
+    // Mappa in memoria un segmento, creandolo se non esiste; il file mappato resta valido anche dopo la chiusura del canale
+    private MappedByteBuffer map(long number) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) recordsPerSegment * recordSize);
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+}
@@ -1,11 +1,15 @@
 package Server;
 
+import Shared.FrameCompressor;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Properties;
+import java.lang.reflect.Method;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -23,11 +27,17 @@ public class ServerMain {
             fis = new FileInputStream(config);
             prop.load(fis);
 
+            // avvio il log prima di creare il server, così anche i messaggi di avvio vengono registrati
+            String logFile = prop.getProperty("log_file");
+            Log.start(Log.Level.valueOf(prop.getProperty("log_level").trim().toUpperCase()),
+                    logFile.isEmpty() ? null : System.getProperty("user.dir") + logFile,
+                    Integer.parseInt(prop.getProperty("log_buffer_size")));
+
             int coreCount = Runtime.getRuntime().availableProcessors();
-            System.out.println("numero di core disponibili sulla macchina : " + coreCount);
+            Log.info("numero di core disponibili sulla macchina : {}", coreCount);
 
             HotelierServer server = new HotelierServer(
-                    Executors.newFixedThreadPool(coreCount),
+                    createTaskExecutor(prop.getProperty("task_executor"), coreCount),
                     Integer.parseInt(prop.getProperty("registry_port")),
                     Integer.parseInt(prop.getProperty("registr_obj")),
                     Integer.parseInt(prop.getProperty("notific_obj")),
@@ -44,7 +54,8 @@ public class ServerMain {
                     null,
                     null,
                     new HashMap<>(),
-                    new HashMap<>(),
+                    new ReviewStore(System.getProperty("user.dir") + prop.getProperty("review_store_dir"),
+                            Integer.parseInt(prop.getProperty("review_store_segment_records"))),
                     new HashMap<>(),
                     new HashMap<>(),
                     new ConcurrentHashMap<>(),
@@ -65,7 +76,25 @@ public class ServerMain {
                     null,
                     null,
                     null,
-                    null
+                    null,
+                    Long.parseLong(prop.getProperty("outbound_high_water")),
+                    Integer.parseInt(prop.getProperty("io_reactors")),
+                    prop.getProperty("reactor_balancing"),
+                    Long.parseLong(prop.getProperty("reactor_stats_interval")),
+                    Integer.parseInt(prop.getProperty("read_buffer_pool_size")),
+                    Long.parseLong(prop.getProperty("read_buffer_pool_max_bytes")),
+                    Integer.parseInt(prop.getProperty("max_frame_size")),
+                    new FrameCompressor(Integer.parseInt(prop.getProperty("compression_threshold"))),
+                    Long.parseLong(prop.getProperty("idle_timeout")),
+                    Integer.parseInt(prop.getProperty("max_queued_requests")),
+                    Integer.parseInt(prop.getProperty("max_requests_per_connection")),
+                    new RateLimiter(prop.getProperty("rate_limit_connection"), prop.getProperty("rate_limit_user")),
+                    new ReviewLog(System.getProperty("user.dir") + prop.getProperty("review_log_dir"),
+                            Long.parseLong(prop.getProperty("review_log_segment_size")),
+                            Integer.parseInt(prop.getProperty("review_commit_max_batch")),
+                            Long.parseLong(prop.getProperty("review_commit_max_delay_us"))),
+                    new DataVersion(),
+                    new HotelShards(System.getProperty("user.dir") + prop.getProperty("hotel_shard_dir"))
                   );
 
             server.loadDataFromDisk();
@@ -75,11 +104,40 @@ public class ServerMain {
             server.startServer();
             fis.close();
         } catch (Exception e) {
-            e.printStackTrace();
+            Log.error("Errore durante l'avvio del server", e);
+            // Scrive i messaggi di log ancora in coda prima che la JVM termini
+            Log.shutdown();
         }
 
 
 
 
+    }
+
+    /**
+     * Crea l'esecutore dei task delle richieste in base alla modalità indicata nel file di configurazione.
+     * Con la modalità "virtual" ogni task viene eseguito su un nuovo thread virtuale, per cui i task bloccati
+     * in attesa di un lock non occupano un thread del pool; se la JVM non supporta i thread virtuali
+     * viene usato il pool di dimensione fissa.
+     *
+     * @param mode      Modalità di esecuzione: "virtual" oppure "fixed".
+     * @param coreCount Numero di thread del pool di dimensione fissa.
+     * @return L'esecutore dei task.
+     */
+    private static ExecutorService createTaskExecutor(String mode, int coreCount) {
+        if ("virtual".equalsIgnoreCase(mode)) {
+            try {
+                // Invocato tramite reflection perché il metodo non esiste nelle JVM precedenti a Java 21
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                ExecutorService executor = (ExecutorService) factory.invoke(null);
+                Log.info("Esecuzione dei task su thread virtuali");
+                return executor;
+            } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+                Log.warn("Thread virtuali non disponibili in questa JVM, uso un pool di {} thread", coreCount);
+            }
+        }
+
+        Log.info("Esecuzione dei task su un pool di {} thread", coreCount);
+        return Executors.newFixedThreadPool(coreCount);
     }
 }
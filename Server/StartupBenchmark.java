@@ -0,0 +1,139 @@
+package Server;
+
+import Shared.Categories;
+import Shared.Hotel;
+import Shared.JsonCodec;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * La classe StartupBenchmark misura il tempo di caricamento degli utenti registrati e degli hotel all'avvio del server,
+ * confrontando la lettura dei file JSON con Gson con quella degli snapshot binari di BinarySnapshot.
+ *
+ * I file vengono generati in una cartella temporanea con il numero di utenti e di hotel indicato, scritti come li scrive il server,
+ * oppure copiati dalla cartella indicata, che deve contenere RegistrazioniUtenti.txt e ListaHotel.txt.
+ * Per ogni formato stampa la dimensione del file e il tempo mediano di caricamento, dopo un riscaldamento
+ * che consente alla JVM di compilare il codice misurato; il primo caricamento, senza riscaldamento, è quello di un avvio a freddo.
+ *
+ * Utilizzo: StartupBenchmark [utenti] [hotel] [iterazioni] oppure StartupBenchmark --dir cartella [iterazioni]
+ */
+public class StartupBenchmark {
+
+    // Città e servizi degli hotel generati
+    private static final String[] CITIES = {"Roma", "Milano", "Napoli", "Torino", "Firenze", "Venezia", "Bologna", "Genova", "Bari", "Palermo"};
+    private static final String[] SERVICES = {"TV in camera", "Palestra", "Cancellazione gratuita", "Wi-Fi", "Parcheggio", "Colazione inclusa"};
+
+    // Accumula un valore derivato dai dati caricati, così la JVM non può eliminare il caricamento
+    private static long sink;
+
+    /**
+     * Caricamento misurato, a partire dal percorso del file JSON.
+     */
+    private interface Loader {
+        long load(String jsonPath) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("startup-benchmark");
+        String usersPath = directory.resolve("RegistrazioniUtenti.txt").toString();
+        String hotelsPath = directory.resolve("ListaHotel.txt").toString();
+        int iterations;
+
+        if (args.length > 0 && args[0].equals("--dir")) {
+            Files.copy(new File(args[1], "RegistrazioniUtenti.txt").toPath(), Path.of(usersPath));
+            Files.copy(new File(args[1], "ListaHotel.txt").toPath(), Path.of(hotelsPath));
+            iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        } else {
+            int users = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+            int hotels = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+            iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+            generateUsers(usersPath, users);
+            generateHotels(hotelsPath, hotels);
+        }
+
+        // Gli snapshot vengono scritti dai dati letti dal JSON, come fa il server al primo avvio
+        ConcurrentHashMap<String, User> users = HotelierServer.readUsersJson(usersPath);
+        BinarySnapshot.writeUsers(usersPath, users == null ? List.of() : users.values());
+        HashMap<String, HashMap<String, Hotel>> hotelDB = new HashMap<>();
+        List<Hotel> hotels = HotelierServer.readHotelsJson(hotelsPath);
+        if (hotels != null) {
+            for (Hotel hotel : hotels) {
+                hotelDB.computeIfAbsent(hotel.getCity().toLowerCase(), k -> new HashMap<>()).put(hotel.getName().toLowerCase(), hotel);
+            }
+        }
+        BinarySnapshot.writeHotels(hotelsPath, hotelDB.values());
+
+        System.out.printf("%-22s %12s %14s %14s%n", "file", "byte", "ms a freddo", "ms mediana");
+        measure("utenti JSON", usersPath, Path.of(usersPath), iterations, path -> {
+            Map<String, User> loaded = HotelierServer.readUsersJson(path);
+            return loaded == null ? 0 : loaded.size();
+        });
+        measure("utenti snapshot", usersPath, BinarySnapshot.snapshotPath(usersPath), iterations, path -> BinarySnapshot.readUsers(path).size());
+        measure("hotel JSON", hotelsPath, Path.of(hotelsPath), iterations, path -> {
+            List<Hotel> loaded = HotelierServer.readHotelsJson(path);
+            return loaded == null ? 0 : loaded.size();
+        });
+        measure("hotel snapshot", hotelsPath, BinarySnapshot.snapshotPath(hotelsPath), iterations, path -> BinarySnapshot.readHotels(path).size());
+        System.out.println("controllo=" + sink);
+
+        for (String jsonPath : new String[]{usersPath, hotelsPath}) {
+            Files.deleteIfExists(BinarySnapshot.snapshotPath(jsonPath));
+            Files.deleteIfExists(Path.of(jsonPath));
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    // Stampa la dimensione del file, il tempo del primo caricamento e la mediana dei caricamenti successivi
+    private static void measure(String name, String jsonPath, Path file, int iterations, Loader loader) throws Exception {
+        long start = System.nanoTime();
+        sink += loader.load(jsonPath);
+        long coldNanos = System.nanoTime() - start;
+
+        long[] nanos = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            start = System.nanoTime();
+            sink += loader.load(jsonPath);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("%-22s %12d %14.1f %14.1f%n", name, Files.size(file), coldNanos / 1e6, nanos[iterations / 2] / 1e6);
+    }
+
+    // Scrive il file degli utenti come lo scrive WriteRegistrationToFileTask
+    private static void generateUsers(String filePath, int count) throws Exception {
+        ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
+        for (int i = 0; i < count; i++) {
+            users.put("utente" + i, new User("utente" + i, "password-cifrata-" + Integer.toHexString(i * 31), i % 25, null));
+        }
+        JsonCodec.writeFile(filePath, writer -> JsonCodec.PRETTY_GSON.toJson(users, users.getClass(), writer));
+    }
+
+    // Scrive il file degli hotel come lo scrive WriteHotelsToFileTask
+    private static void generateHotels(String filePath, int count) throws Exception {
+        JsonCodec.writeFile(filePath, (JsonWriter writer) -> {
+            writer.beginArray();
+            for (int i = 0; i < count; i++) {
+                String city = CITIES[i % CITIES.length];
+                List<String> services = new ArrayList<>();
+                for (int s = 0; s < SERVICES.length; s++) {
+                    if ((i >> s & 1) == 0) {
+                        services.add(SERVICES[s]);
+                    }
+                }
+                Hotel hotel = new Hotel(i + 1, "Hotel " + city + " " + (i + 1), "Un ridente hotel a " + city + ", in via della Rilassatezza " + i,
+                        city, "347-" + (4453634 + i), services, 1 + i % 4 + 0.5, new Categories(1 + i % 5, 2 + i % 3, 3, 4 + i % 2));
+                JsonCodec.PRETTY_GSON.toJson(hotel, Hotel.class, writer);
+            }
+            writer.endArray();
+        });
+    }
+}
@@ -0,0 +1,97 @@
+package Server;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * La classe TimingWheel implementa una ruota temporale (hashed timing wheel) per gestire un gran numero di scadenze
+ * con costo costante: il tempo è diviso in intervalli (tick) e ogni elemento viene inserito nello slot
+ * corrispondente al tick della sua scadenza. Avanzando la ruota vengono restituiti solo gli elementi
+ * degli slot superati, senza scorrere tutti gli elementi programmati.
+ *
+ * Gli elementi non possono essere rimossi: chi usa la ruota deve verificare, quando un elemento scade,
+ * se la scadenza è ancora valida ed eventualmente programmarlo di nuovo.
+ * Una scadenza oltre un giro completo della ruota viene restituita in anticipo, al primo passaggio sul suo slot.
+ * La ruota non è thread-safe e deve essere usata da un solo thread.
+ *
+ * @param <T> Tipo degli elementi programmati.
+ */
+public class TimingWheel<T> {
+
+    // Durata di uno slot in millisecondi
+    private final long tickMillis;
+
+    // Slot della ruota, ognuno con gli elementi che scadono nel relativo tick
+    private final ArrayDeque<T>[] slots;
+
+    // Ultimo tick già elaborato
+    private long currentTick;
+
+    // Numero di elementi programmati nella ruota
+    private int size;
+
+    /**
+     * Costruttore della classe TimingWheel.
+     *
+     * @param tickMillis Durata di uno slot in millisecondi.
+     * @param slotCount  Numero di slot della ruota; un giro completo dura tickMillis * slotCount millisecondi.
+     * @param now        Istante iniziale in millisecondi.
+     */
+    public TimingWheel(long tickMillis, int slotCount, long now) {
+        this.tickMillis = tickMillis;
+        // Non si può creare un array di un tipo generico: l'array viene creato senza parametro e convertito
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayDeque<T>[] deques = new ArrayDeque[slotCount];
+        this.slots = deques;
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ArrayDeque<>();
+        }
+        this.currentTick = now / tickMillis;
+        this.size = 0;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Programma un elemento per la scadenza indicata. Una scadenza già passata viene restituita al tick successivo.
+     *
+     * @param item     L'elemento da programmare.
+     * @param deadline Istante di scadenza in millisecondi.
+     */
+    public void schedule(T item, long deadline) {
+        long tick = Math.max(deadline / tickMillis, currentTick + 1);
+        slots[(int) (tick % slots.length)].add(item);
+        size++;
+    }
+
+    /**
+     * Avanza la ruota fino all'istante indicato e passa al consumer gli elementi degli slot superati.
+     * Il consumer può programmare di nuovo gli elementi ricevuti.
+     *
+     * @param now     Istante corrente in millisecondi.
+     * @param expired Consumer a cui vengono passati gli elementi scaduti.
+     */
+    public void advance(long now, Consumer<T> expired) {
+        long targetTick = now / tickMillis;
+
+        // Dopo una pausa più lunga di un giro ogni slot viene elaborato una sola volta
+        long ticks = Math.min(targetTick - currentTick, slots.length);
+        for (long i = 0; i < ticks; i++) {
+            ArrayDeque<T> slot = slots[(int) ((currentTick + 1 + i) % slots.length)];
+
+            // Gli elementi programmati di nuovo nello stesso slot vengono elaborati al prossimo giro
+            int count = slot.size();
+            for (int k = 0; k < count; k++) {
+                size--;
+                expired.accept(slot.poll());
+            }
+        }
+        currentTick = Math.max(currentTick, targetTick);
+    }
+}
@@ -0,0 +1,56 @@
+package Server;
+
+/**
+ * La classe TokenBucket implementa un limite di frequenza a secchiello di gettoni (token bucket):
+ * il secchiello si riempie di gettoni alla velocità indicata fino alla sua capacità,
+ * e ogni richiesta consuma un gettone. Quando il secchiello è vuoto la richiesta va rifiutata.
+ * La capacità indica quante richieste possono arrivare di seguito (raffica) dopo un periodo di inattività.
+ * I gettoni vengono ricaricati solo quando si tenta di consumarli, per cui non serve un thread che li aggiorni.
+ * Il secchiello può essere usato da più thread contemporaneamente.
+ */
+public class TokenBucket {
+
+    // Gettoni aggiunti ogni nanosecondo
+    private final double tokensPerNano;
+
+    // Numero massimo di gettoni nel secchiello
+    private final double capacity;
+
+    // Gettoni disponibili
+    private double tokens;
+
+    // Istante in nanosecondi dell'ultima ricarica
+    private long lastRefill;
+
+    /**
+     * Costruttore della classe TokenBucket. Il secchiello viene creato pieno.
+     *
+     * @param ratePerSecond Numero di gettoni aggiunti ogni secondo.
+     * @param capacity      Numero massimo di gettoni nel secchiello.
+     * @param now           Istante corrente in nanosecondi.
+     */
+    public TokenBucket(double ratePerSecond, double capacity, long now) {
+        this.tokensPerNano = ratePerSecond / 1_000_000_000.0;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Consuma un gettone, se disponibile, dopo aver ricaricato quelli maturati dall'ultima ricarica.
+     *
+     * @param now Istante corrente in nanosecondi.
+     * @return true se il gettone è stato consumato, false se il secchiello è vuoto.
+     */
+    public synchronized boolean tryAcquire(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+        }
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
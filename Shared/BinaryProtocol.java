@@ -0,0 +1,494 @@
+package Shared;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * La classe BinaryProtocol definisce la codifica binaria compatta di richieste e risposte,
+ * alternativa al JSON e usata sulle connessioni che l'hanno negoziata con l'operazione SetProtocol.
+ *
+ * Ogni messaggio è preceduto, come nel protocollo JSON, da un intero di 4 byte con la lunghezza del corpo.
+ * Il corpo di una richiesta è composto dal codice dell'operazione (1 byte), da un byte di flag
+ * (bit 0: è presente l'identificativo della richiesta), dall'eventuale identificativo (8 byte)
+ * e dai parametri dell'operazione, in un ordine fisso.
+ * Il corpo di una risposta è composto dal codice di stato (2 byte), dal byte di flag, dall'eventuale identificativo,
+ * dal messaggio testuale e dal risultato, preceduto da un byte che ne indica il tipo.
+ *
+ * Un batch contiene il numero di richieste (2 byte senza segno) seguito da ogni richiesta, composta dal codice
+ * dell'operazione e dai suoi parametri; il risultato della risposta contiene, per ogni richiesta, il codice di stato,
+ * il messaggio testuale e il risultato.
+ *
+ * Le stringhe sono codificate in UTF-8 precedute dalla lunghezza in byte (2 byte senza segno, 0xFFFF per null),
+ * i punteggi delle recensioni occupano un byte ciascuno e i voti degli hotel 8 byte (double).
+ */
+public final class BinaryProtocol {
+
+    // Nome del protocollo binario e del protocollo JSON, usati nella negoziazione
+    public static final String BINARY = "binary";
+    public static final String JSON = "json";
+
+    // Codici delle operazioni
+    public static final byte OP_LOGIN = 1;
+    public static final byte OP_LOGOUT = 2;
+    public static final byte OP_SEARCH_HOTEL = 3;
+    public static final byte OP_INSERT_REVIEW = 4;
+    public static final byte OP_SHOW_MY_BADGES = 5;
+    public static final byte OP_SEARCH_ALL_HOTELS = 6;
+    public static final byte OP_SEND_KEY = 7;
+    public static final byte OP_SET_PROTOCOL = 8;
+    public static final byte OP_SET_COMPRESSION = 9;
+    public static final byte OP_BATCH = 10;
+
+    // Tipi del risultato di una risposta
+    private static final byte RESULT_NONE = 0;
+    private static final byte RESULT_STRING = 1;
+    private static final byte RESULT_HOTEL = 2;
+    private static final byte RESULT_HOTEL_LIST = 3;
+    private static final byte RESULT_PAIR = 4;
+    private static final byte RESULT_BATCH = 5;
+
+    // Flag che indica la presenza dell'identificativo della richiesta
+    private static final byte FLAG_ID = 1;
+
+    // Byte iniziali del corpo di una risposta senza identificativo: codice di stato e byte di flag
+    public static final int RESPONSE_HEAD = Short.BYTES + 1;
+
+    // Lunghezza che rappresenta una stringa nulla
+    private static final int NULL_LENGTH = 0xFFFF;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Restituisce il codice binario di un'operazione a partire dal suo nome nel protocollo JSON.
+     *
+     * @param operation Il nome dell'operazione.
+     * @return Il codice dell'operazione.
+     * @throws IllegalArgumentException Se l'operazione non esiste.
+     */
+    public static byte opcodeOf(String operation) {
+        switch (operation) {
+            case "Login":
+                return OP_LOGIN;
+            case "Logout":
+                return OP_LOGOUT;
+            case "SearchHotel":
+                return OP_SEARCH_HOTEL;
+            case "InsertReview":
+                return OP_INSERT_REVIEW;
+            case "ShowMyBadges":
+                return OP_SHOW_MY_BADGES;
+            case "SearchAllHotels":
+                return OP_SEARCH_ALL_HOTELS;
+            case "SendKey":
+                return OP_SEND_KEY;
+            case "SetProtocol":
+                return OP_SET_PROTOCOL;
+            case "SetCompression":
+                return OP_SET_COMPRESSION;
+            case "Batch":
+                return OP_BATCH;
+            default:
+                throw new IllegalArgumentException("Operazione sconosciuta: " + operation);
+        }
+    }
+
+    /**
+     * Codifica una richiesta, con l'intestazione contenente la lunghezza.
+     * I parametri sono quelli che il client inserisce nella richiesta JSON, con gli stessi nomi;
+     * le richieste di un batch sono delle Map con i campi "operation" e "param".
+     *
+     * @param operation Il nome dell'operazione.
+     * @param params    I parametri della richiesta.
+     * @param id        L'identificativo della richiesta, oppure null.
+     * @return Il messaggio codificato, pronto per la lettura.
+     */
+    public static ByteBuffer encodeRequest(String operation, Map<String, Object> params, Long id) {
+        byte opcode = opcodeOf(operation);
+        return encode(out -> {
+            out.writeByte(opcode);
+            writeId(out, id);
+            writeParams(out, opcode, params);
+        });
+    }
+
+    // Scrive i parametri di una richiesta nell'ordine previsto per l'operazione
+    private static void writeParams(DataOutputStream out, byte opcode, Map<String, Object> params) throws IOException {
+        switch (opcode) {
+            case OP_LOGIN:
+                writeString(out, (String) params.get("username"));
+                writeBytes(out, (byte[]) params.get("password"));
+                writeString(out, (String) params.get("uuidClient"));
+                break;
+            case OP_LOGOUT:
+                writeString(out, (String) params.get("username"));
+                break;
+            case OP_SEARCH_HOTEL:
+                writeString(out, (String) params.get("name_hotel"));
+                writeString(out, (String) params.get("city_hotel"));
+                break;
+            case OP_INSERT_REVIEW:
+                writeString(out, (String) params.get("name_hotel"));
+                writeString(out, (String) params.get("city_hotel"));
+                out.writeByte((Integer) params.get("global_score"));
+                int[] singleScores = (int[]) params.get("singles_scores");
+                out.writeByte(singleScores.length);
+                for (int score : singleScores) {
+                    out.writeByte(score);
+                }
+                break;
+            case OP_SHOW_MY_BADGES:
+                break;
+            case OP_SEARCH_ALL_HOTELS:
+                writeString(out, (String) params.get("city_hotel"));
+                break;
+            case OP_SEND_KEY:
+                writeString(out, (String) params.get("public_key"));
+                break;
+            case OP_SET_PROTOCOL:
+                writeString(out, (String) params.get("protocol"));
+                break;
+            case OP_SET_COMPRESSION:
+                out.writeBoolean((Boolean) params.get("enabled"));
+                break;
+            case OP_BATCH:
+                List<?> requests = (List<?>) params.get("requests");
+                out.writeShort(requests.size());
+                for (Object item : requests) {
+                    Map<?, ?> request = (Map<?, ?>) item;
+                    byte itemOpcode = opcodeOf((String) request.get("operation"));
+                    if (itemOpcode == OP_BATCH) {
+                        throw new IllegalArgumentException("Un batch non può contenere un altro batch");
+                    }
+                    out.writeByte(itemOpcode);
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> itemParams = (Map<String, Object>) request.get("param");
+                    writeParams(out, itemOpcode, itemParams);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Codifica una risposta, con l'intestazione contenente la lunghezza.
+     *
+     * @param response La risposta da codificare.
+     * @return La risposta codificata, pronta per la lettura.
+     * @throws IllegalArgumentException Se il risultato della risposta è di un tipo non previsto dal protocollo.
+     */
+    public static ByteBuffer encodeResponse(Response response) {
+        return encode(out -> {
+            out.writeShort(response.getStatusCode());
+            writeId(out, response.getId());
+
+            Response.Message message = response.getMessage();
+            writeString(out, message == null ? null : message.getBody());
+            writeResult(out, message == null ? null : message.getResult());
+        });
+    }
+
+    /**
+     * Copia una risposta codificata senza identificativo inserendo l'identificativo indicato.
+     * Permette di codificare una sola volta le risposte uguali per tutti i client e di completarle per ogni richiesta.
+     *
+     * @param frame La risposta codificata senza identificativo, con l'intestazione contenente la lunghezza; non viene modificata.
+     * @param id    L'identificativo della richiesta, oppure null.
+     * @return La risposta con l'identificativo, pronta per la lettura.
+     */
+    public static ByteBuffer withId(ByteBuffer frame, Long id) {
+        ByteBuffer source = frame.duplicate();
+        if (id == null) {
+            return source;
+        }
+        int length = source.getInt();
+        short statusCode = source.getShort();
+        source.get(); // flag della risposta senza identificativo
+
+        ByteBuffer copy = ByteBuffer.allocate(Integer.BYTES + length + Long.BYTES);
+        copy.putInt(length + Long.BYTES).putShort(statusCode).put(FLAG_ID).putLong(id).put(source);
+        return copy.flip();
+    }
+
+    /**
+     * Restituisce i byte iniziali del corpo di una risposta codificata senza identificativo, con l'identificativo indicato:
+     * codice di stato, byte di flag ed eventuale identificativo. Seguiti dal resto del corpo, dopo RESPONSE_HEAD byte,
+     * formano la stessa risposta di withId, per cui il resto del corpo può essere preparato una sola volta, ad esempio compresso.
+     *
+     * @param frame La risposta codificata senza identificativo, con l'intestazione contenente la lunghezza; non viene modificata.
+     * @param id    L'identificativo della richiesta, oppure null.
+     * @return I byte iniziali del corpo della risposta.
+     */
+    public static byte[] responseHead(ByteBuffer frame, Long id) {
+        ByteBuffer head = ByteBuffer.allocate(RESPONSE_HEAD + (id == null ? 0 : Long.BYTES));
+        head.putShort(frame.getShort(frame.position() + Integer.BYTES));
+        if (id == null) {
+            head.put((byte) 0);
+        } else {
+            head.put(FLAG_ID).putLong(id);
+        }
+        return head.array();
+    }
+
+    /**
+     * Decodifica il corpo di una risposta ricevuta dal server.
+     *
+     * @param frame Il corpo della risposta, senza l'intestazione con la lunghezza.
+     * @return La risposta decodificata; il risultato è una String, un Hotel, una List di Hotel, una Pair di String
+     * oppure, per un batch, una List di Response.
+     * @throws IllegalArgumentException Se la risposta non è valida.
+     */
+    public static Response decodeResponse(ByteBuffer frame) {
+        int statusCode = frame.getShort() & 0xFFFF;
+        Long id = readId(frame);
+        String body = getString(frame);
+        Object result = readResult(frame);
+
+        Response response = new Response(statusCode, new Response.Message(result, body));
+        response.setId(id);
+        return response;
+    }
+
+    /**
+     * Legge l'identificativo della richiesta dal byte di flag e dagli eventuali 8 byte successivi.
+     *
+     * @param frame Il messaggio, posizionato sul byte di flag.
+     * @return L'identificativo, oppure null se non è presente.
+     */
+    public static Long readId(ByteBuffer frame) {
+        byte flags = frame.get();
+        return (flags & FLAG_ID) != 0 ? frame.getLong() : null;
+    }
+
+    /**
+     * Legge una stringa preceduta dalla sua lunghezza in byte.
+     *
+     * @param frame Il messaggio, posizionato sulla lunghezza della stringa.
+     * @return La stringa letta, oppure null.
+     */
+    public static String getString(ByteBuffer frame) {
+        int length = frame.getShort() & 0xFFFF;
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        String value = StandardCharsets.UTF_8.decode(frame.duplicate().limit(frame.position() + length)).toString();
+        frame.position(frame.position() + length);
+        return value;
+    }
+
+    /**
+     * Legge una sequenza di byte preceduta dalla sua lunghezza.
+     *
+     * @param frame Il messaggio, posizionato sulla lunghezza della sequenza.
+     * @return I byte letti.
+     */
+    public static byte[] getBytes(ByteBuffer frame) {
+        byte[] value = new byte[frame.getShort() & 0xFFFF];
+        frame.get(value);
+        return value;
+    }
+
+    /**
+     * Legge un punteggio codificato in un byte.
+     *
+     * @param frame Il messaggio, posizionato sul punteggio.
+     * @return Il punteggio letto.
+     */
+    public static int getScore(ByteBuffer frame) {
+        return frame.get();
+    }
+
+    /**
+     * Legge i punteggi per categoria di una recensione, preceduti dal loro numero.
+     *
+     * @param frame Il messaggio, posizionato sul numero di punteggi.
+     * @return I punteggi letti.
+     * @throws IllegalArgumentException Se i punteggi non sono Review.NUM_SCORES o non sono tra 0 e Review.MAX_SCORE.
+     */
+    public static int[] getScores(ByteBuffer frame) {
+        int[] scores = new int[frame.get() & 0xFF];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = getScore(frame);
+        }
+        if (!Review.validScores(scores)) {
+            throw new IllegalArgumentException("Punteggi della recensione non validi");
+        }
+        return scores;
+    }
+
+    // Scrive il risultato di una risposta preceduto dal suo tipo
+    private static void writeResult(DataOutputStream out, Object result) throws IOException {
+        if (result == null) {
+            out.writeByte(RESULT_NONE);
+        } else if (result instanceof String) {
+            out.writeByte(RESULT_STRING);
+            writeString(out, (String) result);
+        } else if (result instanceof Hotel) {
+            out.writeByte(RESULT_HOTEL);
+            writeHotel(out, (Hotel) result);
+        } else if (result instanceof List) {
+            List<?> hotels = (List<?>) result;
+            out.writeByte(RESULT_HOTEL_LIST);
+            out.writeInt(hotels.size());
+            for (Object hotel : hotels) {
+                writeHotel(out, (Hotel) hotel);
+            }
+        } else if (result instanceof Response[]) {
+            Response[] responses = (Response[]) result;
+            out.writeByte(RESULT_BATCH);
+            out.writeShort(responses.length);
+            for (Response response : responses) {
+                out.writeShort(response.getStatusCode());
+                Response.Message message = response.getMessage();
+                writeString(out, message == null ? null : message.getBody());
+                writeResult(out, message == null ? null : message.getResult());
+            }
+        } else if (result instanceof Pair) {
+            Pair<?, ?> pair = (Pair<?, ?>) result;
+            out.writeByte(RESULT_PAIR);
+            writeString(out, pair.getFirst() == null ? null : pair.getFirst().toString());
+            writeString(out, pair.getSecond() == null ? null : pair.getSecond().toString());
+        } else {
+            throw new IllegalArgumentException("Tipo di risultato non previsto dal protocollo binario: " + result.getClass().getName());
+        }
+    }
+
+    private static Object readResult(ByteBuffer frame) {
+        byte type = frame.get();
+        switch (type) {
+            case RESULT_NONE:
+                return null;
+            case RESULT_STRING:
+                return getString(frame);
+            case RESULT_HOTEL:
+                return readHotel(frame);
+            case RESULT_HOTEL_LIST:
+                int size = frame.getInt();
+                List<Hotel> hotels = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    hotels.add(readHotel(frame));
+                }
+                return hotels;
+            case RESULT_PAIR:
+                return new Pair<>(getString(frame), getString(frame));
+            case RESULT_BATCH:
+                int count = frame.getShort() & 0xFFFF;
+                List<Response> responses = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    int statusCode = frame.getShort() & 0xFFFF;
+                    String body = getString(frame);
+                    responses.add(new Response(statusCode, new Response.Message(readResult(frame), body)));
+                }
+                return responses;
+            default:
+                throw new IllegalArgumentException("Tipo di risultato sconosciuto: " + type);
+        }
+    }
+
+    // Scrive il record di un hotel: identificativo, campi testuali, servizi, voto e voti per categoria
+    private static void writeHotel(DataOutputStream out, Hotel hotel) throws IOException {
+        out.writeInt(hotel.getId());
+        writeString(out, hotel.getName());
+        writeString(out, hotel.getDescription());
+        writeString(out, hotel.getCity());
+        writeString(out, hotel.getPhone());
+
+        List<String> services = hotel.getServices();
+        out.writeShort(services == null ? NULL_LENGTH : services.size());
+        if (services != null) {
+            for (String service : services) {
+                writeString(out, service);
+            }
+        }
+
+        out.writeDouble(hotel.getRate());
+
+        Categories ratings = hotel.getRatings();
+        out.writeBoolean(ratings != null);
+        if (ratings != null) {
+            out.writeDouble(ratings.getCleaning());
+            out.writeDouble(ratings.getPosition());
+            out.writeDouble(ratings.getServices());
+            out.writeDouble(ratings.getQuality());
+        }
+    }
+
+    private static Hotel readHotel(ByteBuffer frame) {
+        int id = frame.getInt();
+        String name = getString(frame);
+        String description = getString(frame);
+        String city = getString(frame);
+        String phone = getString(frame);
+
+        List<String> services = null;
+        int servicesCount = frame.getShort() & 0xFFFF;
+        if (servicesCount != NULL_LENGTH) {
+            services = new ArrayList<>(servicesCount);
+            for (int i = 0; i < servicesCount; i++) {
+                services.add(getString(frame));
+            }
+        }
+
+        double rate = frame.getDouble();
+
+        Categories ratings = null;
+        if (frame.get() != 0) {
+            ratings = new Categories(frame.getDouble(), frame.getDouble(), frame.getDouble(), frame.getDouble());
+        }
+
+        return new Hotel(id, name, description, city, phone, services, rate, ratings);
+    }
+
+    private static void writeId(DataOutputStream out, Long id) throws IOException {
+        out.writeByte(id != null ? FLAG_ID : 0);
+        if (id != null) {
+            out.writeLong(id);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeShort(NULL_LENGTH);
+            return;
+        }
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value.length >= NULL_LENGTH) {
+            throw new IllegalArgumentException("Campo troppo lungo per il protocollo binario: " + value.length + " byte");
+        }
+        out.writeShort(value.length);
+        out.write(value);
+    }
+
+    /**
+     * Scrittura del corpo di un messaggio binario.
+     */
+    private interface BodyWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Scrive il corpo del messaggio dopo uno spazio riservato all'intestazione, poi inserisce la lunghezza
+    private static ByteBuffer encode(BodyWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0);
+            writer.write(out);
+        } catch (IOException e) {
+            // Non si verifica: la scrittura avviene in memoria
+            throw new UncheckedIOException(e);
+        }
+
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, frame.capacity() - Integer.BYTES);
+        return frame;
+    }
+}
@@ -0,0 +1,294 @@
+package Shared;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * La classe FrameCompressor comprime con Deflater i messaggi più grandi di una soglia,
+ * per le connessioni che hanno richiesto la compressione con l'operazione SetCompression.
+ *
+ * Un messaggio compresso si distingue dagli altri per il bit più significativo dell'intestazione con la lunghezza:
+ * dopo l'intestazione si trovano la lunghezza del messaggio originale (4 byte) e i dati compressi.
+ * Ogni thread riutilizza la propria istanza di Deflater e di Inflater, evitando di allocarne una per ogni messaggio.
+ * Il compressore tiene le statistiche dei messaggi compressi: rapporto di compressione e tempo di CPU per messaggio.
+ *
+ * Le risposte uguali per tutti i client possono essere compresse una sola volta con prepare: per ogni richiesta
+ * complete aggiunge i pochi byte che cambiano (l'identificativo della richiesta) come blocchi deflate non compressi
+ * prima e dopo i dati già compressi, e calcola il checksum Adler-32 del messaggio combinando quelli delle parti,
+ * senza rileggere i dati. Il risultato è un normale flusso zlib, che il client decomprime con decompress.
+ */
+public class FrameCompressor {
+
+    // Bit dell'intestazione che indica un messaggio compresso
+    public static final int COMPRESSED_FLAG = 0x80000000;
+
+    // Deflater e Inflater riutilizzati da ogni thread; la compressione privilegia la velocità
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    // Intestazione zlib (metodo deflate, finestra di 32 KB, compressione veloce) dei messaggi composti da complete
+    private static final byte[] ZLIB_HEADER = {0x78, 0x01};
+
+    // Byte aggiunti da complete: intestazione zlib, intestazioni dei due blocchi non compressi e checksum
+    private static final int COMPLETE_OVERHEAD = ZLIB_HEADER.length + 2 * 5 + Integer.BYTES;
+
+    // Modulo del checksum Adler-32
+    private static final int ADLER_BASE = 65521;
+
+    // Usato per misurare il tempo di CPU del thread che comprime, se la JVM lo supporta
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    // Dimensione minima in byte del corpo di un messaggio per essere compresso
+    private final int threshold;
+
+    // Statistiche della compressione
+    private final AtomicLong compressedFrames;
+    private final AtomicLong skippedFrames;
+    private final AtomicLong bytesIn;
+    private final AtomicLong bytesOut;
+    private final AtomicLong cpuNanos;
+
+    /**
+     * Costruttore della classe FrameCompressor.
+     *
+     * @param threshold Dimensione minima in byte del corpo di un messaggio per essere compresso.
+     */
+    public FrameCompressor(int threshold) {
+        this.threshold = threshold;
+        this.compressedFrames = new AtomicLong();
+        this.skippedFrames = new AtomicLong();
+        this.bytesIn = new AtomicLong();
+        this.bytesOut = new AtomicLong();
+        this.cpuNanos = new AtomicLong();
+    }
+
+    /**
+     * Comprime un messaggio se il corpo supera la soglia e la compressione ne riduce la dimensione.
+     *
+     * @param frame Il messaggio codificato (intestazione con la lunghezza e corpo), pronto per la lettura.
+     * @return Il messaggio compresso, oppure quello originale se non conviene comprimerlo.
+     */
+    public ByteBuffer compress(ByteBuffer frame) {
+        int length = frame.remaining() - Integer.BYTES;
+        if (length < threshold) {
+            return frame;
+        }
+
+        long start = cpuTime();
+
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(frame.duplicate().position(frame.position() + Integer.BYTES));
+        deflater.finish();
+
+        // Il messaggio compresso viene usato solo se è più piccolo dell'originale
+        ByteBuffer compressed = ByteBuffer.allocate(frame.remaining());
+        compressed.position(2 * Integer.BYTES);
+        while (!deflater.finished() && compressed.hasRemaining()) {
+            deflater.deflate(compressed);
+        }
+        boolean smaller = deflater.finished() && compressed.hasRemaining();
+
+        cpuNanos.addAndGet(cpuTime() - start);
+
+        if (!smaller) {
+            skippedFrames.incrementAndGet();
+            return frame;
+        }
+
+        compressed.flip();
+        compressed.putInt(0, COMPRESSED_FLAG | (compressed.limit() - Integer.BYTES));
+        compressed.putInt(Integer.BYTES, length);
+
+        compressedFrames.incrementAndGet();
+        bytesIn.addAndGet(length);
+        bytesOut.addAndGet(compressed.limit() - Integer.BYTES);
+        return compressed;
+    }
+
+    /**
+     * Corpo di un messaggio compresso una sola volta da prepare, da completare per ogni richiesta con complete.
+     * L'oggetto è immutabile, per cui può essere usato da più thread senza sincronizzazione.
+     */
+    public static final class PreparedBody {
+
+        // Blocchi deflate senza intestazione zlib, terminati da un flush che li allinea al byte e senza blocco finale
+        private final byte[] deflated;
+
+        // Lunghezza e checksum Adler-32 dei dati originali
+        private final int length;
+        private final int adler;
+
+        private PreparedBody(byte[] deflated, int length, int adler) {
+            this.deflated = deflated;
+            this.length = length;
+            this.adler = adler;
+        }
+    }
+
+    /**
+     * Comprime una volta sola la parte comune di un messaggio inviato a più client, se supera la soglia e la compressione conviene.
+     *
+     * @param body   Array che contiene la parte comune del corpo del messaggio.
+     * @param offset Posizione della parte comune nell'array.
+     * @param length Lunghezza della parte comune.
+     * @return La parte comune compressa, oppure null se il messaggio deve essere inviato senza compressione.
+     */
+    public PreparedBody prepare(byte[] body, int offset, int length) {
+        if (length < threshold) {
+            return null;
+        }
+
+        long start = cpuTime();
+
+        // I dati compressi non sono l'ultimo blocco del flusso, per cui il flush li chiude senza terminare il flusso
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(length / 2);
+        try {
+            deflater.setInput(body, offset, length);
+            byte[] buffer = new byte[8192];
+            int written;
+            do {
+                written = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                deflated.write(buffer, 0, written);
+            } while (written == buffer.length);
+        } finally {
+            deflater.end();
+        }
+        Adler32 adler = new Adler32();
+        adler.update(body, offset, length);
+
+        cpuNanos.addAndGet(cpuTime() - start);
+
+        if (deflated.size() + COMPLETE_OVERHEAD >= length) {
+            skippedFrames.incrementAndGet();
+            return null;
+        }
+        compressedFrames.incrementAndGet();
+        bytesIn.addAndGet(length);
+        bytesOut.addAndGet(deflated.size() + COMPLETE_OVERHEAD);
+        return new PreparedBody(deflated.toByteArray(), length, (int) adler.getValue());
+    }
+
+    /**
+     * Compone il messaggio compresso con i byte iniziali e finali di una richiesta e la parte comune compressa da prepare,
+     * senza comprimere di nuovo: il costo è la copia dei dati compressi.
+     *
+     * @param body Parte comune compressa.
+     * @param head Byte del corpo che precedono la parte comune, anche vuoto.
+     * @param tail Byte del corpo che seguono la parte comune, anche vuoto.
+     * @return Il messaggio compresso, con l'intestazione contenente la lunghezza, pronto per la lettura.
+     */
+    public static ByteBuffer complete(PreparedBody body, byte[] head, byte[] tail) {
+        int compressedLength = Integer.BYTES + COMPLETE_OVERHEAD + head.length + body.deflated.length + tail.length;
+
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + compressedLength);
+        frame.putInt(COMPRESSED_FLAG | compressedLength);
+        frame.putInt(head.length + body.length + tail.length);
+        frame.put(ZLIB_HEADER);
+        putStoredBlock(frame, head, false);
+        frame.put(body.deflated);
+        putStoredBlock(frame, tail, true);
+
+        // Checksum del corpo originale, combinato da quelli delle tre parti
+        long adler = combineAdler(adler(head), body.adler & 0xFFFFFFFFL, body.length);
+        frame.putInt((int) combineAdler(adler, adler(tail), tail.length));
+        return frame.flip();
+    }
+
+    // Scrive un blocco deflate non compresso: intestazione allineata al byte, lunghezza e suo complemento, dati
+    private static void putStoredBlock(ByteBuffer frame, byte[] data, boolean last) {
+        frame.put((byte) (last ? 1 : 0));
+        frame.putShort(Short.reverseBytes((short) data.length));
+        frame.putShort(Short.reverseBytes((short) ~data.length));
+        frame.put(data);
+    }
+
+    private static long adler(byte[] data) {
+        Adler32 adler = new Adler32();
+        adler.update(data);
+        return adler.getValue();
+    }
+
+    // Checksum Adler-32 della concatenazione di due sequenze, a partire dai loro checksum e dalla lunghezza della seconda
+    private static long combineAdler(long adler1, long adler2, long length2) {
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= 2L * ADLER_BASE) {
+            sum2 -= 2L * ADLER_BASE;
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * Decomprime il corpo di un messaggio compresso.
+     *
+     * @param body Il corpo del messaggio ricevuto, senza l'intestazione: lunghezza originale e dati compressi.
+     * @return Il corpo del messaggio originale, pronto per la lettura.
+     * @throws IOException Se i dati compressi non sono validi.
+     */
+    public static ByteBuffer decompress(ByteBuffer body) throws IOException {
+        ByteBuffer original = ByteBuffer.allocate(body.getInt());
+
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(body);
+        try {
+            while (!inflater.finished() && original.hasRemaining()) {
+                if (inflater.inflate(original) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Messaggio compresso non valido: " + e.getMessage(), e);
+        }
+        if (original.hasRemaining()) {
+            throw new IOException("Messaggio compresso troncato");
+        }
+
+        return original.flip();
+    }
+
+    /**
+     * Restituisce una descrizione delle statistiche della compressione.
+     *
+     * @return Stringa con il numero di messaggi compressi e non compressi, il rapporto di compressione
+     * e il tempo medio di CPU speso per ogni messaggio compresso.
+     */
+    public String getStats() {
+        long frames = compressedFrames.get();
+        long in = bytesIn.get();
+        long out = bytesOut.get();
+        long attempts = frames + skippedFrames.get();
+        return "compressione messaggi compressi=" + frames
+                + " non convenienti=" + skippedFrames.get()
+                + " byte=" + in + "->" + out
+                + String.format(" rapporto=%.2f", in == 0 ? 1.0 : (double) out / in)
+                + String.format(" CPU per messaggio=%.1f us", attempts == 0 ? 0.0 : cpuNanos.get() / 1000.0 / attempts);
+    }
+
+    // Tempo di CPU del thread corrente in nanosecondi, oppure il tempo reale se la misura non è supportata
+    private static long cpuTime() {
+        return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+}
@@ -0,0 +1,102 @@
+package Shared;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+
+/**
+ * La classe FrameReader è un Reader che decodifica in UTF-8 il contenuto di un ByteBuffer, senza copiarlo.
+ * Usata con un JsonReader permette di decodificare un messaggio senza costruire la stringa JSON.
+ * Le sequenze UTF-8 non valide vengono sostituite con il carattere U+FFFD, come fa String.
+ * La lettura avanza la posizione del buffer; non è thread-safe.
+ */
+public class FrameReader extends Reader {
+
+    // Carattere usato al posto delle sequenze non valide
+    private static final char REPLACEMENT = '\uFFFD';
+
+    // Messaggio da decodificare
+    private final ByteBuffer frame;
+
+    // Secondo carattere di una coppia surrogata non ancora restituito, 0 se non presente
+    private char lowSurrogate;
+
+    /**
+     * Costruttore della classe FrameReader.
+     *
+     * @param frame Il messaggio da decodificare, pronto per la lettura.
+     */
+    public FrameReader(ByteBuffer frame) {
+        this.frame = frame;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int count = 0;
+        while (count < len) {
+            if (lowSurrogate != 0) {
+                cbuf[off + count++] = lowSurrogate;
+                lowSurrogate = 0;
+                continue;
+            }
+            if (!frame.hasRemaining()) {
+                break;
+            }
+            int b = frame.get() & 0xFF;
+            if (b < 0x80) {
+                cbuf[off + count++] = (char) b;
+            } else {
+                int codePoint = decodeMultiByte(b);
+                if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                    cbuf[off + count++] = Character.highSurrogate(codePoint);
+                    lowSurrogate = Character.lowSurrogate(codePoint);
+                } else {
+                    cbuf[off + count++] = (char) codePoint;
+                }
+            }
+        }
+        return count == 0 ? -1 : count;
+    }
+
+    // Decodifica una sequenza di più byte a partire dal primo byte già letto
+    private int decodeMultiByte(int first) {
+        int extra;
+        int codePoint;
+        int min;
+        if ((first & 0xE0) == 0xC0) {
+            extra = 1;
+            codePoint = first & 0x1F;
+            min = 0x80;
+        } else if ((first & 0xF0) == 0xE0) {
+            extra = 2;
+            codePoint = first & 0x0F;
+            min = 0x800;
+        } else if ((first & 0xF8) == 0xF0) {
+            extra = 3;
+            codePoint = first & 0x07;
+            min = 0x10000;
+        } else {
+            return REPLACEMENT;
+        }
+
+        for (int i = 0; i < extra; i++) {
+            // Un byte che non continua la sequenza viene lasciato per il carattere successivo
+            if (!frame.hasRemaining() || (frame.get(frame.position()) & 0xC0) != 0x80) {
+                return REPLACEMENT;
+            }
+            codePoint = (codePoint << 6) | (frame.get() & 0x3F);
+        }
+
+        if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            return REPLACEMENT;
+        }
+        return codePoint;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,145 @@
+package Shared;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * La classe FrameWriter è un Writer che codifica i caratteri in UTF-8 direttamente in un ByteBuffer,
+ * lasciando all'inizio lo spazio per l'intestazione con la lunghezza del messaggio, che viene inserita alla fine.
+ * Usata con un JsonWriter permette di codificare una risposta senza costruire la stringa JSON e il relativo array di byte.
+ *
+ * Il buffer cresce quando serve e viene riutilizzato dopo reset(), per cui un FrameWriter può essere
+ * conservato in un pool e usato per più messaggi; non è thread-safe.
+ */
+public class FrameWriter extends Writer {
+
+    // Dimensione oltre la quale il buffer non viene conservato dopo reset(), per non trattenere la memoria dei messaggi più grandi
+    private static final int MAX_RETAINED_CAPACITY = 256 * 1024;
+
+    // Dimensione iniziale del buffer
+    private final int initialCapacity;
+
+    // Buffer con l'intestazione e il messaggio codificato
+    private ByteBuffer buffer;
+
+    // Primo carattere di una coppia surrogata in attesa del secondo, 0 se non presente
+    private char highSurrogate;
+
+    /**
+     * Costruttore della classe FrameWriter.
+     *
+     * @param initialCapacity Dimensione iniziale del buffer in byte.
+     */
+    public FrameWriter(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+        reset();
+    }
+
+    /**
+     * Prepara il writer per un nuovo messaggio, scartando quello precedente.
+     */
+    public void reset() {
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer = ByteBuffer.allocate(initialCapacity);
+        }
+        buffer.clear().position(Integer.BYTES);
+        highSurrogate = 0;
+    }
+
+    /**
+     * Inserisce la lunghezza nell'intestazione e copia il messaggio in un nuovo buffer della dimensione esatta,
+     * che resta valido anche dopo il riutilizzo del writer.
+     *
+     * @return Il messaggio con l'intestazione contenente la lunghezza, pronto per la lettura.
+     */
+    public ByteBuffer toFrame() {
+        if (highSurrogate != 0) {
+            // Coppia surrogata incompleta alla fine del messaggio
+            highSurrogate = 0;
+            put((byte) '?');
+        }
+        buffer.putInt(0, buffer.position() - Integer.BYTES);
+
+        ByteBuffer frame = ByteBuffer.allocate(buffer.position());
+        frame.put(buffer.duplicate().flip());
+        return frame.flip();
+    }
+
+    @Override
+    public void write(int c) {
+        writeChar((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            writeChar(cbuf[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            writeChar(str.charAt(i));
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    // Codifica un carattere in UTF-8; i caratteri surrogati non validi vengono sostituiti con '?', come fa String.getBytes
+    private void writeChar(char c) {
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                ensureCapacity(4);
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+                return;
+            }
+            put((byte) '?');
+        }
+
+        if (c < 0x80) {
+            put((byte) c);
+        } else if (c < 0x800) {
+            ensureCapacity(2);
+            buffer.put((byte) (0xC0 | (c >> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            put((byte) '?');
+        } else {
+            ensureCapacity(3);
+            buffer.put((byte) (0xE0 | (c >> 12)));
+            buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        }
+    }
+
+    private void put(byte b) {
+        ensureCapacity(1);
+        buffer.put(b);
+    }
+
+    // Raddoppia il buffer se non ci sono abbastanza byte liberi
+    private void ensureCapacity(int needed) {
+        if (buffer.remaining() >= needed) {
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        larger.put(buffer.flip());
+        buffer = larger;
+    }
+}
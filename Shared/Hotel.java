@@ -1,10 +1,6 @@
 package Shared;
 
 import java.io.Serializable;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
 import java.util.List;
 
 public class Hotel implements Serializable {
@@ -68,49 +64,48 @@ public class Hotel implements Serializable {
         this.rate = rate;
     }
 
-    public void calcolaRanking(List<Review> reviewsHotel) {
+    // Peso di una recensione in base alla sua età in giorni: l'attualità scende di 0.05 ogni anno
+    public static double recencyWeight(long daysBetween) {
+        double yearsBetween = daysBetween / 365.0; // Calcola il numero di anni trascorsi
+        return 1.0 - (0.05 * Math.floor(yearsBetween));
+    }
+
+    // Ricalcola il voto e i voti per categoria dalle somme dei punteggi delle recensioni, ciascuno moltiplicato per il peso
+    // dell'attualità della recensione; restituisce true se almeno un voto è cambiato
+    public boolean calcolaRanking(int numReviews, double totalRate, double cleaningRate, double positionRate, double servicesRate, double qualityRate) {
 
-        if (reviewsHotel== null || reviewsHotel.isEmpty())
+        if (numReviews == 0)
         {
-            return;
+            return false;
         }
-        double totalRate = 0.0;
         double quantityWeight;
 
-        double positionRate = 0.0;
-        double cleaningRate = 0.0;
-        double servicesRate = 0.0;
-        double qualityRate = 0.0;
-        LocalDateTime now = LocalDateTime.now();
-
-        for (Review review : reviewsHotel) {
-
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy");
-            LocalDate reviewDate = LocalDate.parse(review.getData(), formatter);
-            long daysBetween = ChronoUnit.DAYS.between(reviewDate, now);
-
-            double yearsBetween = daysBetween / 365.0; // Calcola il numero di anni trascorsi
-            double recencyWeight = 1.0 - (0.05 * Math.floor(yearsBetween)); // L'attualità scende di 0.05 ogni anno
-
-            totalRate += recencyWeight * review.getGlobalscor(); //al punteggio applico il peso calcolato
-            cleaningRate += recencyWeight * review.getRatings().getCleaning();
-            positionRate += recencyWeight * review.getRatings().getPosition();
-            servicesRate += recencyWeight * review.getRatings().getServices();
-            qualityRate += recencyWeight * review.getRatings().getQuality();
-        }
-
-        quantityWeight = 0.3 - (0.02 * (reviewsHotel.size() -1));
+        quantityWeight = 0.3 - (0.02 * (numReviews -1));
 
         // Dopo 15 recensioni, si presume che l'utente si concentri solo sulla qualità e sull'attualità della recensione.
         //Il peso della quantità (quante recensioni ci sono) diventa meno importante rispetto alla qualità (quanto sono buone le recensioni) e all'attualità (quanto sono recenti le recensioni).
         if (quantityWeight < 0) quantityWeight = 0;
 
-        this.rate =  (totalRate /reviewsHotel.size()) - quantityWeight;
-        this.ratings.setCleaning((cleaningRate /reviewsHotel.size()) - quantityWeight);
-        this.ratings.setPosition((positionRate /reviewsHotel.size()) - quantityWeight);
-        this.ratings.setServices( (servicesRate /reviewsHotel.size()) - quantityWeight);
-        this.ratings.setQuality((qualityRate /reviewsHotel.size()) - quantityWeight);
-
+        double newRate = (totalRate /numReviews) - quantityWeight;
+        double newCleaning = (cleaningRate /numReviews) - quantityWeight;
+        double newPosition = (positionRate /numReviews) - quantityWeight;
+        double newServices = (servicesRate /numReviews) - quantityWeight;
+        double newQuality = (qualityRate /numReviews) - quantityWeight;
+
+        // Senza nuove recensioni e senza cambi d'anno i voti restano uguali, e l'hotel non deve essere salvato di nuovo
+        boolean changed = newRate != rate
+                || newCleaning != ratings.getCleaning()
+                || newPosition != ratings.getPosition()
+                || newServices != ratings.getServices()
+                || newQuality != ratings.getQuality();
+
+        this.rate = newRate;
+        this.ratings.setCleaning(newCleaning);
+        this.ratings.setPosition(newPosition);
+        this.ratings.setServices(newServices);
+        this.ratings.setQuality(newQuality);
+
+        return changed;
 
     }
 
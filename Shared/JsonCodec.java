@@ -0,0 +1,86 @@
+package Shared;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * La classe JsonCodec raccoglie le istanze di Gson condivise dal programma e la codifica in streaming dei messaggi JSON.
+ * Le istanze di Gson sono thread-safe e conservano le informazioni sulle classi già usate,
+ * per cui crearne una per ogni messaggio ripeterebbe ogni volta la preparazione via reflection.
+ *
+ * I messaggi vengono codificati con un JsonWriter direttamente nel buffer di un FrameWriter,
+ * preso da un pool condiviso da tutti i thread, invece di passare da una String e da un array di byte.
+ * Il pool è condiviso invece che legato al thread perché i thread virtuali non vengono riutilizzati.
+ */
+public final class JsonCodec {
+
+    // Istanza condivisa per i messaggi scambiati con i client
+    public static final Gson GSON = new Gson();
+
+    // Istanza condivisa per i file, indentati per essere leggibili
+    public static final Gson PRETTY_GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    // Dimensione iniziale del buffer di un FrameWriter
+    private static final int FRAME_WRITER_CAPACITY = 4096;
+
+    // FrameWriter pronti per essere riutilizzati; quelli in eccesso vengono scartati
+    private static final ArrayBlockingQueue<FrameWriter> FRAME_WRITERS = new ArrayBlockingQueue<>(64);
+
+    private JsonCodec() {
+    }
+
+    /**
+     * Scrittura in streaming del contenuto di un file JSON.
+     */
+    public interface JsonBodyWriter {
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    /**
+     * Codifica un oggetto in JSON, con l'intestazione contenente la lunghezza, senza costruire la stringa JSON.
+     *
+     * @param value L'oggetto da codificare.
+     * @return Il messaggio codificato in UTF-8, pronto per la lettura.
+     */
+    public static ByteBuffer toFrame(Object value) {
+        FrameWriter frameWriter = FRAME_WRITERS.poll();
+        if (frameWriter == null) {
+            frameWriter = new FrameWriter(FRAME_WRITER_CAPACITY);
+        }
+        try {
+            frameWriter.reset();
+            GSON.toJson(value, value.getClass(), GSON.newJsonWriter(frameWriter));
+            return frameWriter.toFrame();
+        } catch (IOException e) {
+            // Non si verifica: la scrittura avviene in memoria
+            throw new UncheckedIOException(e);
+        } finally {
+            FRAME_WRITERS.offer(frameWriter);
+        }
+    }
+
+    /**
+     * Scrive un file JSON indentato in streaming, senza costruire l'albero JSON né la stringa con l'intero contenuto.
+     * Il file viene sovrascritto e termina con un a capo.
+     *
+     * @param filePath Percorso del file.
+     * @param body     Scrittura del contenuto del file.
+     * @throws IOException Se si verifica un errore durante la scrittura.
+     */
+    public static void writeFile(String filePath, JsonBodyWriter body) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(filePath, false))) {
+            JsonWriter writer = PRETTY_GSON.newJsonWriter(out);
+            body.write(writer);
+            writer.flush();
+            out.write(System.lineSeparator());
+        }
+    }
+}
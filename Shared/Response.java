@@ -1,11 +1,6 @@
 package Shared;// La classe Shared.Response rappresenta una risposta da inviare al client
-import com.google.gson.Gson;
 
-import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
 
 public class Response {
 
@@ -15,6 +10,9 @@ public class Response {
     // Il messaggio della risposta
     private Message message;
 
+    // Identificativo della richiesta a cui si risponde, presente solo se il client lo ha indicato nella richiesta
+    private Long id;
+
     public Response(int statusCode, Message message) {
         this.statusCode = statusCode;
         this.message = message;
@@ -26,37 +24,17 @@ public class Response {
     public Message getMessage() {
         return message;
     }
+    public Long getId() {
+        return id;
+    }
+    public void setId(Long id) {
+        this.id = id;
+    }
 
-    // Metodo per scrivere una risposta sul canale
-    public void writeResponse(SelectionKey key) {
-        SocketChannel c_channel = (SocketChannel) key.channel();
-        Gson gson = new Gson();
-        String jsonResponse = gson.toJson(this);
-        System.out.println("Messaggio che invia al client: " + jsonResponse);
-
-        try {
-            // Ottieni i byte della risposta in UTF-8
-            byte[] jsonBytes = jsonResponse.getBytes(StandardCharsets.UTF_8);
-
-            // Calcola la lunghezza della risposta in byte
-            int messageLength = jsonBytes.length;
-
-            // Invia la lunghezza del messaggio come intero (4 byte)
-            ByteBuffer lengthBuffer = ByteBuffer.allocate(4).putInt(messageLength);
-            lengthBuffer.flip();
-            while (lengthBuffer.hasRemaining()) {
-                c_channel.write(lengthBuffer);
-            }
-
-            // Invia il messaggio JSON
-            ByteBuffer messageBuffer = ByteBuffer.wrap(jsonBytes);
-            while (messageBuffer.hasRemaining()) {
-                c_channel.write(messageBuffer);
-            }
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    // Metodo per codificare la risposta in un messaggio da inviare sul canale: 4 byte con la lunghezza seguiti dal JSON in UTF-8,
+    // codificato in streaming con l'istanza di Gson condivisa
+    public ByteBuffer toFrame() {
+        return JsonCodec.toFrame(this);
     }
 
 
@@ -2,6 +2,13 @@ package Shared;
 
 
 public class Review {
+
+    // Numero di punteggi per categoria di una recensione: pulizia, posizione, servizi, qualità
+    public static final int NUM_SCORES = 4;
+
+    // Punteggio massimo, per il voto complessivo e per ogni categoria; il minimo è 0
+    public static final int MAX_SCORE = 5;
+
     private String user;
     private int idHotel;
     private String nameHotel;
@@ -42,6 +49,19 @@ public class Review {
         return data;
     }
 
+    // Verifica che i punteggi per categoria siano esattamente NUM_SCORES, ciascuno tra 0 e MAX_SCORE
+    public static boolean validScores(int[] scores) {
+        if (scores == null || scores.length != NUM_SCORES) {
+            return false;
+        }
+        for (int score : scores) {
+            if (score < 0 || score > MAX_SCORE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 
 
 